@@ -0,0 +1,161 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+/**
+ * Decides when to step the local video quality up or down along a ladder of levels
+ * (e.g. capture formats and frame rates ordered from lowest to highest),
+ * based on the sent video bitrate and packet loss.
+ * <p>
+ * This class only holds the decision logic, and has no dependency on the SDK or Android,
+ * so it can be driven by recorded stats traces.
+ * <p>
+ * Hysteresis:
+ * - Stepping down needs a few consecutive congested samples.
+ * - Stepping up needs many more consecutive good samples, and the number needed doubles each
+ * time a step up is followed soon after by a step down, until a step up holds.
+ * - No step is taken within a hold time after the previous step.
+ */
+public class AdaptiveVideoController {
+
+    // A sample is congested if at least this many packets were lost since the previous sample.
+    static final long LOSS_HIGH_PACKETS = 10;
+    // A sample can only be good if at most this many packets were lost.
+    static final long LOSS_LOW_PACKETS = 1;
+    // A sample is congested if its bitrate falls below this ratio of the baseline bitrate.
+    static final double BITRATE_DROP_RATIO = 0.5;
+    // Weight of a new good sample in the baseline bitrate.
+    static final double BASELINE_WEIGHT = 0.2;
+
+    static final int DOWN_SAMPLES = 2;
+    static final int UP_SAMPLES = 10;
+    static final int UP_SAMPLES_MAX = 80;
+    static final long HOLD_MS = 5000;
+    // A step down within this time after a step up means the step up was premature.
+    static final long UP_PROBE_FAIL_MS = 30000;
+
+    private int levelCount;
+    private int level;
+
+    private long lostSinceSample;
+    private double baselineKbps = Double.NaN;
+    private int badCount;
+    private int goodCount;
+    private int upSamplesNeeded = UP_SAMPLES;
+    private long lastChangeMs = Long.MIN_VALUE;
+    private long lastUpMs = Long.MIN_VALUE;
+
+    /**
+     * @param levelCount Number of levels in the ladder.
+     * @param level      Starting level, from 0 (lowest) to levelCount - 1 (highest).
+     */
+    public AdaptiveVideoController(int levelCount, int level) {
+        reset(levelCount, level);
+    }
+
+    /**
+     * Start over with a new ladder, e.g. after the camera has changed.
+     *
+     * @param levelCount
+     * @param level
+     */
+    public synchronized void reset(int levelCount, int level) {
+        this.levelCount = levelCount;
+        this.level = Math.max(0, Math.min(levelCount - 1, level));
+        lostSinceSample = 0;
+        baselineKbps = Double.NaN;
+        badCount = 0;
+        goodCount = 0;
+        upSamplesNeeded = UP_SAMPLES;
+        lastChangeMs = Long.MIN_VALUE;
+        lastUpMs = Long.MIN_VALUE;
+    }
+
+    /**
+     * Record packets lost on the sent video since the last call.
+     *
+     * @param packetsLost
+     */
+    public synchronized void onPacketsLost(long packetsLost) {
+        if (packetsLost > 0) {
+            lostSinceSample += packetsLost;
+        }
+    }
+
+    /**
+     * Evaluate a sample of the sent video bitrate, together with packets lost since the
+     * previous sample.
+     *
+     * @param nowMs Time of the sample in ms.
+     * @param kbps  Sent video bitrate.
+     * @return The level to use, which may be the same as the current level.
+     */
+    public synchronized int onSendBitrate(long nowMs, double kbps) {
+        long lost = lostSinceSample;
+        lostSinceSample = 0;
+
+        // No video being sent (e.g. muted), nothing to judge.
+        if (Double.isNaN(kbps) || kbps <= 0) {
+            return level;
+        }
+        // Let the new level settle before judging it.
+        if (lastChangeMs != Long.MIN_VALUE && nowMs - lastChangeMs < HOLD_MS) {
+            return level;
+        }
+
+        boolean congested = lost >= LOSS_HIGH_PACKETS ||
+                (!Double.isNaN(baselineKbps) && kbps < baselineKbps * BITRATE_DROP_RATIO);
+        if (congested) {
+            goodCount = 0;
+            ++badCount;
+            if (badCount >= DOWN_SAMPLES && level > 0) {
+                // If the last step up did not hold, be slower to step up again.
+                if (lastUpMs != Long.MIN_VALUE && nowMs - lastUpMs < UP_PROBE_FAIL_MS) {
+                    upSamplesNeeded = Math.min(UP_SAMPLES_MAX, upSamplesNeeded * 2);
+                }
+                lastUpMs = Long.MIN_VALUE;
+                changeLevel(level - 1, nowMs);
+            }
+            return level;
+        }
+
+        badCount = 0;
+        if (lost > LOSS_LOW_PACKETS) {
+            // Neither congested nor good.
+            goodCount = 0;
+            return level;
+        }
+
+        if (Double.isNaN(baselineKbps)) {
+            baselineKbps = kbps;
+        } else {
+            baselineKbps += BASELINE_WEIGHT * (kbps - baselineKbps);
+        }
+        // The last step up has held, so step up at the normal pace again.
+        if (lastUpMs != Long.MIN_VALUE && nowMs - lastUpMs >= UP_PROBE_FAIL_MS) {
+            upSamplesNeeded = UP_SAMPLES;
+            lastUpMs = Long.MIN_VALUE;
+        }
+        ++goodCount;
+        if (goodCount >= upSamplesNeeded && level < levelCount - 1) {
+            lastUpMs = nowMs;
+            changeLevel(level + 1, nowMs);
+        }
+        return level;
+    }
+
+    public synchronized int getLevel() {
+        return level;
+    }
+
+    public synchronized int getLevelCount() {
+        return levelCount;
+    }
+
+    private void changeLevel(int newLevel, long nowMs) {
+        level = newLevel;
+        lastChangeMs = nowMs;
+        badCount = 0;
+        goodCount = 0;
+        // The bitrate at the new level is expected to differ.
+        baselineKbps = Double.NaN;
+    }
+}
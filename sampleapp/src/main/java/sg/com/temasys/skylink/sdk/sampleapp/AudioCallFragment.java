@@ -14,8 +14,6 @@ import android.widget.TextView;
 
 import org.webrtc.SurfaceViewRenderer;
 
-import java.util.Date;
-
 import sg.com.temasys.skylink.sdk.listener.LifeCycleListener;
 import sg.com.temasys.skylink.sdk.listener.MediaListener;
 import sg.com.temasys.skylink.sdk.listener.OsListener;
@@ -54,6 +52,8 @@ public class AudioCallFragment extends Fragment
     private static final String BUNDLE_PEER_NAME = "remotePeerName";
     private static SkylinkConnection skylinkConnection;
     private static SkylinkConfig skylinkConfig;
+    // Rejoins the room after an unexpected disconnect.
+    private ReconnectManager reconnectManager;
     private TextView tvRoomDetails;
     private Button btnAudioCall;
     private String remotePeerId;
@@ -67,6 +67,8 @@ public class AudioCallFragment extends Fragment
 
         ROOM_NAME = Config.ROOM_NAME_AUDIO;
         MY_USER_NAME = Config.USER_NAME_AUDIO;
+        // Leave the room of another sample, if still in it.
+        SkylinkSessionManager.getInstance().endOther(getSessionKey());
 
         View rootView = inflater.inflate(R.layout.fragment_audio_call, container, false);
         tvRoomDetails = (TextView) rootView.findViewById(R.id.tv_room_details);
@@ -131,6 +133,10 @@ public class AudioCallFragment extends Fragment
     @Override
     public void onDetach() {
         super.onDetach();
+        // Stop rejoining the room, as this sample is no longer shown.
+        if (reconnectManager != null) {
+            reconnectManager.cancel();
+        }
         disconnectFromRoom();
     }
 
@@ -155,7 +161,12 @@ public class AudioCallFragment extends Fragment
     // Skylink helper methods
     //----------------------------------------------------------------------------------------------
 
-    private void connectToRoom() {
+    /**
+     * Connect to the room, initializing SkylinkConnection.
+     *
+     * @return false if unable to connect.
+     */
+    private boolean connectToRoom() {
         // Initialize the skylink connection
         initializeSkylinkConnection();
 
@@ -163,8 +174,9 @@ public class AudioCallFragment extends Fragment
         // In production, the connection string should be generated by an external entity
         // (such as a secure App server that has the Skylink App Key secret), and sent to the App.
         // This is to avoid keeping the App Key secret within the application, for better security.
-        String skylinkConnectionString = Utils.getSkylinkConnectionString(
-                ROOM_NAME, new Date(), SkylinkConnection.DEFAULT_DURATION);
+        // Reuse a connection string signed earlier for this room, if still valid.
+        String skylinkConnectionString = CredentialCache.getInstance().get(
+                ROOM_NAME, SkylinkConnection.DEFAULT_DURATION);
 
         // The skylinkConnectionString should not be logged in production,
         // as it contains potentially sensitive information like the Skylink App Key ID.
@@ -174,7 +186,7 @@ public class AudioCallFragment extends Fragment
         if (connectFailed) {
             String log = "Unable to connect to room!";
             toastLog(TAG, context, log);
-            return;
+            return false;
         } else {
             String log = "Connecting...";
             toastLog(TAG, context, log);
@@ -182,6 +194,32 @@ public class AudioCallFragment extends Fragment
 
         // Initialize and use the Audio router to switch between headphone and headset
         AudioRouter.startAudioRouting(context);
+        return true;
+    }
+
+    private ReconnectManager getReconnectManager() {
+        if (reconnectManager != null) {
+            return reconnectManager;
+        }
+
+        reconnectManager = new ReconnectManager(new ReconnectManager.Reconnector() {
+            @Override
+            public void prepare() {
+                // Have the config and connection string ready for the first attempt.
+                getSkylinkConfig();
+                CredentialCache.getInstance().get(ROOM_NAME, SkylinkConnection.DEFAULT_DURATION);
+            }
+
+            @Override
+            public boolean reconnect() {
+                if (!connectToRoom()) {
+                    return false;
+                }
+                onConnectUIChange();
+                return true;
+            }
+        });
+        return reconnectManager;
     }
 
     private SkylinkConfig getSkylinkConfig() {
@@ -205,10 +243,13 @@ public class AudioCallFragment extends Fragment
         return skylinkConfig;
     }
 
+    private String getSessionKey() {
+        return SkylinkSessionManager.getSessionKey(TAG, ROOM_NAME, MY_USER_NAME);
+    }
+
     private void initializeSkylinkConnection() {
-        skylinkConnection = SkylinkConnection.getInstance();
-        skylinkConnection.init(Config.getAppKey(), getSkylinkConfig(),
-                context.getApplicationContext());
+        skylinkConnection = SkylinkSessionManager.getInstance().start(getSessionKey(),
+                getSkylinkConfig(), context, null);
 
         // Set listeners to receive callbacks when events are triggered
         setListeners();
@@ -223,10 +264,8 @@ public class AudioCallFragment extends Fragment
      */
     private boolean setListeners() {
         if (skylinkConnection != null) {
-            skylinkConnection.setLifeCycleListener(this);
-            skylinkConnection.setMediaListener(this);
-            skylinkConnection.setOsListener(this);
-            skylinkConnection.setRemotePeerListener(this);
+            // Receive callbacks of the session via the event bus, on the UI thread.
+            SkylinkSessionManager.getInstance().attach(this);
             return true;
         } else {
             return false;
@@ -278,6 +317,7 @@ public class AudioCallFragment extends Fragment
 
     @Override
     public void onConnect(boolean isSuccessful, String message) {
+        getReconnectManager().onConnect(isSuccessful);
         if (isSuccessful) {
             String log = "Connected to room " + ROOM_NAME + " (" + skylinkConnection.getRoomId() +
                     ") as " + skylinkConnection.getPeerId() + " (" + MY_USER_NAME + ").";
@@ -302,6 +342,8 @@ public class AudioCallFragment extends Fragment
         }
         log += " Server message: " + message;
         toastLogLong(TAG, context, log);
+        // Rejoin the room if the disconnect was unexpected.
+        getReconnectManager().onDisconnect(errorCode);
     }
 
     @Override
@@ -0,0 +1,225 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+import sg.com.temasys.skylink.sdk.rtc.Info;
+
+/**
+ * Keeps bounded time series of call quality metrics per Peer, media direction and media type,
+ * fed by the StatsListener callbacks.
+ * Each metric is a {@link MetricSeries} with rolling aggregates over 10s, 60s and 5 min windows.
+ */
+public class CallQualityMonitor {
+
+    // Windows of the MetricSeries, as indexes into WINDOWS_MS.
+    public static final int WINDOW_10S = 0;
+    public static final int WINDOW_60S = 1;
+    public static final int WINDOW_5MIN = 2;
+    private static final long[] WINDOWS_MS = {10 * 1000, 60 * 1000, 5 * 60 * 1000};
+
+    // Metrics kept for each Peer, media direction and media type.
+    // Bitrate in kbps, from transfer speeds.
+    public static final int METRIC_BITRATE = 0;
+    // Round trip time in ms.
+    public static final int METRIC_RTT = 1;
+    // Number of packets lost since the previous stats report.
+    public static final int METRIC_LOSS = 2;
+    // Frames per second.
+    public static final int METRIC_FPS = 3;
+    private static final String[] METRIC_NAMES = {"Bitrate(kbps)", "RTT(ms)", "Loss", "FPS"};
+
+    // Samples kept per metric. Enough for the longest window at about 1 sample per second.
+    private static final int SERIES_CAPACITY = 512;
+
+    // Map with PeerId as key for the time series of that Peer.
+    private final ConcurrentHashMap<String, PeerQuality> peers =
+            new ConcurrentHashMap<String, PeerQuality>();
+
+    /**
+     * Record the values of a WebRTC stats report.
+     *
+     * @param stats
+     */
+    public void onWebrtcStats(WebrtcStats stats) {
+        if (stats == null || stats.getPeerId() == null) {
+            return;
+        }
+        QualitySeries series = getOrCreate(
+                stats.getPeerId(), stats.getMediaDirection(), stats.getMediaType());
+        long nowMs = stats.getTimestampMs();
+        series.metrics[METRIC_RTT].add(nowMs, stats.getRttMs());
+        series.metrics[METRIC_FPS].add(nowMs, stats.getFps());
+
+        // Packets lost is cumulative, so record the change since the previous report.
+        long packetsLost = stats.getPacketsLost();
+        if (packetsLost != WebrtcStats.UNKNOWN) {
+            synchronized (series) {
+                if (series.lastPacketsLost != WebrtcStats.UNKNOWN
+                        && packetsLost >= series.lastPacketsLost) {
+                    series.metrics[METRIC_LOSS].add(nowMs, packetsLost - series.lastPacketsLost);
+                }
+                series.lastPacketsLost = packetsLost;
+            }
+        }
+    }
+
+    /**
+     * Record a transfer speed.
+     *
+     * @param peerId
+     * @param mediaDirection As given in StatsListener method.
+     * @param mediaType      As given in StatsListener method.
+     * @param transferSpeed  As given in StatsListener method, in kbps.
+     */
+    public void onTransferSpeed(String peerId, int mediaDirection, int mediaType,
+                                double transferSpeed) {
+        if (peerId == null) {
+            return;
+        }
+        getOrCreate(peerId, mediaDirection, mediaType).metrics[METRIC_BITRATE]
+                .add(System.currentTimeMillis(), transferSpeed);
+    }
+
+    /**
+     * Get the time series of a metric.
+     *
+     * @param peerId
+     * @param mediaDirection
+     * @param mediaType
+     * @param metric         One of the METRIC_ constants.
+     * @return The series, or null if nothing has been recorded for it.
+     */
+    public MetricSeries getSeries(String peerId, int mediaDirection, int mediaType, int metric) {
+        PeerQuality peerQuality = peers.get(peerId);
+        if (peerQuality == null) {
+            return null;
+        }
+        QualitySeries series = peerQuality.find(mediaDirection, mediaType);
+        if (series == null) {
+            return null;
+        }
+        return series.metrics[metric];
+    }
+
+    /**
+     * Discard all series of a Peer, e.g. when the Peer leaves the room.
+     *
+     * @param peerId
+     */
+    public void removePeer(String peerId) {
+        if (peerId != null) {
+            peers.remove(peerId);
+        }
+    }
+
+    public void clear() {
+        peers.clear();
+    }
+
+    /**
+     * Returns a readable summary of min/mean/p95/max of all metrics of a Peer over a window.
+     *
+     * @param peerId
+     * @param window One of the WINDOW_ constants.
+     * @return
+     */
+    public String getSummary(String peerId, int window) {
+        long nowMs = System.currentTimeMillis();
+        StringBuilder summary = new StringBuilder("Call quality of Peer " + peerId + " over " +
+                (WINDOWS_MS[window] / 1000) + "s (min/mean/p95/max):");
+        PeerQuality peerQuality = peers.get(peerId);
+        if (peerQuality == null) {
+            return summary.append("\r\nNo stats recorded. Turn on WebRTC Stats.").toString();
+        }
+        List<QualitySeries> seriesList = peerQuality.snapshot();
+        for (QualitySeries series : seriesList) {
+            String direction = "Send";
+            if (Info.MEDIA_DIRECTION_RECV == series.mediaDirection) {
+                direction = "Recv";
+            }
+            summary.append("\r\n").append(Info.getInfoString(series.mediaType)).append(" ")
+                    .append(direction).append(":");
+            for (int metric = 0; metric < series.metrics.length; ++metric) {
+                MetricSeries metricSeries = series.metrics[metric];
+                if (metricSeries.getCount(window, nowMs) == 0) {
+                    continue;
+                }
+                summary.append("\r\n  ").append(METRIC_NAMES[metric]).append(": ")
+                        .append(String.format(Locale.US, "%.1f/%.1f/%.1f/%.1f",
+                                metricSeries.getMin(window, nowMs),
+                                metricSeries.getMean(window, nowMs),
+                                metricSeries.getP95(window, nowMs),
+                                metricSeries.getMax(window, nowMs)));
+            }
+        }
+        return summary.toString();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    private QualitySeries getOrCreate(String peerId, int mediaDirection, int mediaType) {
+        PeerQuality peerQuality = peers.get(peerId);
+        if (peerQuality == null) {
+            peerQuality = new PeerQuality();
+            PeerQuality existing = peers.putIfAbsent(peerId, peerQuality);
+            if (existing != null) {
+                peerQuality = existing;
+            }
+        }
+        return peerQuality.findOrCreate(mediaDirection, mediaType);
+    }
+
+    /**
+     * All time series of a Peer.
+     * There are only a few combinations of media direction and type, so a list is used.
+     */
+    private static class PeerQuality {
+        private final List<QualitySeries> seriesList = new ArrayList<QualitySeries>();
+
+        synchronized QualitySeries find(int mediaDirection, int mediaType) {
+            for (int i = 0; i < seriesList.size(); ++i) {
+                QualitySeries series = seriesList.get(i);
+                if (series.mediaDirection == mediaDirection && series.mediaType == mediaType) {
+                    return series;
+                }
+            }
+            return null;
+        }
+
+        synchronized QualitySeries findOrCreate(int mediaDirection, int mediaType) {
+            QualitySeries series = find(mediaDirection, mediaType);
+            if (series == null) {
+                series = new QualitySeries(mediaDirection, mediaType);
+                seriesList.add(series);
+            }
+            return series;
+        }
+
+        synchronized List<QualitySeries> snapshot() {
+            return new ArrayList<QualitySeries>(seriesList);
+        }
+    }
+
+    /**
+     * Time series of all metrics for one media direction and media type of a Peer.
+     */
+    private static class QualitySeries {
+        final int mediaDirection;
+        final int mediaType;
+        final MetricSeries[] metrics = new MetricSeries[METRIC_NAMES.length];
+        long lastPacketsLost = WebrtcStats.UNKNOWN;
+
+        QualitySeries(int mediaDirection, int mediaType) {
+            this.mediaDirection = mediaDirection;
+            this.mediaType = mediaType;
+            for (int i = 0; i < metrics.length; ++i) {
+                metrics[i] = new MetricSeries(SERIES_CAPACITY, WINDOWS_MS);
+            }
+        }
+    }
+}
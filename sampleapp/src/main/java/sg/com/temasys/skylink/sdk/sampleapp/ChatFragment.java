@@ -1,24 +1,32 @@
 package sg.com.temasys.skylink.sdk.sampleapp;
 
+import android.app.AlertDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.util.Pair;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
-import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ListView;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
 import android.widget.TextView;
 
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import sg.com.temasys.skylink.sdk.listener.LifeCycleListener;
 import sg.com.temasys.skylink.sdk.listener.MessagesListener;
@@ -55,13 +63,68 @@ public class ChatFragment extends MultiPartyFragment
 
     private static SkylinkConnection skylinkConnection;
     private static SkylinkConfig skylinkConfig;
-    private static List<String> chatMessageCollection;
+    // Rejoins the room after an unexpected disconnect.
+    private ReconnectManager reconnectManager;
+    // Bounded window of the chat history, kept across configuration changes.
+    private static ChatMessageStore chatMessageStore;
+    // Persistent chat history of the room, of which chatMessageStore holds a window.
+    private static volatile ChatLog chatLog;
+    // Writes and reads the chatLog in order, off the UI thread.
+    private static final ExecutorService chatLogExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Room of the chatLog being opened off the UI thread, if any.
+    private static String chatLogOpeningRoom;
+    // Incremented on each open of the chatLog, so that an open superseded by another is discarded.
+    private static int chatLogGeneration;
+    // Messages added to the chat history while the chatLog is being opened, written once it is.
+    private static final List<ChatMessage> chatLogBacklog = new ArrayList<ChatMessage>();
+    // Number of messages in the chat history, including those still being written to the log.
+    private static int chatHistorySize;
+    // Index in the chat history after the latest message in chatMessageStore.
+    private static int windowEnd;
+    // Number of messages read from the chatLog at a time.
+    private static final int CHAT_LOG_PAGE_SIZE = 50;
+    // Maximum number of messages shown as search results.
+    private static final int SEARCH_RESULTS_MAX = 50;
+    // Sends our messages off the UI thread, coalescing bursts of messages.
+    private static OutboundMessageSender outboundMessageSender;
+    // Incremented when a session ends, so that a sender of an ended session stops sending.
+    private static volatile int senderGeneration;
+    // How long ending the session may block the UI thread to send what is still queued,
+    // about 3 frames. Messages not sent by then are dropped.
+    private static final long SESSION_END_CLOSE_TIMEOUT_MS = 50;
+    // Keeps messages received while this sample is not shown,
+    // and sends what is still queued once the session ends.
+    private static final ChatSession chatSession = new ChatSession();
 
     private Button btnSendServerMessage;
     private Button btnSendP2PMessage;
-    private ListView listViewChats;
+    private Button btnSearchMessages;
+    private RecyclerView recyclerViewChats;
     private TextView tvRoomDetails;
-    private BaseAdapter adapter;
+    private ChatMessageAdapter adapter;
+    // Applies received messages to the chat history once per frame.
+    private ChatUpdateBatcher chatUpdateBatcher;
+    // Shows messages that could not be sent on this fragment, while it is attached.
+    private final OutboundMessageSender.FailureListener messageFailureListener =
+            new OutboundMessageSender.FailureListener() {
+                @Override
+                public void onSendFailed(String remotePeerId, boolean isP2P,
+                                         final List<String> messages) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!isAdded()) {
+                                return;
+                            }
+                            toastLog(TAG, context, "Unable to send " + messages.size() +
+                                    " message(s)!");
+                        }
+                    });
+                }
+            };
+    // Whether a page of the chat log is being read.
+    private boolean isPaging;
 
     private boolean peerJoined;
 
@@ -71,9 +134,15 @@ public class ChatFragment extends MultiPartyFragment
 
         ROOM_NAME = Config.ROOM_NAME_CHAT;
         MY_USER_NAME = Config.USER_NAME_CHAT;
+        // Leave the room of another sample, if still in it.
+        SkylinkSessionManager.getInstance().endOther(getSessionKey());
+        // Show send failures of messages still queued on this fragment, not an earlier one.
+        if (outboundMessageSender != null) {
+            outboundMessageSender.setFailureListener(messageFailureListener);
+        }
 
         View rootView = inflater.inflate(R.layout.fragment_chat, container, false);
-        listViewChats = (ListView) rootView.findViewById(R.id.lv_messages);
+        recyclerViewChats = (RecyclerView) rootView.findViewById(R.id.rv_messages);
 
         // [MultiParty]
         peerRadioGroup = (RadioGroup) rootView.findViewById(R.id.radio_grp_peers);
@@ -85,17 +154,38 @@ public class ChatFragment extends MultiPartyFragment
 
         btnSendServerMessage = (Button) rootView.findViewById(R.id.btn_send_server_message);
         btnSendP2PMessage = (Button) rootView.findViewById(R.id.btn_send_p2p_message);
+        btnSearchMessages = (Button) rootView.findViewById(R.id.btn_search_messages);
         tvRoomDetails = (TextView) rootView.findViewById(R.id.tv_room_details);
 
-        if (chatMessageCollection == null) {
-            chatMessageCollection = new ArrayList();
+        if (chatMessageStore == null) {
+            chatMessageStore = new ChatMessageStore();
         }
 
-        /** Defining the ArrayAdapter to set items to ListView */
-        adapter = new ArrayAdapter<String>(context, R.layout.list_item,
-                chatMessageCollection);
-        /** Setting the adapter to the ListView */
-        listViewChats.setAdapter(adapter);
+        // Show the chat history, with the latest message at the bottom.
+        adapter = new ChatMessageAdapter(chatMessageStore);
+        recyclerViewChats.setLayoutManager(new LinearLayoutManager(context));
+        recyclerViewChats.setAdapter(adapter);
+        // Page through the chat log when scrolled to the oldest or latest message shown.
+        recyclerViewChats.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dy < 0 && !recyclerView.canScrollVertically(-1)) {
+                    loadOlderMessages();
+                } else if (dy > 0 && !recyclerView.canScrollVertically(1)) {
+                    loadNewerMessages();
+                }
+            }
+        });
+        chatUpdateBatcher = new ChatUpdateBatcher(new ChatUpdateBatcher.Listener() {
+            @Override
+            public void onMessages(List<ChatMessage> messages) {
+                if (addToChatHistory(messages, adapter)) {
+                    scrollToLatest();
+                }
+            }
+        });
+
+        openChatLog();
 
         // [MultiParty]
         // Initialise peerList if required.
@@ -118,6 +208,14 @@ public class ChatFragment extends MultiPartyFragment
                 // Set the appropriate UI if already connected.
                 onConnectUIChange();
             }
+        } else if (SkylinkSessionManager.getInstance().isLive(getSessionKey())) {
+            // Still in the room since this sample was last shown, so show the room as it is now.
+            skylinkConnection = SkylinkSessionManager.getInstance().getSkylinkConnection();
+            setListeners();
+            // [MultiParty]
+            popPeerList(skylinkConnection.getPeerIdList());
+            peerJoined = getPeerNum() > 0;
+            onConnectUIChange();
         } else {
             // [MultiParty]
 
@@ -126,7 +224,7 @@ public class ChatFragment extends MultiPartyFragment
         }
 
         // Try to connect to room if not yet connected.
-        if (!isConnectingOrConnected()) {
+        if (!SkylinkSessionManager.getInstance().isLive(getSessionKey())) {
             connectToRoom();
         }
 
@@ -149,7 +247,7 @@ public class ChatFragment extends MultiPartyFragment
 
                 // Sends message using the signalling server
                 // Pass null for remotePeerId to send message to all users in the room
-                skylinkConnection.sendServerMessage(remotePeerId, message);
+                getOutboundMessageSender().send(remotePeerId, false, message);
             }
         });
 
@@ -170,13 +268,17 @@ public class ChatFragment extends MultiPartyFragment
                 //Add chat message to the listview
                 String message = addSelfMessageToListView(isPrivate, true);
 
-                try {
-                    // Sends message using a DataChannel.
-                    // Pass null for remotePeerId to send message to all users in the room
-                    skylinkConnection.sendP2PMessage(remotePeerId, message);
-                } catch (SkylinkException e) {
-                    Log.e(TAG, e.getMessage(), e);
-                }
+                // Sends message using a DataChannel.
+                // Pass null for remotePeerId to send message to all users in the room
+                getOutboundMessageSender().send(remotePeerId, true, message);
+            }
+        });
+
+        /** Defining a click event listener for the button "Search" */
+        btnSearchMessages.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showSearchDialog();
             }
         });
 
@@ -211,22 +313,95 @@ public class ChatFragment extends MultiPartyFragment
     @Override
     public void onDetach() {
         super.onDetach();
+        // Stop rejoining the room, as this sample is no longer shown.
+        if (reconnectManager != null) {
+            reconnectManager.cancel();
+        }
 
-        // Remove static members from views.
-        listViewChats = null;
+        // Keep pending messages in the chat history before the views go away.
+        if (chatUpdateBatcher != null) {
+            chatUpdateBatcher.flush();
+        }
+        final ChatLog log = chatLog;
+        if (log != null) {
+            chatLogExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    log.saveSearchIndex();
+                }
+            });
+        }
 
-        // Close the room connection when this sample app is finished, so the streams can be closed.
-        // I.e. already connected and not changing orientation.
-        if (!((MainActivity) context).isChangingConfigurations() && skylinkConnection != null
-                && isConnectingOrConnected()) {
-            skylinkConnection.disconnectFromRoom();
+        // Remove static members from views.
+        recyclerViewChats = null;
+        if (outboundMessageSender != null) {
+            outboundMessageSender.setFailureListener(null);
         }
+        // Pages still being read are no longer shown.
+        adapter = null;
+
+        // Stay in the room, to be shown again without reconnecting.
+        // The session is ended when another sample starts one, or when the App is finished.
+        SkylinkSessionManager.getInstance().detach(this);
     }
 
     //----------------------------------------------------------------------------------------------
     // Skylink helper methods
     //----------------------------------------------------------------------------------------------
 
+    private OutboundMessageSender getOutboundMessageSender() {
+        if (outboundMessageSender == null) {
+            outboundMessageSender = newOutboundMessageSender();
+            outboundMessageSender.setFailureListener(messageFailureListener);
+        }
+        return outboundMessageSender;
+    }
+
+    /**
+     * @return An OutboundMessageSender sending via the SkylinkConnection of the session,
+     * until the session ends. Static, so that it does not hold on to the fragment that created it.
+     */
+    private static OutboundMessageSender newOutboundMessageSender() {
+        final int generation = senderGeneration;
+        return new OutboundMessageSender(new OutboundMessageSender.Transport() {
+            @Override
+            public void sendMessage(String remotePeerId, boolean isP2P, Object message)
+                    throws SkylinkException {
+                // The SkylinkConnection may already be in the room of another session.
+                if (generation != senderGeneration) {
+                    Log.w(TAG, "[SA][Chat] Session ended, dropping message.");
+                    return;
+                }
+                if (isP2P) {
+                    skylinkConnection.sendP2PMessage(remotePeerId, message);
+                } else {
+                    skylinkConnection.sendServerMessage(remotePeerId, message);
+                }
+            }
+        }, null);
+    }
+
+    private ReconnectManager getReconnectManager() {
+        if (reconnectManager != null) {
+            return reconnectManager;
+        }
+
+        reconnectManager = new ReconnectManager(new ReconnectManager.Reconnector() {
+            @Override
+            public void prepare() {
+                // Have the config and connection string ready for the first attempt.
+                getSkylinkConfig();
+                CredentialCache.getInstance().get(ROOM_NAME, SkylinkConnection.DEFAULT_DURATION);
+            }
+
+            @Override
+            public boolean reconnect() {
+                return connectToRoom();
+            }
+        });
+        return reconnectManager;
+    }
+
     private SkylinkConfig getSkylinkConfig() {
         if (skylinkConfig != null) {
             return skylinkConfig;
@@ -244,7 +419,12 @@ public class ChatFragment extends MultiPartyFragment
         return skylinkConfig;
     }
 
-    private void connectToRoom() {
+    /**
+     * Connect to the room, initializing SkylinkConnection.
+     *
+     * @return false if unable to connect.
+     */
+    private boolean connectToRoom() {
         // Initialize the skylink connection
         initializeSkylinkConnection();
 
@@ -252,20 +432,23 @@ public class ChatFragment extends MultiPartyFragment
         // In production, the connection string should be generated by an external entity
         // (such as a secure App server that has the Skylink App Key secret), and sent to the App.
         // This is to avoid keeping the App Key secret within the application, for better security.
-        String skylinkConnectionString = Utils.getSkylinkConnectionString(
-                ROOM_NAME, new Date(), SkylinkConnection.DEFAULT_DURATION);
+        // Reuse a connection string signed earlier for this room, if still valid.
+        String skylinkConnectionString = CredentialCache.getInstance().get(
+                ROOM_NAME, SkylinkConnection.DEFAULT_DURATION);
 
         // The skylinkConnectionString should not be logged in production,
         // as it contains potentially sensitive information like the Skylink App Key ID.
 
-        skylinkConnection.connectToRoom(skylinkConnectionString, MY_USER_NAME);
+        return skylinkConnection.connectToRoom(skylinkConnectionString, MY_USER_NAME);
+    }
+
+    private String getSessionKey() {
+        return SkylinkSessionManager.getSessionKey(TAG, ROOM_NAME, MY_USER_NAME);
     }
 
     private void initializeSkylinkConnection() {
-        skylinkConnection = SkylinkConnection.getInstance();
-        //the app_key and app_secret is obtained from the temasys developer console.
-        skylinkConnection.init(Config.getAppKey(), getSkylinkConfig(),
-                context.getApplicationContext());
+        skylinkConnection = SkylinkSessionManager.getInstance().start(getSessionKey(),
+                getSkylinkConfig(), context, chatSession);
 
         //set listeners to receive callbacks when events are triggered
         setListeners();
@@ -280,10 +463,8 @@ public class ChatFragment extends MultiPartyFragment
      */
     private boolean setListeners() {
         if (skylinkConnection != null) {
-            skylinkConnection.setLifeCycleListener(this);
-            skylinkConnection.setRemotePeerListener(this);
-            skylinkConnection.setMessagesListener(this);
-            return true;
+            // Receive callbacks of the session via the event bus, on the UI thread.
+            return SkylinkSessionManager.getInstance().attach(this);
         } else {
             return false;
         }
@@ -297,7 +478,7 @@ public class ChatFragment extends MultiPartyFragment
      * Change certain UI elements once connected to room or when Peer(s) join or leave.
      */
     private void onConnectUIChange() {
-        listViewRefresh();
+        scrollToLatest();
         // [MultiParty]
         setRoomDetails();
         fillPeerRadioBtn();
@@ -313,35 +494,429 @@ public class ChatFragment extends MultiPartyFragment
     }
 
     /**
-     * Retrieves self message written in edit text and adds it to the chatlistview.
-     * Will refresh listView.
+     * Retrieves self message written in edit text and adds it to the chat history.
      *
      * @param isPrivateMessage
      * @param isP2P
-     * @return message that was added to the listview
+     * @return message that was added to the chat history
      */
     private String addSelfMessageToListView(boolean isPrivateMessage, boolean isP2P) {
         EditText edit = (EditText) ((MainActivity) context).findViewById(R.id.chatMessage);
-        String prefix = "You : ";
-        prefix += isPrivateMessage ? "[PTE]" : "[GRP]";
-        prefix += isP2P ? "[P2P] " : "[SIG] ";
         String message = edit.getText().toString();
-        chatMessageCollection.add(prefix + message);
+        int flags = ChatMessage.FLAG_SELF;
+        if (isPrivateMessage) {
+            flags |= ChatMessage.FLAG_PRIVATE;
+        }
+        if (isP2P) {
+            flags |= ChatMessage.FLAG_P2P;
+        }
+        showLatest();
+        addMessage(new ChatMessage(null, "You", flags, System.currentTimeMillis(), message));
         edit.setText("");
-        listViewRefresh();
         return message;
     }
 
     /**
-     * Refresh the ListView's data set and position displayed.
-     * Will display latest data.
+     * Add a message to the chat history and show the latest message.
+     * Messages are applied together on the next frame, so that a burst of messages causes
+     * a single UI update.
+     *
+     * @param message
      */
-    private void listViewRefresh() {
+    private void addMessage(ChatMessage message) {
+        if (chatUpdateBatcher != null) {
+            chatUpdateBatcher.post(message);
+        } else {
+            addToChatHistory(Collections.singletonList(message), adapter);
+        }
+    }
+
+    /**
+     * Add messages to the chat history, logging them, and showing them if the latest messages
+     * are shown.
+     *
+     * @param messages
+     * @param adapter  Showing the chatMessageStore, if any.
+     * @return true if the messages are shown.
+     */
+    private static boolean addToChatHistory(List<ChatMessage> messages,
+                                            ChatMessageAdapter adapter) {
+        boolean isShowingLatest = windowEnd == chatHistorySize;
+        appendToChatLog(messages);
+        if (!isShowingLatest) {
+            // Shown when paged to, or when our next message is sent.
+            return false;
+        }
         if (adapter != null) {
-            adapter.notifyDataSetChanged();
-            if (listViewChats != null) {
-                listViewChats.setSelection(adapter.getCount() - 1);
+            adapter.addAll(messages);
+        } else {
+            for (ChatMessage message : messages) {
+                chatMessageStore.add(message);
+            }
+        }
+        windowEnd = chatHistorySize;
+        return true;
+    }
+
+    /**
+     * @param remotePeerId
+     * @param isP2P
+     * @param isPrivate
+     * @param received     A String, or an envelope of Strings.
+     * @return The messages received from a Peer, which may have been sent together in one
+     * envelope.
+     */
+    private static List<ChatMessage> getReceivedMessages(String remotePeerId, boolean isP2P,
+                                                         boolean isPrivate, Object received) {
+        // flag if the chat is a private chat - not seen by other users.
+        int flags = isP2P ? ChatMessage.FLAG_P2P : 0;
+        if (isPrivate) {
+            flags |= ChatMessage.FLAG_PRIVATE;
+        }
+        String senderName = getPeerIdNick(remotePeerId);
+        long timestampMs = System.currentTimeMillis();
+        List<ChatMessage> messages = new ArrayList<ChatMessage>();
+        for (String text : OutboundMessageSender.unpack(received)) {
+            messages.add(new ChatMessage(remotePeerId, senderName, flags, timestampMs, text));
+        }
+        return messages;
+    }
+
+    /**
+     * Open the chat log of the room off the UI thread, then show its latest messages if none
+     * are shown.
+     */
+    private void openChatLog() {
+        if (chatLog != null && !chatLog.getRoomName().equals(ROOM_NAME)) {
+            closeChatLog();
+        }
+        if (chatLog != null) {
+            if (chatMessageStore.size() == 0) {
+                loadOlderMessages();
+            }
+            return;
+        }
+        if (!ROOM_NAME.equals(chatLogOpeningRoom)) {
+            // Show the latest messages of this log once it is open.
+            adapter.clear();
+            chatLogBacklog.clear();
+            chatHistorySize = 0;
+            windowEnd = 0;
+            chatLogOpeningRoom = ROOM_NAME;
+        }
+        // If already being opened, open it again for this fragment to show it.
+        final int generation = ++chatLogGeneration;
+        final File filesDir = context.getFilesDir();
+        final String roomName = ROOM_NAME;
+        chatLogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ChatLog opened = null;
+                try {
+                    opened = ChatLog.open(filesDir, roomName);
+                } catch (IOException e) {
+                    Log.e(TAG, "[SA][Chat] Unable to open the chat log, history will not be " +
+                            "kept!", e);
+                }
+                final ChatLog log = opened;
+                final int size = log == null ? 0 : log.size();
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onChatLogOpened(generation, log, size);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Use the chat log opened off the UI thread, unless it was opened again since.
+     *
+     * @param generation chatLogGeneration when the open was started.
+     * @param log        The chat log, or null if it could not be opened.
+     * @param size       Number of messages in the log when opened.
+     */
+    private void onChatLogOpened(int generation, final ChatLog log, int size) {
+        if (generation != chatLogGeneration) {
+            if (log != null) {
+                chatLogExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        log.close();
+                    }
+                });
+            }
+            return;
+        }
+        chatLogOpeningRoom = null;
+        List<ChatMessage> backlog = new ArrayList<ChatMessage>(chatLogBacklog);
+        chatLogBacklog.clear();
+        if (log == null) {
+            return;
+        }
+        chatLog = log;
+        // Messages received while opening are the latest, and may already be shown.
+        chatHistorySize = size + backlog.size();
+        windowEnd = chatHistorySize;
+        if (!backlog.isEmpty()) {
+            writeToChatLog(log, backlog);
+        }
+        // Have the search index ready, catching up on messages not yet indexed.
+        chatLogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    log.loadSearchIndex();
+                } catch (IOException e) {
+                    Log.e(TAG, "[SA][Chat] Unable to index the chat log for search!", e);
+                }
             }
+        });
+        if (chatMessageStore.size() == 0) {
+            loadOlderMessages();
+        }
+    }
+
+    /**
+     * Close the chat log once the writes queued to it are done.
+     */
+    private static void closeChatLog() {
+        final ChatLog log = chatLog;
+        chatLog = null;
+        if (log == null) {
+            return;
+        }
+        chatLogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                log.close();
+            }
+        });
+    }
+
+    /**
+     * Show the page of messages in the chat log before the oldest message shown.
+     * If as many messages as the chat history holds are shown, the latest are no longer shown.
+     */
+    private void loadOlderMessages() {
+        int windowStart = windowEnd - chatMessageStore.size();
+        if (chatLog == null || adapter == null || isPaging || windowStart <= 0) {
+            return;
+        }
+        int count = Math.min(CHAT_LOG_PAGE_SIZE, windowStart);
+        readPage(windowStart - count, count, true);
+    }
+
+    /**
+     * Show the page of messages in the chat log after the latest message shown,
+     * if it is not the latest in the chat history.
+     */
+    private void loadNewerMessages() {
+        if (chatLog == null || adapter == null || isPaging || windowEnd >= chatHistorySize) {
+            return;
+        }
+        readPage(windowEnd, Math.min(CHAT_LOG_PAGE_SIZE, chatHistorySize - windowEnd), false);
+    }
+
+    /**
+     * Show the latest messages in the chat history, if an older page is shown.
+     */
+    private void showLatest() {
+        if (windowEnd == chatHistorySize || adapter == null) {
+            return;
+        }
+        adapter.clear();
+        windowEnd = chatHistorySize;
+        loadOlderMessages();
+    }
+
+    /**
+     * Read a page of messages from the chat log, after the writes queued before it,
+     * then show it on the UI thread.
+     *
+     * @param from
+     * @param count
+     * @param isOlder true if before the oldest message shown, else after the latest.
+     */
+    private void readPage(final int from, final int count, final boolean isOlder) {
+        final ChatLog log = chatLog;
+        isPaging = true;
+        chatLogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<ChatMessage> page = null;
+                try {
+                    page = log.read(from, count);
+                } catch (IOException e) {
+                    Log.e(TAG, "[SA][Chat] Unable to read the chat log!", e);
+                }
+                final List<ChatMessage> messages = page;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        isPaging = false;
+                        if (messages != null) {
+                            showPage(from, messages, isOlder);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Show a page read from the chat log, if it is still next to the messages shown.
+     */
+    private void showPage(int from, List<ChatMessage> messages, boolean isOlder) {
+        if (adapter == null || messages.isEmpty()) {
+            return;
+        }
+        // The window may have moved while the page was read, e.g. on a disconnect.
+        if (isOlder) {
+            if (from + messages.size() != windowEnd - chatMessageStore.size()) {
+                return;
+            }
+            boolean wasEmpty = chatMessageStore.size() == 0;
+            windowEnd -= adapter.addOlder(messages);
+            if (wasEmpty) {
+                scrollToLatest();
+            }
+        } else {
+            if (from != windowEnd) {
+                return;
+            }
+            adapter.addAll(messages);
+            windowEnd += messages.size();
+        }
+    }
+
+    /**
+     * Persist messages in the chat log, off the UI thread, in order.
+     * If the chat log is being opened, they are written once it is.
+     *
+     * @param messages
+     */
+    private static void appendToChatLog(List<ChatMessage> messages) {
+        chatHistorySize += messages.size();
+        ChatLog log = chatLog;
+        if (log != null) {
+            writeToChatLog(log, messages);
+        } else if (chatLogOpeningRoom != null) {
+            chatLogBacklog.addAll(messages);
+        }
+    }
+
+    /**
+     * Write messages to the chat log off the UI thread, after the writes queued before them.
+     * If they cannot be, the chat log is no longer used.
+     *
+     * @param log
+     * @param messages
+     */
+    private static void writeToChatLog(final ChatLog log, final List<ChatMessage> messages) {
+        chatLogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    log.append(messages);
+                } catch (IOException e) {
+                    Log.e(TAG, "[SA][Chat] Unable to write the chat log, history will not be " +
+                            "kept!", e);
+                    log.close();
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (chatLog == log) {
+                                chatLog = null;
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Ask for words to search for, then show the latest messages in the chat log containing all
+     * of them.
+     */
+    private void showSearchDialog() {
+        if (chatLog == null) {
+            toastLog(TAG, context, "No chat history to search.");
+            return;
+        }
+        AlertDialog.Builder searchDialogBuilder = new AlertDialog.Builder(context);
+        searchDialogBuilder.setTitle("Search messages");
+        final EditText queryEdtTxt = new EditText(context);
+        queryEdtTxt.setHint("Words or beginnings of words");
+        searchDialogBuilder.setView(queryEdtTxt);
+        searchDialogBuilder.setPositiveButton("Search",
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        searchChatLog(queryEdtTxt.getText().toString());
+                    }
+                });
+        searchDialogBuilder.setNegativeButton("Cancel", null);
+        searchDialogBuilder.show();
+    }
+
+    /**
+     * Search the chat log off the UI thread, after the writes queued before it,
+     * then show the results.
+     *
+     * @param query
+     */
+    private void searchChatLog(final String query) {
+        final ChatLog log = chatLog;
+        if (log == null) {
+            return;
+        }
+        chatLogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<ChatMessage> results;
+                try {
+                    results = log.search(query, SEARCH_RESULTS_MAX);
+                } catch (IOException e) {
+                    Log.e(TAG, "[SA][Chat] Unable to search the chat log!", e);
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (adapter != null) {
+                            showSearchResults(query, results);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void showSearchResults(String query, List<ChatMessage> results) {
+        if (results.isEmpty()) {
+            toastLog(TAG, context, "No messages found for \"" + query + "\".");
+            return;
+        }
+        String[] items = new String[results.size()];
+        for (int i = 0; i < items.length; ++i) {
+            items[i] = results.get(i).getDisplayText();
+        }
+        AlertDialog.Builder resultsDialogBuilder = new AlertDialog.Builder(context);
+        resultsDialogBuilder.setTitle("Latest messages with \"" + query + "\"");
+        resultsDialogBuilder.setItems(items, null);
+        resultsDialogBuilder.setPositiveButton("OK", null);
+        resultsDialogBuilder.show();
+    }
+
+    /**
+     * Scroll the chat history to the latest message.
+     */
+    private void scrollToLatest() {
+        if (recyclerViewChats != null && chatMessageStore.size() > 0) {
+            recyclerViewChats.scrollToPosition(chatMessageStore.size() - 1);
         }
     }
 
@@ -363,6 +938,7 @@ public class ChatFragment extends MultiPartyFragment
 
     @Override
     public void onConnect(boolean isSuccessful, String message) {
+        getReconnectManager().onConnect(isSuccessful);
         //update textview if connection is successful
         if (isSuccessful) {
             String log = "Connected to room " + ROOM_NAME + " (" + skylinkConnection.getRoomId() +
@@ -371,6 +947,10 @@ public class ChatFragment extends MultiPartyFragment
             // [MultiParty]
             // Set the appropriate UI if already connected.
             onConnectUIChange();
+            // Show the history of the room again, if cleared on an earlier disconnect.
+            if (chatMessageStore.size() == 0) {
+                loadOlderMessages();
+            }
         } else {
             String log = "Skylink failed to connect!\nReason : " + message;
             toastLogLong(TAG, context, log);
@@ -384,8 +964,16 @@ public class ChatFragment extends MultiPartyFragment
         // Reset peerList
         peerList.clear();
         setRoomDetails();
-        // Reset chat collection
-        chatMessageCollection.clear();
+        // Reset chat history, including messages not yet shown.
+        if (chatUpdateBatcher != null) {
+            chatUpdateBatcher.flush();
+        }
+        if (adapter != null) {
+            adapter.clear();
+        } else {
+            chatMessageStore.clear();
+        }
+        windowEnd = chatHistorySize;
 
         String log = "[onDisconnect] ";
         if (errorCode == Errors.DISCONNECT_FROM_ROOM) {
@@ -395,6 +983,8 @@ public class ChatFragment extends MultiPartyFragment
         }
         log += " Server message: " + message;
         toastLogLong(TAG, context, log);
+        // Rejoin the room if the disconnect was unexpected.
+        getReconnectManager().onDisconnect(errorCode);
     }
 
     @Override
@@ -499,35 +1089,58 @@ public class ChatFragment extends MultiPartyFragment
 
     @Override
     public void onServerMessageReceive(String remotePeerId, Object message, boolean isPrivate) {
-        String chatPrefix = "[SIG] ";
-        //add prefix if the chat is a private chat - not seen by other users.
-        if (isPrivate) {
-            chatPrefix = "[PTE]" + chatPrefix;
-        } else {
-            chatPrefix = "[GRP]" + chatPrefix;
-        }
-        // add message to listview and update ui
-        if (message instanceof String) {
-            String remotePeerName = getPeerIdNick(remotePeerId);
-            chatMessageCollection.add(remotePeerName + " : " + chatPrefix + message);
-            listViewRefresh();
+        // add message to chat history and update ui
+        for (ChatMessage chatMessage :
+                getReceivedMessages(remotePeerId, false, isPrivate, message)) {
+            addMessage(chatMessage);
         }
     }
 
     @Override
     public void onP2PMessageReceive(String remotePeerId, Object message, boolean isPrivate) {
-        //add prefix if the chat is a private chat - not seen by other users.
-        String chatPrefix = "[P2P] ";
-        if (isPrivate) {
-            chatPrefix = "[PTE]" + chatPrefix;
-        } else {
-            chatPrefix = "[GRP]" + chatPrefix;
+        //add message to chat history and update ui
+        for (ChatMessage chatMessage :
+                getReceivedMessages(remotePeerId, true, isPrivate, message)) {
+            addMessage(chatMessage);
+        }
+    }
+
+    /**
+     * Handles the chat session while this sample is not shown, and when the session ends.
+     */
+    private static class ChatSession implements SkylinkSessionManager.SessionListener,
+            MessagesListener {
+
+        @Override
+        public void onSessionEnd() {
+            // Send what is still queued before disconnecting, blocking the UI thread only briefly.
+            if (outboundMessageSender != null) {
+                outboundMessageSender.close(SESSION_END_CLOSE_TIMEOUT_MS);
+                outboundMessageSender = null;
+            }
+            ++senderGeneration;
         }
-        //add message to listview and update ui
-        if (message instanceof String) {
-            String remotePeerName = getPeerIdNick(remotePeerId);
-            chatMessageCollection.add(remotePeerName + " : " + chatPrefix + message);
-            listViewRefresh();
+
+        /**
+         * Keep the messages received in the chat history, to be shown when this sample is
+         * shown again.
+         */
+        @Override
+        public void onServerMessageReceive(String remotePeerId, Object message,
+                                           boolean isPrivate) {
+            addToChatHistory(getReceivedMessages(remotePeerId, false, isPrivate, message));
+        }
+
+        @Override
+        public void onP2PMessageReceive(String remotePeerId, Object message,
+                                        boolean isPrivate) {
+            addToChatHistory(getReceivedMessages(remotePeerId, true, isPrivate, message));
+        }
+
+        private void addToChatHistory(List<ChatMessage> messages) {
+            if (chatMessageStore != null) {
+                ChatFragment.addToChatHistory(messages, null);
+            }
         }
     }
 }
@@ -0,0 +1,404 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persistent, append only chat history of a room.
+ * <p>
+ * Messages are stored as binary records in a log file, with an index file holding the offset
+ * (8 bytes) of each record in the log, so that any range of messages can be located without
+ * reading the messages before it.
+ * Each record is: record length (4 bytes, excluding itself), timestamp (8 bytes), flags (1 byte),
+ * then sender id, sender name and text, each as a UTF-8 length (4 bytes, -1 for null) and bytes.
+ * Ranges are read via memory mapped views of the files, so only the requested messages are
+ * ever materialised, however long the log.
+ * <p>
+ * A record or index entry left incomplete by process death is discarded when the log is opened.
+ * <p>
+ * The text of the messages is also indexed in a {@link ChatSearchIndex}, saved alongside the log
+ * by {@link #saveSearchIndex()}, and every {@link #SEARCH_INDEX_SAVE_INTERVAL} messages appended.
+ * It is loaded by {@link #loadSearchIndex()}, or on the first search, rather than when the log
+ * is opened, as messages appended since it was last saved are indexed again then.
+ */
+public class ChatLog {
+
+    private static final String TAG = ChatLog.class.getCanonicalName();
+
+    private static final String DIR_NAME = "ChatLogs";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String SEARCH_INDEX_SUFFIX = ".sidx";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int OFFSET_LENGTH = 8;
+    private static final int RECORD_LENGTH_LENGTH = 4;
+    // Timestamp, flags and the lengths of the 3 strings.
+    private static final int RECORD_FIXED_LENGTH = 8 + 1 + 3 * 4;
+    // Number of messages read at a time when indexing them for search.
+    private static final int SEARCH_INDEX_PAGE_SIZE = 1000;
+    // Number of messages indexed after which the search index is saved.
+    public static final int SEARCH_INDEX_SAVE_INTERVAL = 500;
+
+    private final String roomName;
+    private final RandomAccessFile logFile;
+    private final RandomAccessFile indexFile;
+    private final FileChannel log;
+    private final FileChannel index;
+    private final File searchIndexPath;
+    // Null until loaded.
+    private ChatSearchIndex searchIndex;
+    // Number of messages indexed since the search index was last saved.
+    private int unsavedCount;
+    private long logLength;
+    private int size;
+
+    private ChatLog(String roomName, File logPath, File indexPath, File searchIndexPath)
+            throws IOException {
+        this.roomName = roomName;
+        this.searchIndexPath = searchIndexPath;
+        logFile = new RandomAccessFile(logPath, "rw");
+        indexFile = new RandomAccessFile(indexPath, "rw");
+        log = logFile.getChannel();
+        index = indexFile.getChannel();
+        try {
+            recover();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open the chat log of a room, creating it if required.
+     * The search index is not loaded, see {@link #loadSearchIndex()}.
+     *
+     * @param filesDir E.g. Context#getFilesDir().
+     * @param roomName
+     * @return The chat log.
+     * @throws IOException
+     */
+    public static ChatLog open(File filesDir, String roomName) throws IOException {
+        File dir = new File(filesDir, DIR_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir + "!");
+        }
+        // Keep room names that are not valid file names apart.
+        String fileName = roomName.replaceAll("[^A-Za-z0-9._-]", "_") + "_" +
+                Integer.toHexString(roomName.hashCode());
+        return new ChatLog(roomName,
+                new File(dir, fileName + LOG_SUFFIX), new File(dir, fileName + INDEX_SUFFIX),
+                new File(dir, fileName + SEARCH_INDEX_SUFFIX));
+    }
+
+    public String getRoomName() {
+        return roomName;
+    }
+
+    /**
+     * @return Number of messages in the log.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Append messages to the log, oldest first.
+     *
+     * @param messages
+     * @throws IOException
+     */
+    public synchronized void append(List<ChatMessage> messages) throws IOException {
+        List<byte[]> records = new ArrayList<byte[]>(messages.size());
+        int recordsLength = 0;
+        for (ChatMessage message : messages) {
+            byte[] record = encode(message);
+            records.add(record);
+            recordsLength += record.length;
+        }
+
+        ByteBuffer logBuffer = ByteBuffer.allocate(recordsLength);
+        ByteBuffer indexBuffer = ByteBuffer.allocate(records.size() * OFFSET_LENGTH);
+        long offset = logLength;
+        for (byte[] record : records) {
+            logBuffer.put(record);
+            indexBuffer.putLong(offset);
+            offset += record.length;
+        }
+        logBuffer.flip();
+        indexBuffer.flip();
+
+        // Write the records before their index entries, so that an index entry is never
+        // left pointing past the end of the log.
+        writeFully(log, logBuffer, logLength);
+        writeFully(index, indexBuffer, (long) size * OFFSET_LENGTH);
+        logLength = offset;
+        size += records.size();
+        // If not yet loaded, the messages are indexed when it is.
+        if (searchIndex != null) {
+            for (ChatMessage message : messages) {
+                searchIndex.add(message.getText());
+            }
+            unsavedCount += messages.size();
+            if (unsavedCount >= SEARCH_INDEX_SAVE_INTERVAL) {
+                saveSearchIndex();
+            }
+        }
+    }
+
+    /**
+     * Read a range of messages.
+     *
+     * @param from  Index of the first message, from 0 (oldest) to size - 1 (latest).
+     * @param count Number of messages, capped to those in the log.
+     * @return The messages, oldest first.
+     * @throws IOException
+     */
+    public synchronized List<ChatMessage> read(int from, int count) throws IOException {
+        if (from < 0) {
+            throw new IndexOutOfBoundsException("From " + from);
+        }
+        count = Math.max(0, Math.min(count, size - from));
+        List<ChatMessage> messages = new ArrayList<ChatMessage>(count);
+        if (count == 0) {
+            return messages;
+        }
+
+        long start = readOffset(from);
+        long end = from + count < size ? readOffset(from + count) : logLength;
+        MappedByteBuffer records = log.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        for (int i = 0; i < count; ++i) {
+            messages.add(decode(records));
+        }
+        return messages;
+    }
+
+    /**
+     * Find the messages containing all words of a query, as per {@link ChatSearchIndex#search}.
+     * Loads the search index if not yet loaded.
+     *
+     * @param query
+     * @param limit Maximum number of messages returned.
+     * @return The matching messages, latest first.
+     * @throws IOException
+     */
+    public synchronized List<ChatMessage> search(String query, int limit) throws IOException {
+        loadSearchIndex();
+        int[] ids = searchIndex.search(query, limit);
+        List<ChatMessage> messages = new ArrayList<ChatMessage>(ids.length);
+        for (int id : ids) {
+            // Matches are scattered across the log, so read each record directly
+            // rather than mapping a region for it.
+            long start = readOffset(id);
+            long end = id + 1 < size ? readOffset(id + 1) : logLength;
+            ByteBuffer record = ByteBuffer.allocate((int) (end - start));
+            readFully(log, record, start);
+            record.flip();
+            messages.add(decode(record));
+        }
+        return messages;
+    }
+
+    /**
+     * Save the search index if it has changed, so that it need not be rebuilt when the log is
+     * next opened.
+     */
+    public synchronized void saveSearchIndex() {
+        if (searchIndex == null || !searchIndex.isDirty()) {
+            return;
+        }
+        try {
+            searchIndex.save(searchIndexPath);
+            unsavedCount = 0;
+        } catch (IOException e) {
+            Log.w(TAG, "[SA][ChatLog] Unable to save the search index of " + roomName + ".", e);
+        }
+    }
+
+    /**
+     * Load the saved search index if not yet loaded, indexing any messages it is missing.
+     * This reads the whole log if the index has to be rebuilt, so should be called off the
+     * UI thread.
+     *
+     * @throws IOException If the log cannot be read.
+     */
+    public synchronized void loadSearchIndex() throws IOException {
+        if (searchIndex != null) {
+            return;
+        }
+        ChatSearchIndex loaded = null;
+        if (searchIndexPath.exists()) {
+            try {
+                loaded = ChatSearchIndex.load(searchIndexPath);
+            } catch (IOException e) {
+                Log.w(TAG, "[SA][ChatLog] Unable to load the search index of " + roomName +
+                        ", rebuilding it.", e);
+            }
+        }
+        // Rebuild it if it has messages that are no longer in the log.
+        if (loaded == null || loaded.size() > size) {
+            loaded = new ChatSearchIndex();
+        }
+        while (loaded.size() < size) {
+            for (ChatMessage message : read(loaded.size(), SEARCH_INDEX_PAGE_SIZE)) {
+                loaded.add(message.getText());
+            }
+        }
+        searchIndex = loaded;
+        saveSearchIndex();
+    }
+
+    public synchronized void close() {
+        saveSearchIndex();
+        try {
+            logFile.close();
+            indexFile.close();
+        } catch (IOException e) {
+            Log.w(TAG, "[SA][ChatLog] Unable to close the chat log of " + roomName + ".", e);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Bring the index in line with the log, discarding anything left incomplete.
+     */
+    private void recover() throws IOException {
+        long fileLength = log.size();
+        size = (int) (index.size() / OFFSET_LENGTH);
+        logLength = 0;
+
+        // Drop index entries of records that are not complete in the log.
+        while (size > 0) {
+            long offset = readOffset(size - 1);
+            long end = recordEnd(offset, fileLength);
+            if (end >= 0) {
+                logLength = end;
+                break;
+            }
+            --size;
+        }
+
+        // Index complete records that were written without their index entries.
+        long end;
+        while ((end = recordEnd(logLength, fileLength)) >= 0) {
+            ByteBuffer entry = ByteBuffer.allocate(OFFSET_LENGTH).putLong(logLength);
+            entry.flip();
+            writeFully(index, entry, (long) size * OFFSET_LENGTH);
+            ++size;
+            logLength = end;
+        }
+
+        if (logLength != fileLength || (long) size * OFFSET_LENGTH != index.size()) {
+            Log.w(TAG, "[SA][ChatLog] Discarding incomplete data of the chat log of " +
+                    roomName + ".");
+            log.truncate(logLength);
+            index.truncate((long) size * OFFSET_LENGTH);
+        }
+    }
+
+    /**
+     * @return The end of the record at the offset, or -1 if it is not complete in the log.
+     */
+    private long recordEnd(long offset, long fileLength) throws IOException {
+        if (offset < 0 || offset + RECORD_LENGTH_LENGTH > fileLength) {
+            return -1;
+        }
+        ByteBuffer length = ByteBuffer.allocate(RECORD_LENGTH_LENGTH);
+        readFully(log, length, offset);
+        int recordLength = length.getInt(0);
+        if (recordLength < RECORD_FIXED_LENGTH) {
+            return -1;
+        }
+        long end = offset + RECORD_LENGTH_LENGTH + recordLength;
+        return end <= fileLength ? end : -1;
+    }
+
+    private long readOffset(int i) throws IOException {
+        ByteBuffer offset = ByteBuffer.allocate(OFFSET_LENGTH);
+        readFully(index, offset, (long) i * OFFSET_LENGTH);
+        return offset.getLong(0);
+    }
+
+    private static byte[] encode(ChatMessage message) {
+        byte[] senderId = getBytes(message.getSenderId());
+        byte[] senderName = getBytes(message.getSenderName());
+        byte[] text = getBytes(message.getText());
+        int recordLength = RECORD_FIXED_LENGTH + length(senderId) + length(senderName) +
+                length(text);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_LENGTH_LENGTH + recordLength)
+                .putInt(recordLength)
+                .putLong(message.getTimestampMs())
+                .put((byte) message.getFlags());
+        putBytes(record, senderId);
+        putBytes(record, senderName);
+        putBytes(record, text);
+        return record.array();
+    }
+
+    private static ChatMessage decode(ByteBuffer records) {
+        // Skip the record length.
+        records.getInt();
+        long timestampMs = records.getLong();
+        int flags = records.get() & 0xFF;
+        String senderId = getString(records);
+        String senderName = getString(records);
+        String text = getString(records);
+        return new ChatMessage(senderId, senderName, flags, timestampMs, text);
+    }
+
+    private static byte[] getBytes(String string) {
+        return string == null ? null : string.getBytes(UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new IOException("Unexpected end of file.");
+            }
+            position += count;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+/**
+ * An immutable chat message, as kept in a {@link ChatMessageStore}.
+ */
+public class ChatMessage {
+
+    // Flags of a message.
+    // Sent by us.
+    public static final int FLAG_SELF = 1;
+    // Sent to a single Peer, rather than to all Peers in the room.
+    public static final int FLAG_PRIVATE = 1 << 1;
+    // Sent via the DataChannel (P2P), rather than via the signalling server.
+    public static final int FLAG_P2P = 1 << 2;
+
+    private final String senderId;
+    private final String senderName;
+    private final int flags;
+    private final long timestampMs;
+    private final String text;
+
+    /**
+     * @param senderId    PeerId of the sender, null if sent by us.
+     * @param senderName  Display name of the sender when the message was sent or received.
+     * @param flags       A combination of the FLAG_ constants.
+     * @param timestampMs Time the message was sent or received.
+     * @param text
+     */
+    public ChatMessage(String senderId, String senderName, int flags, long timestampMs,
+                       String text) {
+        this.senderId = senderId;
+        this.senderName = senderName;
+        this.flags = flags;
+        this.timestampMs = timestampMs;
+        this.text = text;
+    }
+
+    public String getSenderId() {
+        return senderId;
+    }
+
+    public String getSenderName() {
+        return senderName;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    public long getTimestampMs() {
+        return timestampMs;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return The message as shown in the chat history,
+     * e.g. "You : [PTE][P2P] Hello" or "Peer : [GRP][SIG] Hello".
+     */
+    public String getDisplayText() {
+        StringBuilder displayText = new StringBuilder(senderName.length() + text.length() + 16);
+        displayText.append(senderName).append(" : ")
+                .append(hasFlag(FLAG_PRIVATE) ? "[PTE]" : "[GRP]")
+                .append(hasFlag(FLAG_P2P) ? "[P2P] " : "[SIG] ")
+                .append(text);
+        return displayText.toString();
+    }
+}
@@ -0,0 +1,112 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.List;
+
+/**
+ * Shows the messages of a {@link ChatMessageStore} in a RecyclerView.
+ * Changes to the store should be made via this adapter, so that only the affected items
+ * are updated on the UI.
+ */
+public class ChatMessageAdapter extends RecyclerView.Adapter<ChatMessageAdapter.ViewHolder> {
+
+    private final ChatMessageStore store;
+
+    public ChatMessageAdapter(ChatMessageStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Add a message as the latest, evicting the oldest message if the store is full.
+     *
+     * @param message
+     */
+    public void add(ChatMessage message) {
+        if (store.add(message)) {
+            notifyItemRemoved(0);
+        }
+        notifyItemInserted(store.size() - 1);
+    }
+
+    /**
+     * Add messages as the latest, in one update, evicting the oldest messages if the store
+     * is full.
+     *
+     * @param messages Oldest first.
+     */
+    public void addAll(List<ChatMessage> messages) {
+        int sizeBefore = store.size();
+        int evicted = 0;
+        for (ChatMessage message : messages) {
+            if (store.add(message)) {
+                ++evicted;
+            }
+        }
+        if (evicted > sizeBefore) {
+            // Some of the new messages were themselves evicted.
+            notifyDataSetChanged();
+            return;
+        }
+        if (evicted > 0) {
+            notifyItemRangeRemoved(0, evicted);
+        }
+        notifyItemRangeInserted(sizeBefore - evicted, messages.size());
+    }
+
+    /**
+     * Add older messages before the oldest, e.g. when paging back through the history,
+     * evicting the latest messages if the store is full.
+     *
+     * @param older Oldest first.
+     * @return Number of the latest messages evicted, as from {@link ChatMessageStore#addOlder}.
+     */
+    public int addOlder(List<ChatMessage> older) {
+        int sizeBefore = store.size();
+        int evicted = store.addOlder(older);
+        if (evicted > 0) {
+            notifyItemRangeRemoved(sizeBefore - evicted, evicted);
+        }
+        int added = store.size() - (sizeBefore - evicted);
+        if (added > 0) {
+            notifyItemRangeInserted(0, added);
+        }
+        return evicted;
+    }
+
+    public void clear() {
+        int count = store.size();
+        store.clear();
+        notifyItemRangeRemoved(0, count);
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        TextView textView = (TextView) LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(textView);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        holder.textView.setText(store.get(position).getDisplayText());
+    }
+
+    @Override
+    public int getItemCount() {
+        return store.size();
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView textView;
+
+        ViewHolder(TextView textView) {
+            super(textView);
+            this.textView = textView;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import java.util.List;
+
+/**
+ * Bounded chat history, as a ring buffer of {@link ChatMessage}s.
+ * Once full, adding a message evicts the oldest one, and adding older messages evicts the
+ * latest ones, so memory use is capped.
+ * Messages are indexed from 0 (oldest) to size - 1 (latest).
+ */
+public class ChatMessageStore {
+
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final ChatMessage[] messages;
+    // Index into messages of the oldest message.
+    private int head;
+    private int size;
+
+    public ChatMessageStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Maximum number of messages kept.
+     */
+    public ChatMessageStore(int capacity) {
+        messages = new ChatMessage[capacity];
+    }
+
+    /**
+     * Add a message as the latest.
+     *
+     * @param message
+     * @return true if the oldest message was evicted to make space.
+     */
+    public synchronized boolean add(ChatMessage message) {
+        if (size < messages.length) {
+            messages[(head + size) % messages.length] = message;
+            ++size;
+            return false;
+        }
+        messages[head] = message;
+        head = (head + 1) % messages.length;
+        return true;
+    }
+
+    /**
+     * Add older messages before the oldest, e.g. when paging back through a longer history.
+     * Once full, the latest messages are evicted to make space, so that the store holds a
+     * window of the history.
+     *
+     * @param older Oldest first. Only the latest of them are added if more than the capacity.
+     * @return Number of the latest messages evicted.
+     */
+    public synchronized int addOlder(List<ChatMessage> older) {
+        int count = Math.min(older.size(), messages.length);
+        int evicted = Math.max(0, size + count - messages.length);
+        for (int i = 0; i < evicted; ++i) {
+            messages[(head + size - 1) % messages.length] = null;
+            --size;
+        }
+        for (int i = older.size() - 1; i >= older.size() - count; --i) {
+            head = (head - 1 + messages.length) % messages.length;
+            messages[head] = older.get(i);
+            ++size;
+        }
+        return evicted;
+    }
+
+    /**
+     * @param index From 0 (oldest) to size - 1 (latest).
+     * @return
+     */
+    public synchronized ChatMessage get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        return messages[(head + index) % messages.length];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return messages.length;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < messages.length; ++i) {
+            messages[i] = null;
+        }
+        head = 0;
+        size = 0;
+    }
+}
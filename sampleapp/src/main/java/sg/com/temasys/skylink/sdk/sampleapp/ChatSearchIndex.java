@@ -0,0 +1,270 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Inverted index of the words of chat messages, for full text search.
+ * <p>
+ * Messages are identified by their index in the chat history and must be added in order.
+ * Each word maps to the ids of the messages containing it, stored as varint encoded deltas.
+ * Words are kept sorted, so that all words with a given prefix are found with one range lookup.
+ * <p>
+ * Not thread safe.
+ */
+public class ChatSearchIndex {
+
+    // "SKSI", Skylink Search Index.
+    private static final int MAGIC = 0x534B5349;
+
+    private final TreeMap<String, PostingList> words = new TreeMap<String, PostingList>();
+    // Number of messages added, i.e. the id of the next message.
+    private int size;
+    // Whether there are changes not yet saved.
+    private boolean dirty;
+
+    /**
+     * @return Number of messages added.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Index the next message.
+     *
+     * @param text Text of the message with id {@link #size()}.
+     */
+    public void add(String text) {
+        int id = size++;
+        for (String word : tokenize(text)) {
+            PostingList postings = words.get(word);
+            if (postings == null) {
+                postings = new PostingList();
+                words.put(word, postings);
+            }
+            postings.add(id);
+        }
+        dirty = true;
+    }
+
+    /**
+     * Find the messages containing all words of a query, each word of the query matching any
+     * word that starts with it, e.g. "hel wor" matches "Hello world".
+     *
+     * @param query
+     * @param limit Maximum number of ids returned.
+     * @return Ids of the matching messages, latest first.
+     */
+    public int[] search(String query, int limit) {
+        BitSet matches = null;
+        for (String prefix : tokenize(query)) {
+            BitSet prefixMatches = new BitSet(size);
+            for (PostingList postings :
+                    words.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+                postings.addTo(prefixMatches);
+            }
+            if (matches == null) {
+                matches = prefixMatches;
+            } else {
+                matches.and(prefixMatches);
+            }
+            if (matches.isEmpty()) {
+                break;
+            }
+        }
+        if (matches == null) {
+            return new int[0];
+        }
+
+        int[] ids = new int[Math.min(limit, matches.cardinality())];
+        int id = size;
+        for (int i = 0; i < ids.length; ++i) {
+            id = matches.previousSetBit(id - 1);
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Write the index to a file, replacing it.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(size);
+            out.writeInt(words.size());
+            for (Map.Entry<String, PostingList> entry : words.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Unable to replace " + file + "!");
+        }
+        dirty = false;
+    }
+
+    /**
+     * Read an index written with {@link #save}.
+     *
+     * @param file
+     * @return The index.
+     * @throws IOException If the file is missing, or not a valid index, e.g. if corrupt.
+     */
+    public static ChatSearchIndex load(File file) throws IOException {
+        // Read it whole, so that lengths read can be checked against the bytes remaining.
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(readFile(file)));
+        if (in.readInt() != MAGIC) {
+            throw new IOException(file + " is not a search index!");
+        }
+        ChatSearchIndex index = new ChatSearchIndex();
+        index.size = in.readInt();
+        int count = in.readInt();
+        if (index.size < 0 || count < 0) {
+            throw new IOException(file + " is corrupt!");
+        }
+        for (int i = 0; i < count; ++i) {
+            String word = in.readUTF();
+            PostingList postings = PostingList.read(in);
+            if (postings.last >= index.size) {
+                throw new IOException(file + " is corrupt!");
+            }
+            index.words.put(word, postings);
+        }
+        return index;
+    }
+
+    /**
+     * Split text into lower case words of letters and digits.
+     *
+     * @param text
+     * @return The distinct words, in order of first appearance.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<String>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); ++i) {
+            boolean isWordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (isWordChar && start < 0) {
+                start = i;
+            } else if (!isWordChar && start >= 0) {
+                String token = text.substring(start, i).toLowerCase(Locale.ROOT);
+                if (!tokens.contains(token)) {
+                    tokens.add(token);
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    private static byte[] readFile(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException(file + " is too large!");
+        }
+        byte[] bytes = new byte[(int) length];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * Ascending message ids, as varint encoded deltas from the previous id.
+     */
+    private static class PostingList {
+        byte[] bytes = new byte[4];
+        int length;
+        int last = -1;
+
+        void add(int id) {
+            if (length + 5 > bytes.length) {
+                byte[] grown = new byte[bytes.length * 2];
+                System.arraycopy(bytes, 0, grown, 0, length);
+                bytes = grown;
+            }
+            int delta = id - last;
+            while ((delta & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            bytes[length++] = (byte) delta;
+            last = id;
+        }
+
+        void addTo(BitSet ids) {
+            int id = -1;
+            int i = 0;
+            while (i < length) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[i++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                id += delta;
+                ids.set(id);
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(last);
+            out.writeInt(length);
+            out.write(bytes, 0, length);
+        }
+
+        /**
+         * @param in Of a whole file in memory, so that available() is the bytes remaining.
+         * @throws IOException If the length read is not valid.
+         */
+        static PostingList read(DataInputStream in) throws IOException {
+            PostingList postings = new PostingList();
+            postings.last = in.readInt();
+            postings.length = in.readInt();
+            if (postings.length < 0 || postings.length > in.available()) {
+                throw new IOException("Invalid posting list length " + postings.length + "!");
+            }
+            postings.bytes = new byte[Math.max(4, postings.length)];
+            in.readFully(postings.bytes, 0, postings.length);
+            return postings;
+        }
+    }
+}
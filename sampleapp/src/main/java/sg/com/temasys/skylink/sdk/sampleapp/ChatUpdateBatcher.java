@@ -0,0 +1,99 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces chat messages arriving in bursts into one UI update per frame.
+ * <p>
+ * Messages may be posted from any thread without blocking, onto a lock free queue.
+ * The first message posted after a drain schedules a Choreographer frame callback,
+ * which hands all pending messages to the {@link Listener} in one call on the main thread.
+ */
+public class ChatUpdateBatcher {
+
+    /**
+     * Receives the pending messages, on the main thread.
+     */
+    public interface Listener {
+        /**
+         * @param messages Pending messages, oldest first. Never empty.
+         */
+        void onMessages(List<ChatMessage> messages);
+    }
+
+    private final Listener listener;
+    private final ConcurrentLinkedQueue<ChatMessage> queue =
+            new ConcurrentLinkedQueue<ChatMessage>();
+    // Whether a drain is scheduled for the next frame.
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            drain();
+        }
+    };
+
+    private final Runnable scheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    };
+
+    public ChatUpdateBatcher(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queue a message to be shown on the next frame. May be called from any thread.
+     *
+     * @param message
+     */
+    public void post(ChatMessage message) {
+        queue.offer(message);
+        if (scheduled.compareAndSet(false, true)) {
+            // Choreographer is per Looper, so the callback must be posted from the main thread.
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                scheduleFrame.run();
+            } else {
+                mainHandler.post(scheduleFrame);
+            }
+        }
+    }
+
+    /**
+     * Hand all pending messages to the listener now, instead of on the next frame,
+     * e.g. before the view goes away. Must be called on the main thread.
+     */
+    public void flush() {
+        mainHandler.removeCallbacks(scheduleFrame);
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
+        drain();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    private void drain() {
+        // Clear first, so that a message posted during the drain schedules another frame.
+        scheduled.set(false);
+        List<ChatMessage> messages = new ArrayList<ChatMessage>();
+        ChatMessage message;
+        while ((message = queue.poll()) != null) {
+            messages.add(message);
+        }
+        if (!messages.isEmpty()) {
+            listener.onMessages(messages);
+        }
+    }
+}
@@ -0,0 +1,664 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Resumable file transfer on top of the SDK file transfer.
+ * <p>
+ * A file is split into fixed size chunks, each sent as a separate file transfer named
+ * "[file name].[transfer id].part[index]of[count]", one at a time per (Peer, file).
+ * The transfer id is a CRC32 checksum of the file name, length and whole content, so it stays
+ * the same for the same file across Peer rejoins and App restarts, unlike the PeerIds,
+ * and changes whenever the content does. It is computed once per version of a file.
+ * <p>
+ * On the receiving side, chunks are kept in the work directory by transfer id until all chunks
+ * of a file have been received, and then assembled into the destination file, which is
+ * checked against the transfer id before it is reported as received. On a mismatch, the file
+ * and its chunks are discarded, so that the file is received again from the start.
+ * The chunks received are kept in a bitmap persisted in the work directory, and checked against
+ * the chunk files there when a transfer is picked up again, e.g. after the App restarted.
+ * A chunk that was already received is declined with {@link #isReceived}, which the sender
+ * takes as acknowledged (see {@link #onSendDeclined}). So a transfer resumes from the first
+ * chunk the receiver is missing, after a drop, a connection refresh, an ICE restart,
+ * a Peer rejoin or a restart of either side, without sending again what the receiver has.
+ * <p>
+ * All methods should be called on the same thread, e.g. the UI thread of the SDK callbacks.
+ */
+public class ChunkedFileTransfer {
+
+    private static final String TAG = ChunkedFileTransfer.class.getCanonicalName();
+
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    private static final Pattern CHUNK_NAME =
+            Pattern.compile("^(.+)\\.([0-9a-f]{8})\\.part(\\d+)of(\\d+)$");
+    private static final String RECEIVED_SUFFIX = ".received";
+    // Size of the buffer that a file is read through to compute its checksum.
+    private static final int CHECKSUM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Sends a chunk file to a Peer, e.g. via the SDK file transfer.
+     */
+    public interface ChunkSender {
+        /**
+         * @param peerId
+         * @param chunkName Name of the chunk to be sent, to be given to the remote Peer.
+         * @param chunkFile File with the content of the chunk.
+         * @return false if the chunk could not be sent.
+         */
+        boolean sendChunk(String peerId, String chunkName, File chunkFile);
+    }
+
+    /**
+     * Receives the outcome of transfers.
+     */
+    public interface TransferListener {
+        void onChunkSent(String peerId, String fileName, int chunksAcked, int chunkCount);
+
+        void onSendComplete(String peerId, String fileName);
+
+        void onReceiveComplete(String peerId, String fileName, File file);
+    }
+
+    private final File workDir;
+    private final int chunkSize;
+    private final ChunkSender sender;
+    private TransferListener listener;
+
+    // Outgoing transfers, with key from sendingKey(peerId, transferId).
+    private final Map<String, Transfer> sending = new HashMap<String, Transfer>();
+    // Incoming transfers, with the transfer id as key.
+    private final Map<String, Transfer> receiving = new HashMap<String, Transfer>();
+    // Transfer ids of files sent, with key from fileVersionKey(file).
+    private final Map<String, String> transferIds = new HashMap<String, String>();
+
+    /**
+     * @param workDir   Directory for chunk files and bitmaps of chunks received.
+     * @param chunkSize Size of each chunk in bytes.
+     * @param sender
+     */
+    public ChunkedFileTransfer(File workDir, int chunkSize, ChunkSender sender) {
+        this.workDir = workDir;
+        this.chunkSize = chunkSize;
+        this.sender = sender;
+        workDir.mkdirs();
+    }
+
+    /**
+     * @param listener May be null, e.g. while the UI is being recreated.
+     */
+    public void setTransferListener(TransferListener listener) {
+        this.listener = listener;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Sending
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Start sending a file to a Peer, from its first chunk.
+     * Chunks the Peer already has are declined by it, and skipped.
+     * Does nothing if a chunk of the file is already in flight to the Peer.
+     *
+     * @param peerId
+     * @param file
+     * @return false if the first chunk could not be sent.
+     */
+    public boolean send(String peerId, File file) {
+        String transferId;
+        try {
+            transferId = getTransferId(file);
+        } catch (IOException e) {
+            Log.e(TAG, "[SA][ChunkedFT] Unable to read " + file + "!", e);
+            return false;
+        }
+        String key = sendingKey(peerId, transferId);
+        Transfer transfer = sending.get(key);
+        if (transfer == null) {
+            int chunkCount = (int) Math.max(1, (file.length() + chunkSize - 1) / chunkSize);
+            transfer = new Transfer(peerId, transferId, file, file.length(), chunkCount);
+            sending.put(key, transfer);
+        }
+        return sendNextChunk(transfer);
+    }
+
+    /**
+     * Resume all outgoing transfers to a Peer that do not have a chunk in flight,
+     * e.g. after the connection to the Peer has been refreshed.
+     *
+     * @param peerId
+     */
+    public void resume(String peerId) {
+        for (Transfer transfer : sending.values()) {
+            if (transfer.peerId.equals(peerId)) {
+                transfer.inFlight = -1;
+                sendNextChunk(transfer);
+            }
+        }
+    }
+
+    /**
+     * Call when the SDK reports that a file was sent.
+     *
+     * @param peerId
+     * @param chunkName As given by the SDK.
+     * @return false if this is not a chunk of a transfer that is being sent.
+     */
+    public boolean onSendComplete(String peerId, String chunkName) {
+        Transfer transfer = findSending(peerId, chunkName);
+        if (transfer == null) {
+            return false;
+        }
+        onChunkAcked(transfer);
+        return true;
+    }
+
+    /**
+     * Call when the remote Peer declines a file transfer.
+     * As a Peer declines only chunks it already has, the chunk is taken as acknowledged.
+     *
+     * @param peerId
+     * @param chunkName As given by the SDK.
+     * @return false if this is not a chunk of a transfer that is being sent.
+     */
+    public boolean onSendDeclined(String peerId, String chunkName) {
+        Transfer transfer = findSending(peerId, chunkName);
+        if (transfer == null) {
+            return false;
+        }
+        onChunkAcked(transfer);
+        return true;
+    }
+
+    /**
+     * Call when the SDK reports that a file transfer was dropped.
+     * The transfer stays paused until {@link #resume} or {@link #send} is called.
+     *
+     * @param peerId
+     * @param chunkName As given by the SDK.
+     * @return false if this is not a chunk of a transfer that is being sent.
+     */
+    public boolean onSendDrop(String peerId, String chunkName) {
+        Transfer transfer = findSending(peerId, chunkName);
+        if (transfer == null) {
+            return false;
+        }
+        transfer.inFlight = -1;
+        return true;
+    }
+
+    /**
+     * Get the bytes of a file sent so far, from the SDK progress of the chunk in flight.
+     *
+     * @param peerId
+     * @param chunkName  As given by the SDK.
+     * @param percentage Progress of the chunk as given by the SDK.
+     * @return Bytes of the whole file sent, or -1 if this is not a chunk being sent.
+     */
+    public long getBytesSent(String peerId, String chunkName, double percentage) {
+        Transfer transfer = findSending(peerId, chunkName);
+        if (transfer == null) {
+            return -1;
+        }
+        long chunkStart = (long) transfer.inFlight * chunkSize;
+        long chunkLength = Math.min(chunkSize, transfer.fileLength - chunkStart);
+        // Chunks are sent in order, except when resuming, so count all acked chunks.
+        long bytesAcked = 0;
+        for (int index = transfer.chunks.nextSetBit(0); index >= 0;
+             index = transfer.chunks.nextSetBit(index + 1)) {
+            bytesAcked += Math.min(chunkSize, transfer.fileLength - (long) index * chunkSize);
+        }
+        return bytesAcked + (long) (chunkLength * percentage / 100);
+    }
+
+    /**
+     * Forget all outgoing transfers to a Peer.
+     * Incoming transfers are kept, as they are picked up by transfer id when the Peer rejoins.
+     *
+     * @param peerId
+     */
+    public void removePeer(String peerId) {
+        Iterator<Transfer> iterator = sending.values().iterator();
+        while (iterator.hasNext()) {
+            Transfer transfer = iterator.next();
+            if (transfer.peerId.equals(peerId)) {
+                if (transfer.inFlight >= 0) {
+                    deleteChunkFile(transfer, transfer.inFlight);
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Receiving
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * @param fileName As given by the SDK.
+     * @return true if the file is a chunk of a chunked transfer.
+     */
+    public static boolean isChunk(String fileName) {
+        return fileName != null && CHUNK_NAME.matcher(fileName).matches();
+    }
+
+    /**
+     * @param fileName As given by the SDK.
+     * @return Name of the file that the chunk is part of, or the given name if not a chunk.
+     */
+    public static String getFileName(String fileName) {
+        if (fileName == null) {
+            return null;
+        }
+        Matcher matcher = CHUNK_NAME.matcher(fileName);
+        if (!matcher.matches()) {
+            return fileName;
+        }
+        return matcher.group(1);
+    }
+
+    /**
+     * Check if an incoming chunk was already received, in which case it should be declined,
+     * so that the sender skips it.
+     * If all chunks of its file were already received, e.g. before the App restarted,
+     * the file is assembled.
+     *
+     * @param peerId
+     * @param chunkName As given by the SDK.
+     * @param fileOut   File to assemble the chunks into once all are received.
+     * @return true if the chunk was already received, false if not or if this is not a chunk.
+     */
+    public boolean isReceived(String peerId, String chunkName, File fileOut) {
+        Matcher matcher = CHUNK_NAME.matcher(chunkName);
+        if (!matcher.matches()) {
+            return false;
+        }
+        Transfer transfer = getReceiving(matcher, fileOut);
+        if (!transfer.chunks.get(Integer.parseInt(matcher.group(3)))) {
+            return false;
+        }
+        if (transfer.chunks.cardinality() == transfer.chunkCount) {
+            completeReceiving(peerId, transfer);
+        }
+        return true;
+    }
+
+    /**
+     * Get the path to save an incoming chunk to.
+     *
+     * @param peerId
+     * @param chunkName As given by the SDK.
+     * @param fileOut   File to assemble the chunks into once all are received.
+     * @return The path, or null if this is not a chunk.
+     */
+    public String onReceiveRequest(String peerId, String chunkName, File fileOut) {
+        Matcher matcher = CHUNK_NAME.matcher(chunkName);
+        if (!matcher.matches()) {
+            return null;
+        }
+        Transfer transfer = getReceiving(matcher, fileOut);
+        return getChunkFile(transfer, Integer.parseInt(matcher.group(3))).getAbsolutePath();
+    }
+
+    /**
+     * Call when the SDK reports that a file was received.
+     * Once all chunks of a file are received, they are assembled into the destination file.
+     *
+     * @param peerId
+     * @param chunkName As given by the SDK.
+     * @return false if this is not a chunk of a transfer that is being received.
+     */
+    public boolean onReceiveComplete(String peerId, String chunkName) {
+        Matcher matcher = CHUNK_NAME.matcher(chunkName);
+        if (!matcher.matches()) {
+            return false;
+        }
+        Transfer transfer = receiving.get(matcher.group(2));
+        if (transfer == null) {
+            return false;
+        }
+        transfer.chunks.set(Integer.parseInt(matcher.group(3)));
+        if (transfer.chunks.cardinality() < transfer.chunkCount) {
+            saveReceived(transfer);
+            return true;
+        }
+        completeReceiving(peerId, transfer);
+        return true;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    private void onChunkAcked(Transfer transfer) {
+        int index = transfer.inFlight;
+        transfer.inFlight = -1;
+        transfer.chunks.set(index);
+        deleteChunkFile(transfer, index);
+        int chunksAcked = transfer.chunks.cardinality();
+        if (chunksAcked == transfer.chunkCount) {
+            sending.remove(sendingKey(transfer.peerId, transfer.transferId));
+            if (listener != null) {
+                listener.onSendComplete(transfer.peerId, transfer.file.getName());
+            }
+            return;
+        }
+        if (listener != null) {
+            listener.onChunkSent(transfer.peerId, transfer.file.getName(), chunksAcked,
+                    transfer.chunkCount);
+        }
+        sendNextChunk(transfer);
+    }
+
+    private boolean sendNextChunk(Transfer transfer) {
+        if (transfer.inFlight >= 0) {
+            return true;
+        }
+        int index = transfer.chunks.nextClearBit(0);
+        if (index >= transfer.chunkCount) {
+            return true;
+        }
+        File chunkFile = getChunkFile(transfer, index);
+        try {
+            writeChunk(transfer, index, chunkFile);
+        } catch (IOException e) {
+            Log.e(TAG, "[SA][ChunkedFT] Unable to write chunk " + index + " of " +
+                    transfer.file + "!", e);
+            chunkFile.delete();
+            return false;
+        }
+        transfer.inFlight = index;
+        if (!sender.sendChunk(transfer.peerId, chunkName(transfer, index), chunkFile)) {
+            transfer.inFlight = -1;
+            return false;
+        }
+        return true;
+    }
+
+    private Transfer findSending(String peerId, String chunkName) {
+        Matcher matcher = CHUNK_NAME.matcher(chunkName);
+        if (!matcher.matches()) {
+            return null;
+        }
+        Transfer transfer = sending.get(sendingKey(peerId, matcher.group(2)));
+        if (transfer == null || transfer.inFlight != Integer.parseInt(matcher.group(3))) {
+            return null;
+        }
+        return transfer;
+    }
+
+    /**
+     * Get the incoming transfer of a chunk, picking up the chunks already received if new.
+     */
+    private Transfer getReceiving(Matcher matcher, File fileOut) {
+        String transferId = matcher.group(2);
+        int chunkCount = Integer.parseInt(matcher.group(4));
+        Transfer transfer = receiving.get(transferId);
+        if (transfer == null || transfer.chunkCount != chunkCount) {
+            transfer = new Transfer(null, transferId, fileOut, -1, chunkCount);
+            transfer.fileName = matcher.group(1);
+            loadReceived(transfer);
+            receiving.put(transferId, transfer);
+        }
+        transfer.file = fileOut;
+        return transfer;
+    }
+
+    private void completeReceiving(String peerId, Transfer transfer) {
+        receiving.remove(transfer.transferId);
+        try {
+            assemble(transfer);
+            getReceivedFile(transfer).delete();
+            if (listener != null) {
+                listener.onReceiveComplete(peerId, transfer.fileName, transfer.file);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "[SA][ChunkedFT] Unable to assemble " + transfer.file + "!", e);
+        }
+    }
+
+    private void writeChunk(Transfer transfer, int index, File chunkFile) throws IOException {
+        long position = (long) index * chunkSize;
+        long length = Math.min(chunkSize, transfer.fileLength - position);
+        FileInputStream in = new FileInputStream(transfer.file);
+        FileOutputStream out = new FileOutputStream(chunkFile);
+        try {
+            long written = 0;
+            while (written < length) {
+                long count = in.getChannel().transferTo(
+                        position + written, length - written, out.getChannel());
+                if (count <= 0) {
+                    // The file has shrunk since the transfer started.
+                    throw new IOException("Unable to read " + transfer.file + " at " +
+                            (position + written) + " of " + transfer.fileLength + " bytes.");
+                }
+                written += count;
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Assemble the chunks into the file, checking it against the transfer id.
+     *
+     * @throws IOException If the file could not be written, or does not match the transfer id,
+     *                     in which case it is discarded together with its chunks.
+     */
+    private void assemble(Transfer transfer) throws IOException {
+        long length = 0;
+        for (int index = 0; index < transfer.chunkCount; ++index) {
+            length += getChunkFile(transfer, index).length();
+        }
+        CRC32 crc32 = newChecksum(transfer.fileName, length);
+        ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_BUFFER_SIZE);
+        FileChannel out = new FileOutputStream(transfer.file).getChannel();
+        try {
+            for (int index = 0; index < transfer.chunkCount; ++index) {
+                FileChannel in = new FileInputStream(getChunkFile(transfer, index)).getChannel();
+                try {
+                    buffer.clear();
+                    while (in.read(buffer) >= 0) {
+                        crc32.update(buffer.array(), 0, buffer.position());
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            out.write(buffer);
+                        }
+                        buffer.clear();
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            out.close();
+        }
+        String checksum = toTransferId(crc32);
+        if (!checksum.equals(transfer.transferId)) {
+            transfer.file.delete();
+            getReceivedFile(transfer).delete();
+        }
+        for (int index = 0; index < transfer.chunkCount; ++index) {
+            deleteChunkFile(transfer, index);
+        }
+        if (!checksum.equals(transfer.transferId)) {
+            throw new IOException("Checksum " + checksum + " of " + transfer.file +
+                    " does not match transfer " + transfer.transferId + ", discarded it.");
+        }
+    }
+
+    /**
+     * Set the chunks received before, that are still in the work directory.
+     */
+    private void loadReceived(Transfer transfer) {
+        File receivedFile = getReceivedFile(transfer);
+        if (!receivedFile.isFile()) {
+            return;
+        }
+        try {
+            byte[] bytes = new byte[(int) receivedFile.length()];
+            FileInputStream in = new FileInputStream(receivedFile);
+            try {
+                int read = 0;
+                while (read < bytes.length) {
+                    int count = in.read(bytes, read, bytes.length - read);
+                    if (count < 0) {
+                        break;
+                    }
+                    read += count;
+                }
+            } finally {
+                in.close();
+            }
+            BitSet received = BitSet.valueOf(bytes);
+            for (int index = received.nextSetBit(0); index >= 0 && index < transfer.chunkCount;
+                 index = received.nextSetBit(index + 1)) {
+                // A chunk is marked received only once complete, but its file may be gone.
+                if (getChunkFile(transfer, index).isFile()) {
+                    transfer.chunks.set(index);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "[SA][ChunkedFT] Unable to read " + receivedFile + ".", e);
+        }
+    }
+
+    private void saveReceived(Transfer transfer) {
+        File receivedFile = getReceivedFile(transfer);
+        try {
+            FileOutputStream out = new FileOutputStream(receivedFile);
+            try {
+                out.write(transfer.chunks.toByteArray());
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "[SA][ChunkedFT] Unable to write " + receivedFile + ".", e);
+        }
+    }
+
+    private void deleteChunkFile(Transfer transfer, int index) {
+        getChunkFile(transfer, index).delete();
+    }
+
+    private File getChunkFile(Transfer transfer, int index) {
+        // Outgoing chunks are per Peer, as the same chunk may be in flight to several Peers.
+        String prefix = transfer.peerId == null ? "in_" : "out_" + transfer.peerId + "_";
+        return new File(workDir, safeName(prefix + transfer.fileName + "." +
+                transfer.transferId) + "." + index);
+    }
+
+    private File getReceivedFile(Transfer transfer) {
+        return new File(workDir, safeName("in_" + transfer.fileName + "." +
+                transfer.transferId) + RECEIVED_SUFFIX);
+    }
+
+    private static String chunkName(Transfer transfer, int index) {
+        return transfer.fileName + "." + transfer.transferId + ".part" + index + "of" +
+                transfer.chunkCount;
+    }
+
+    private static String sendingKey(String peerId, String transferId) {
+        return peerId + "_" + transferId;
+    }
+
+    private static String safeName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * @return Id of a transfer of the file, computed once per version of the file.
+     */
+    private String getTransferId(File file) throws IOException {
+        String key = fileVersionKey(file);
+        String transferId = transferIds.get(key);
+        if (transferId == null) {
+            transferId = computeTransferId(file);
+            transferIds.put(key, transferId);
+        }
+        return transferId;
+    }
+
+    /**
+     * @return Key that changes when the file is modified.
+     */
+    private static String fileVersionKey(File file) {
+        return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+    }
+
+    /**
+     * @return Id of a transfer of the file, the checksum of its name, length and content,
+     * read in chunks through a fixed size buffer.
+     */
+    private static String computeTransferId(File file) throws IOException {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            CRC32 crc32 = newChecksum(file.getName(), channel.size());
+            ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                crc32.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            return toTransferId(crc32);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return Checksum of the name and length of a file, to be updated with its content.
+     */
+    private static CRC32 newChecksum(String fileName, long length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(fileName.getBytes(Charset.forName("UTF-8")));
+        crc32.update(ByteBuffer.allocate(8).putLong(length).array());
+        return crc32;
+    }
+
+    private static String toTransferId(CRC32 crc32) {
+        return String.format(Locale.US, "%08x", crc32.getValue());
+    }
+
+    /**
+     * State of a transfer of one file, to one Peer if outgoing.
+     */
+    private static class Transfer {
+        // Null if incoming.
+        final String peerId;
+        final String transferId;
+        File file;
+        String fileName;
+        final long fileLength;
+        final int chunkCount;
+        // Chunks acknowledged by the receiver, or received from the sender.
+        final BitSet chunks = new BitSet();
+        // Index of the chunk being sent, or -1 if none.
+        int inFlight = -1;
+
+        Transfer(String peerId, String transferId, File file, long fileLength, int chunkCount) {
+            this.peerId = peerId;
+            this.transferId = transferId;
+            this.file = file;
+            this.fileName = file.getName();
+            this.fileLength = fileLength;
+            this.chunkCount = chunkCount;
+        }
+    }
+}
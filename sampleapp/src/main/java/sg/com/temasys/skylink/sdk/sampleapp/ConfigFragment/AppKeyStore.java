@@ -0,0 +1,550 @@
+package sg.com.temasys.skylink.sdk.sampleapp.ConfigFragment;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The App keys, as one list of KeyInfo per SMR status, with each App key in at most one list.
+ * <p>
+ * The first KeyInfo of each list may be a default key, see {@link #setDefaultKey},
+ * which is kept in memory only. All other App keys are persisted to a binary file,
+ * to which each change is appended as a single record, so that an edit does not rewrite
+ * the other App keys. When most records of the file are outdated, it is compacted into
+ * a new file that atomically replaces it.
+ * <p>
+ * Lookups by App key, including of its position to replace or remove it, are constant time.
+ * Positions are kept in a map that is updated as App keys are added or replaced. A removal only
+ * marks the positions after it as stale; they are renumbered on the next position lookup in
+ * that list.
+ * <p>
+ * Not thread safe.
+ */
+public class AppKeyStore {
+
+    private static final String TAG = AppKeyStore.class.getName();
+
+    // "SKKS", Skylink Key Store.
+    private static final int MAGIC = 0x534B4B53;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REPLACE = 2;
+    private static final byte OP_REMOVE = 3;
+
+    // Minimum number of outdated records before the file is compacted.
+    private static final int COMPACT_MIN_OUTDATED = 32;
+
+    private final ArrayList<KeyInfo> keyListNoSmr = new ArrayList<KeyInfo>();
+    private final ArrayList<KeyInfo> keyListSmr = new ArrayList<KeyInfo>();
+    // Map with App key as key for its KeyInfo, across both lists.
+    private final HashMap<String, KeyInfo> keyInfoMap = new HashMap<String, KeyInfo>();
+    // Map with App key as key for its position within its list,
+    // valid for positions before the first stale position of that list.
+    private final HashMap<String, Integer> positionMap = new HashMap<String, Integer>();
+    private int firstStalePositionNoSmr = Integer.MAX_VALUE;
+    private int firstStalePositionSmr = Integer.MAX_VALUE;
+    private KeyInfo defaultKeyNoSmr;
+    private KeyInfo defaultKeySmr;
+
+    // Null if the App keys are not persisted.
+    private final File file;
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    // Number of records in the file.
+    private int recordCount;
+
+    /**
+     * Create a store that is not persisted.
+     */
+    public AppKeyStore() {
+        file = null;
+    }
+
+    private AppKeyStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open the store persisted in a file, creating the file if it does not exist.
+     * A record partially written when the App was killed is discarded.
+     *
+     * @param file
+     * @return The store.
+     * @throws IOException If the file could not be read or is not a key store.
+     */
+    public static AppKeyStore open(File file) throws IOException {
+        AppKeyStore store = new AppKeyStore(file);
+        store.load();
+        return store;
+    }
+
+    /**
+     * @param key App key.
+     * @return The KeyInfo of the App key, or null if there is none.
+     */
+    public KeyInfo get(String key) {
+        return keyInfoMap.get(key);
+    }
+
+    /**
+     * @param isSmr
+     * @return Read only view of the App keys of the given SMR status, default key first.
+     */
+    public List<KeyInfo> getList(boolean isSmr) {
+        return Collections.unmodifiableList(getKeyList(isSmr));
+    }
+
+    /**
+     * @return Total number of App keys, including default keys.
+     */
+    public int size() {
+        return keyInfoMap.size();
+    }
+
+    /**
+     * Set the default key of the list of its SMR status, replacing the previous default key.
+     * A persisted App key that is the same as the default key is removed.
+     *
+     * @param keyInfo
+     */
+    public void setDefaultKey(KeyInfo keyInfo) {
+        keyInfo = copy(keyInfo);
+        boolean isSmr = keyInfo.isSmr();
+        KeyInfo defaultKeyOld = isSmr ? defaultKeySmr : defaultKeyNoSmr;
+        if (defaultKeyOld != null) {
+            removeFromList(defaultKeyOld);
+            keyInfoMap.remove(defaultKeyOld.getKey());
+        }
+        KeyInfo existing = keyInfoMap.get(keyInfo.getKey());
+        if (existing != null && !isDefaultKey(existing.getKey())) {
+            remove(existing.getKey());
+        }
+
+        getKeyList(isSmr).add(0, keyInfo);
+        markPositionsStale(isSmr, 0);
+        keyInfoMap.put(keyInfo.getKey(), keyInfo);
+        if (isSmr) {
+            defaultKeySmr = keyInfo;
+        } else {
+            defaultKeyNoSmr = keyInfo;
+        }
+    }
+
+    /**
+     * @param key App key.
+     * @return True if the App key is one of the default keys.
+     */
+    public boolean isDefaultKey(String key) {
+        return (defaultKeyNoSmr != null && defaultKeyNoSmr.getKey().equals(key)) ||
+                (defaultKeySmr != null && defaultKeySmr.getKey().equals(key));
+    }
+
+    /**
+     * Add an App key to the end of the list of its SMR status,
+     * or replace it if it already exists in that list.
+     * If it exists in the other list, it is moved from there.
+     *
+     * @param keyInfo
+     */
+    public void put(KeyInfo keyInfo) {
+        keyInfo = copy(keyInfo);
+        applyPut(keyInfo);
+        writeRecord(OP_PUT, null, keyInfo);
+    }
+
+    /**
+     * Add App keys as with {@link #put} for each, except default keys, which are skipped.
+     * The changes are written to the file together, and synced to storage.
+     *
+     * @param keyInfoList
+     * @return True if all the App keys are durably persisted,
+     * false if the store is not persisted or writing to the file failed.
+     */
+    public boolean putAllDurably(List<KeyInfo> keyInfoList) {
+        boolean isWritten = out != null;
+        for (KeyInfo keyInfo : keyInfoList) {
+            if (isDefaultKey(keyInfo.getKey())) {
+                continue;
+            }
+            keyInfo = copy(keyInfo);
+            applyPut(keyInfo);
+            isWritten &= appendRecord(OP_PUT, null, keyInfo);
+        }
+        isWritten &= commitRecords();
+        return isWritten && sync();
+    }
+
+    /**
+     * Replace an App key with another, which may have a different App key.
+     * The replacement takes the position of the replaced App key if their SMR status is the same,
+     * else it is added to the end of the list of its SMR status.
+     * Any other existing App key that is the same as the replacement is removed.
+     *
+     * @param keyOld   App key to be replaced.
+     * @param keyInfo
+     */
+    public void replace(String keyOld, KeyInfo keyInfo) {
+        keyInfo = copy(keyInfo);
+        applyReplace(keyOld, keyInfo);
+        writeRecord(OP_REPLACE, keyOld, keyInfo);
+    }
+
+    /**
+     * @param key App key.
+     * @return The removed KeyInfo, or null if there was none.
+     */
+    public KeyInfo remove(String key) {
+        KeyInfo keyInfo = applyRemove(key);
+        if (keyInfo != null) {
+            writeRecord(OP_REMOVE, key, null);
+        }
+        return keyInfo;
+    }
+
+    /**
+     * Close the file. Changes after this are no longer persisted.
+     */
+    public void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                Log.e(TAG, "[close] Error: " + e.getMessage() + ".");
+            }
+            out = null;
+            fileOut = null;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    private ArrayList<KeyInfo> getKeyList(boolean isSmr) {
+        return isSmr ? keyListSmr : keyListNoSmr;
+    }
+
+    private static KeyInfo copy(KeyInfo keyInfo) {
+        return new KeyInfo(keyInfo.getKey(), keyInfo.getSecret(), keyInfo.getDesc(),
+                keyInfo.isSmr());
+    }
+
+    private void applyPut(KeyInfo keyInfo) {
+        KeyInfo existing = keyInfoMap.get(keyInfo.getKey());
+        if (existing != null && existing.isSmr() == keyInfo.isSmr()) {
+            setInList(existing, keyInfo);
+        } else {
+            if (existing != null) {
+                removeFromList(existing);
+            }
+            addToList(keyInfo);
+        }
+        keyInfoMap.put(keyInfo.getKey(), keyInfo);
+    }
+
+    private void applyReplace(String keyOld, KeyInfo keyInfo) {
+        KeyInfo existingOld = keyInfoMap.get(keyOld);
+        if (existingOld == null) {
+            applyPut(keyInfo);
+            return;
+        }
+        if (!keyInfo.getKey().equals(keyOld)) {
+            applyRemove(keyInfo.getKey());
+        }
+
+        if (existingOld.isSmr() == keyInfo.isSmr()) {
+            setInList(existingOld, keyInfo);
+        } else {
+            removeFromList(existingOld);
+            addToList(keyInfo);
+        }
+        keyInfoMap.remove(keyOld);
+        keyInfoMap.put(keyInfo.getKey(), keyInfo);
+    }
+
+    private KeyInfo applyRemove(String key) {
+        KeyInfo keyInfo = keyInfoMap.remove(key);
+        if (keyInfo != null) {
+            removeFromList(keyInfo);
+        }
+        return keyInfo;
+    }
+
+    /**
+     * @return Position of a KeyInfo in the list of its SMR status,
+     * renumbering stale positions of that list if required.
+     */
+    private int indexOf(KeyInfo keyInfo) {
+        boolean isSmr = keyInfo.isSmr();
+        int firstStalePosition = isSmr ? firstStalePositionSmr : firstStalePositionNoSmr;
+        Integer position = positionMap.get(keyInfo.getKey());
+        if (position != null && position < firstStalePosition) {
+            return position;
+        }
+
+        ArrayList<KeyInfo> list = getKeyList(isSmr);
+        for (int i = firstStalePosition; i < list.size(); ++i) {
+            positionMap.put(list.get(i).getKey(), i);
+        }
+        if (isSmr) {
+            firstStalePositionSmr = Integer.MAX_VALUE;
+        } else {
+            firstStalePositionNoSmr = Integer.MAX_VALUE;
+        }
+        return positionMap.get(keyInfo.getKey());
+    }
+
+    private void markPositionsStale(boolean isSmr, int fromPosition) {
+        if (isSmr) {
+            firstStalePositionSmr = Math.min(firstStalePositionSmr, fromPosition);
+        } else {
+            firstStalePositionNoSmr = Math.min(firstStalePositionNoSmr, fromPosition);
+        }
+    }
+
+    private void addToList(KeyInfo keyInfo) {
+        ArrayList<KeyInfo> list = getKeyList(keyInfo.isSmr());
+        positionMap.put(keyInfo.getKey(), list.size());
+        list.add(keyInfo);
+    }
+
+    /**
+     * Put a KeyInfo in place of another of the same SMR status.
+     */
+    private void setInList(KeyInfo keyInfoOld, KeyInfo keyInfo) {
+        int position = indexOf(keyInfoOld);
+        getKeyList(keyInfo.isSmr()).set(position, keyInfo);
+        positionMap.remove(keyInfoOld.getKey());
+        positionMap.put(keyInfo.getKey(), position);
+    }
+
+    private void removeFromList(KeyInfo keyInfo) {
+        int position = indexOf(keyInfo);
+        getKeyList(keyInfo.isSmr()).remove(position);
+        positionMap.remove(keyInfo.getKey());
+        markPositionsStale(keyInfo.isSmr(), position);
+    }
+
+    /**
+     * Read the App keys from the file, discarding any partially written record at its end,
+     * and open it for appending.
+     */
+    private void load() throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            compact();
+            return;
+        }
+
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream fileIn = new DataInputStream(new FileInputStream(file));
+        try {
+            fileIn.readFully(bytes);
+        } finally {
+            fileIn.close();
+        }
+
+        ByteArrayInputStream bytesIn = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(bytesIn);
+        if (bytes.length < 4 || in.readInt() != MAGIC) {
+            throw new IOException(file + " is not an App key store!");
+        }
+        // Length of the file up to the end of the last complete record.
+        int validLength = 4;
+        try {
+            while (bytesIn.available() > 0) {
+                byte op = in.readByte();
+                if (op == OP_PUT) {
+                    applyPut(readKeyInfo(in));
+                } else if (op == OP_REPLACE) {
+                    String keyOld = in.readUTF();
+                    applyReplace(keyOld, readKeyInfo(in));
+                } else if (op == OP_REMOVE) {
+                    applyRemove(in.readUTF());
+                } else {
+                    break;
+                }
+                ++recordCount;
+                validLength = bytes.length - bytesIn.available();
+            }
+        } catch (EOFException e) {
+            // The last record was only partially written.
+        }
+
+        if (validLength < bytes.length) {
+            Log.w(TAG, "[load] Discarding " + (bytes.length - validLength) +
+                    " bytes of incomplete record(s).");
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(validLength);
+            } finally {
+                raf.close();
+            }
+        }
+
+        if (isMostlyOutdated()) {
+            compact();
+        } else {
+            openForAppend();
+        }
+    }
+
+    private void openForAppend() throws IOException {
+        fileOut = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut));
+    }
+
+    /**
+     * Write the current App keys, less default keys, into a new file that replaces the file,
+     * and open it for appending.
+     */
+    private void compact() throws IOException {
+        close();
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream tempFileOut = new FileOutputStream(tempFile);
+        DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(tempFileOut));
+        int count = 0;
+        try {
+            tempOut.writeInt(MAGIC);
+            for (boolean isSmr : new boolean[]{false, true}) {
+                for (KeyInfo keyInfo : getKeyList(isSmr)) {
+                    if (isDefaultKey(keyInfo.getKey())) {
+                        continue;
+                    }
+                    tempOut.writeByte(OP_PUT);
+                    writeKeyInfo(tempOut, keyInfo);
+                    ++count;
+                }
+            }
+            // Sync before the rename, so that the file is never replaced by a partial one.
+            tempOut.flush();
+            tempFileOut.getFD().sync();
+        } finally {
+            tempOut.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Unable to replace " + file + "!");
+        }
+        recordCount = count;
+        openForAppend();
+    }
+
+    /**
+     * Append a record of a change to the file.
+     */
+    private void writeRecord(byte op, String key, KeyInfo keyInfo) {
+        appendRecord(op, key, keyInfo);
+        commitRecords();
+    }
+
+    /**
+     * Buffer a record of a change, to be written by {@link #commitRecords}.
+     * On error, the change is kept in memory only.
+     *
+     * @return False if the record could not be buffered.
+     */
+    private boolean appendRecord(byte op, String key, KeyInfo keyInfo) {
+        if (out == null) {
+            return false;
+        }
+        try {
+            out.writeByte(op);
+            if (key != null) {
+                out.writeUTF(key);
+            }
+            if (keyInfo != null) {
+                writeKeyInfo(out, keyInfo);
+            }
+            ++recordCount;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "[appendRecord] Error: " + e.getMessage() + ".");
+            return false;
+        }
+    }
+
+    /**
+     * Write the buffered records to the file, compacting it if most records are outdated.
+     *
+     * @return False if the records could not be written.
+     */
+    private boolean commitRecords() {
+        if (out == null) {
+            return false;
+        }
+        try {
+            out.flush();
+            if (isMostlyOutdated()) {
+                compact();
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "[commitRecords] Error: " + e.getMessage() + ".");
+            return false;
+        }
+    }
+
+    /**
+     * Sync the written records to storage.
+     *
+     * @return False if the records could not be synced.
+     */
+    private boolean sync() {
+        if (fileOut == null) {
+            return false;
+        }
+        try {
+            fileOut.getFD().sync();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "[sync] Error: " + e.getMessage() + ".");
+            return false;
+        }
+    }
+
+    /**
+     * @return True if most records of the file are outdated, i.e. replaced or removed.
+     */
+    private boolean isMostlyOutdated() {
+        int outdated = recordCount - keyInfoMap.size();
+        return outdated >= COMPACT_MIN_OUTDATED && outdated > keyInfoMap.size();
+    }
+
+    private static void writeKeyInfo(DataOutputStream out, KeyInfo keyInfo) throws IOException {
+        out.writeUTF(keyInfo.getKey());
+        writeNullableString(out, keyInfo.getSecret());
+        writeNullableString(out, keyInfo.getDesc());
+        out.writeBoolean(keyInfo.isSmr());
+    }
+
+    private static KeyInfo readKeyInfo(DataInputStream in) throws IOException {
+        String key = in.readUTF();
+        String secret = readNullableString(in);
+        String desc = readNullableString(in);
+        boolean isSmr = in.readBoolean();
+        return new KeyInfo(key, secret, desc, isSmr);
+    }
+
+    private static void writeNullableString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
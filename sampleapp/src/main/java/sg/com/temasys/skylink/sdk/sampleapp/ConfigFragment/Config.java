@@ -3,8 +3,17 @@ package sg.com.temasys.skylink.sdk.sampleapp.ConfigFragment;
 import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import sg.com.temasys.skylink.sdk.sampleapp.R;
+import sg.com.temasys.skylink.sdk.sampleapp.StartupTrace;
 
 import static sg.com.temasys.skylink.sdk.sampleapp.ConfigFragment.ConfigRoomFragment.PREF_ROOM_NAME_AUDIO;
 import static sg.com.temasys.skylink.sdk.sampleapp.ConfigFragment.ConfigRoomFragment.PREF_ROOM_NAME_CHAT;
@@ -37,6 +46,8 @@ import static sg.com.temasys.skylink.sdk.sampleapp.Constants.USER_NAME_VIDEO_DEF
 
 public class Config {
 
+    private static final String TAG = Config.class.getName();
+
     // Selected App key details Preferences Key values
     private static final String PREF_SELECTED_APP_KEY = "SelectedAppKey";
     private static final String PREF_SELECTED_APP_KEY_SECRET = "SelectedAppKeySecret";
@@ -66,6 +77,15 @@ public class Config {
     public static String USER_NAME_PARTY = USER_NAME_PARTY_DEFAULT;
     public static String USER_NAME_VIDEO = USER_NAME_VIDEO_DEFAULT;
 
+    // Writes Config values to Preferences in batches, off the calling thread.
+    private static ConfigPrefWriter prefWriter;
+
+    // Loads Config values from Preferences in the background, see loadAsync.
+    private static final ExecutorService loader = Executors.newSingleThreadExecutor();
+    // Loads not yet awaited, if any.
+    private static volatile Future<?> roomUserNamesLoad;
+    private static volatile Future<String[]> selectedAppKeyLoad;
+
     private Config() {
     }
 
@@ -74,14 +94,104 @@ public class Config {
     //----------------------------------------------------------------------------------------------
 
     /**
-     * Load selected App key.
-     * Load from SharedPreferences if available, else load from config.xml.
+     * Start loading the room and user names and the selected App key in the background,
+     * so that Preferences are read while the UI is being set up.
+     * Room and user names are loaded first, and must be awaited with {@link #awaitRoomUserNames}
+     * before they are used. The selected App key is awaited by its getters and setters,
+     * so that it does not hold up anything that does not need it.
      *
      * @param activity
      */
-    public static void loadSelectedAppKey(Activity activity) {
-        // Load from Preferences if available.
+    public static synchronized void loadAsync(Activity activity) {
+        // Values set but not yet written would otherwise be overwritten by older ones.
+        flushPrefs();
+        // Get these on this thread, as the Activity must not be used by the loader.
         final SharedPreferences sharedPref = activity.getPreferences(Context.MODE_PRIVATE);
+        final Resources resources = activity.getResources();
+        final ConfigPrefWriter writer = getPrefWriter(activity);
+
+        roomUserNamesLoad = loader.submit(new Runnable() {
+            @Override
+            public void run() {
+                readRoomUserNames(sharedPref);
+                StartupTrace.mark(StartupTrace.ROOM_USER_NAMES_LOADED);
+            }
+        });
+        selectedAppKeyLoad = loader.submit(new Callable<String[]>() {
+            @Override
+            public String[] call() {
+                String[] appKeyValues = readSelectedAppKey(sharedPref, resources, writer);
+                StartupTrace.mark(StartupTrace.APP_KEY_LOADED);
+                return appKeyValues;
+            }
+        });
+    }
+
+    /**
+     * Wait for the room and user names started loading with {@link #loadAsync}, if any.
+     */
+    public static void awaitRoomUserNames() {
+        if (roomUserNamesLoad == null) {
+            return;
+        }
+        synchronized (Config.class) {
+            if (roomUserNamesLoad != null) {
+                getLoaded(roomUserNamesLoad);
+                roomUserNamesLoad = null;
+            }
+        }
+    }
+
+    /**
+     * Get Preferences for specified activity and set boolean value for specific key.
+     * The value is written shortly after, together with other values set by then.
+     *
+     * @param key
+     * @param value
+     * @param activity
+     */
+    public static void setPrefBoolean(String key, boolean value, Activity activity) {
+        getPrefWriter(activity).putBoolean(key, value);
+    }
+
+    /**
+     * Get Preferences for specified activity and set String value for specific key.
+     * The value is written shortly after, together with other values set by then.
+     *
+     * @param key
+     * @param value
+     * @param activity
+     */
+    public static void setPrefString(String key, String value, Activity activity) {
+        getPrefWriter(activity).putString(key, value);
+    }
+
+    /**
+     * Write all Config values not yet written to Preferences now, on the calling thread.
+     *
+     * @return False if the values could not be written.
+     */
+    public static boolean flushPrefs() {
+        ConfigPrefWriter writer;
+        synchronized (Config.class) {
+            writer = prefWriter;
+        }
+        return writer == null || writer.flush();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Read selected App key from SharedPreferences if available, else from config.xml,
+     * in which case it is also written to SharedPreferences.
+     *
+     * @return App key, secret, description and SMR status ("true" or "false").
+     */
+    private static String[] readSelectedAppKey(SharedPreferences sharedPref, Resources resources,
+                                               ConfigPrefWriter writer) {
+        // Load from Preferences if available.
         String appKey = sharedPref.getString(PREF_SELECTED_APP_KEY, null);
         String appKeySecret;
         String appKeyDesc;
@@ -95,7 +205,7 @@ public class Config {
         } else {
             // Load from config.xml
             // Get resource Id for the specified type of App key (SMR enabled or not).
-            boolean isSmr = activity.getResources().getBoolean(R.bool.is_app_key_smr);
+            boolean isSmr = resources.getBoolean(R.bool.is_app_key_smr);
             int appKeyResId = R.string.app_key_no_smr;
             int appKeySecretResId = R.string.app_key_secret_no_smr;
             int appKeyDescResId = R.string.app_key_desc_no_smr;
@@ -106,21 +216,64 @@ public class Config {
                 appKeyDescResId = R.string.app_key_desc_smr;
             }
 
-            appKey = activity.getString(appKeyResId);
-            appKeySecret = activity.getString(appKeySecretResId);
-            appKeyDesc = activity.getString(appKeyDescResId);
+            appKey = resources.getString(appKeyResId);
+            appKeySecret = resources.getString(appKeySecretResId);
+            appKeyDesc = resources.getString(appKeyDescResId);
             appKeySmr = isSmr;
         }
 
-        // Set values to Config and Preferences.
-        setAppKey(appKey, activity);
-        setAppKeySecret(appKeySecret, activity);
-        setAppKeyDescription(appKeyDesc, activity);
-        setAppKeySmr(appKeySmr, activity);
+        // Same defaults as the setters.
+        if ("".equals(appKey)) {
+            appKey = "appKey";
+        }
+        if (appKeySecret == null || "".equals(appKeySecret)) {
+            appKeySecret = "appKeySecret";
+        }
+        if (appKeyDesc == null || "".equals(appKeyDesc)) {
+            appKeyDesc = "appKeyDescription";
+        }
+
+        // Set values to Preferences, if not from there.
+        if (sharedPref.getString(PREF_SELECTED_APP_KEY, null) == null) {
+            writer.putString(PREF_SELECTED_APP_KEY, appKey);
+            writer.putString(PREF_SELECTED_APP_KEY_SECRET, appKeySecret);
+            writer.putString(PREF_SELECTED_APP_KEY_DESC, appKeyDesc);
+            writer.putBoolean(PREF_SELECTED_APP_KEY_SMR, appKeySmr);
+        }
+        return new String[]{appKey, appKeySecret, appKeyDesc, String.valueOf(appKeySmr)};
     }
 
-    public static void loadRoomUserNames(Activity activity) {
-        final SharedPreferences sharedPref = activity.getPreferences(Context.MODE_PRIVATE);
+    /**
+     * Set values from {@link #readSelectedAppKey} to Config.
+     */
+    private static void setSelectedAppKey(String[] appKeyValues) {
+        APP_KEY = appKeyValues[0];
+        APP_KEY_SECRET = appKeyValues[1];
+        APP_KEY_DESCRIPTION = appKeyValues[2];
+        IS_APP_KEY_SMR = Boolean.parseBoolean(appKeyValues[3]);
+    }
+
+    /**
+     * Wait for the selected App key started loading with {@link #loadAsync}, if any.
+     */
+    private static void awaitSelectedAppKey() {
+        if (selectedAppKeyLoad == null) {
+            return;
+        }
+        synchronized (Config.class) {
+            if (selectedAppKeyLoad != null) {
+                String[] appKeyValues = getLoaded(selectedAppKeyLoad);
+                if (appKeyValues != null) {
+                    setSelectedAppKey(appKeyValues);
+                }
+                // Clear only after the values are set, as a null load lets other threads read them
+                // without locking.
+                selectedAppKeyLoad = null;
+            }
+        }
+    }
+
+    private static void readRoomUserNames(SharedPreferences sharedPref) {
         // Populate room and user names with values from Preferences if they exist.
         ROOM_NAME_AUDIO = sharedPref.getString(PREF_ROOM_NAME_AUDIO, ROOM_NAME_AUDIO);
         ROOM_NAME_CHAT = sharedPref.getString(PREF_ROOM_NAME_CHAT, ROOM_NAME_CHAT);
@@ -138,29 +291,34 @@ public class Config {
     }
 
     /**
-     * Get Preferences for specified activity and set boolean value for specific key.
-     *
-     * @param key
-     * @param value
-     * @param activity
+     * @return The result of a load, or null if it failed.
      */
-    public static void setPrefBoolean(String key, boolean value, Activity activity) {
-        final SharedPreferences sharedPref = activity.getPreferences(Context.MODE_PRIVATE);
-        final SharedPreferences.Editor editor = sharedPref.edit();
-        editor.putBoolean(key, value).commit();
+    private static <T> T getLoaded(Future<T> load) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return load.get();
+                } catch (InterruptedException e) {
+                    // Config must be loaded before it is used, so keep waiting.
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Log.e(TAG, "[getLoaded] Error: " + e.getCause() + ".");
+            return null;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
-    /**
-     * Get Preferences for specified activity and set String value for specific key.
-     *
-     * @param key
-     * @param value
-     * @param activity
-     */
-    public static void setPrefString(String key, String value, Activity activity) {
-        final SharedPreferences sharedPref = activity.getPreferences(Context.MODE_PRIVATE);
-        final SharedPreferences.Editor editor = sharedPref.edit();
-        editor.putString(key, value).commit();
+    private static synchronized ConfigPrefWriter getPrefWriter(Activity activity) {
+        if (prefWriter == null) {
+            prefWriter = new ConfigPrefWriter(activity.getPreferences(Context.MODE_PRIVATE));
+        }
+        return prefWriter;
     }
 
     //----------------------------------------------------------------------------------------------
@@ -168,10 +326,12 @@ public class Config {
     //----------------------------------------------------------------------------------------------
 
     public static String getAppKey() {
+        awaitSelectedAppKey();
         return APP_KEY;
     }
 
     public static void setAppKey(String appKey, Activity activity) {
+        awaitSelectedAppKey();
         if (appKey == null || "".equals(appKey)) {
             appKey = "appKey";
         }
@@ -180,10 +340,12 @@ public class Config {
     }
 
     public static String getAppKeySecret() {
+        awaitSelectedAppKey();
         return APP_KEY_SECRET;
     }
 
     public static void setAppKeySecret(String appKeySecret, Activity activity) {
+        awaitSelectedAppKey();
         if (appKeySecret == null || "".equals(appKeySecret)) {
             appKeySecret = "appKeySecret";
         }
@@ -195,10 +357,12 @@ public class Config {
     }
 
     public static String getAppKeyDescription() {
+        awaitSelectedAppKey();
         return APP_KEY_DESCRIPTION;
     }
 
     public static void setAppKeyDescription(String appKeyDescription, Activity activity) {
+        awaitSelectedAppKey();
         if (appKeyDescription == null || "".equals(appKeyDescription)) {
             appKeyDescription = "appKeyDescription";
         }
@@ -211,10 +375,12 @@ public class Config {
     }
 
     public static boolean isAppKeySmr() {
+        awaitSelectedAppKey();
         return IS_APP_KEY_SMR;
     }
 
     public static void setAppKeySmr(boolean appKeySmr, Activity activity) {
+        awaitSelectedAppKey();
 
         // Write to Config and Preferences only if value changed.
         if (IS_APP_KEY_SMR != appKeySmr) {
@@ -25,16 +25,17 @@ import android.widget.TextView;
 
 import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import sg.com.temasys.skylink.sdk.sampleapp.CredentialCache;
 import sg.com.temasys.skylink.sdk.sampleapp.R;
 import sg.com.temasys.skylink.sdk.sampleapp.Utils;
 
 import static android.content.Context.MODE_PRIVATE;
-import static sg.com.temasys.skylink.sdk.sampleapp.Utils.jsonArrayRemove;
 import static sg.com.temasys.skylink.sdk.sampleapp.Utils.toastLog;
 import static sg.com.temasys.skylink.sdk.sampleapp.Utils.toastLogLong;
 
@@ -45,8 +46,10 @@ import static sg.com.temasys.skylink.sdk.sampleapp.Utils.toastLogLong;
 public class ConfigKeyFragment extends Fragment {
 
     private static final String TAG = ConfigKeyFragment.class.getName();
+    // SharedPreferences keys of App key lists stored before the App key store was used.
     public static final String APP_KEY_LIST_SMR = "appKeyListSmr";
     private static final String APP_KEY_LIST_NO_SMR = "appKeyListNoSmr";
+    private static final String APP_KEY_STORE_FILE = "AppKeys.bin";
     private KeyInfo keyInfoSmrDefault;
     private KeyInfo keyInfoNoSmrDefault;
 
@@ -77,8 +80,7 @@ public class ConfigKeyFragment extends Fragment {
     List keyInfoList = new ArrayList();
     static boolean smrSelect = Boolean.parseBoolean(null);
 
-    static JSONArray appKeyListNoSmr = new JSONArray();
-    static JSONArray appKeyListSmr = new JSONArray();
+    static AppKeyStore appKeyStore;
 
     public ConfigKeyFragment() {
         // Required empty public constructor
@@ -106,10 +108,10 @@ public class ConfigKeyFragment extends Fragment {
             public void onCheckedChanged(RadioGroup group, int checkedId) {
                 if (checkedId == R.id.radio_btn_manage_smr) {
                     smrSelect = true;
-                    keyInfoList = Utils.convertJSONArrayToKeyInfoList(appKeyListSmr);
+                    keyInfoList = getAppKeyList(true);
                 } else if (checkedId == R.id.radio_btn_manage_no_smr) {
                     smrSelect = false;
-                    keyInfoList = Utils.convertJSONArrayToKeyInfoList(appKeyListNoSmr);
+                    keyInfoList = getAppKeyList(false);
                 }
                 recyclerViewAdapter = new RecyclerViewAdapter(getContext(), keyInfoList,
                         getActivity(), ConfigKeyFragment.this);
@@ -156,16 +158,12 @@ public class ConfigKeyFragment extends Fragment {
                     return;
                 }
 
-                if (addAppKey(new KeyInfo(key, secret, description, addKeySmr), true)) {
+                if (addAppKey(new KeyInfo(key, secret, description, addKeySmr))) {
                     // Update the UI for changes to keyInfo.
                     setSelectedKeyViews();
                     // Set radioButton and AppKeyList to reflect added key.
                     setRbAppKeyListSmr(addKeySmr);
-                    if (addKeySmr) {
-                        keyInfoList = Utils.convertJSONArrayToKeyInfoList(appKeyListSmr);
-                    } else {
-                        keyInfoList = Utils.convertJSONArrayToKeyInfoList(appKeyListNoSmr);
-                    }
+                    keyInfoList = getAppKeyList(addKeySmr);
                     recyclerViewAdapter = new RecyclerViewAdapter(getContext(), keyInfoList,
                             getActivity(), ConfigKeyFragment.this);
                     recyclerView.setAdapter(recyclerViewAdapter);
@@ -230,10 +228,10 @@ public class ConfigKeyFragment extends Fragment {
 
 
     /**
-     * Load the available App keys into appKeyListSmr and appKeyListNoSmr.
-     * Set first element with default key (from config.xml).
-     * Load remaining list from Preferences, if any.
-     * If any of the keys from Preferences are the same as default key, abandon those.
+     * Load the available App keys into appKeyStore.
+     * Set first element of each list with default key (from config.xml).
+     * Load remaining keys from the App key store file, if any.
+     * If any of those keys are the same as a default key, abandon those.
      */
     private void loadAvailableAppKeyLists() {
 
@@ -249,35 +247,92 @@ public class ConfigKeyFragment extends Fragment {
                 getResources().getString(R.string.app_key_desc_smr),
                 true);
 
-        try {
-            // Put default keys into App key lists.
-            appKeyListNoSmr.put(0, keyInfoNoSmrDefault.getJson());
-            appKeyListSmr.put(0, keyInfoSmrDefault.getJson());
+        // Open the App key store only once, it is kept up to date after that.
+        if (appKeyStore == null) {
+            File file = new File(getActivity().getFilesDir(), APP_KEY_STORE_FILE);
+            try {
+                appKeyStore = AppKeyStore.open(file);
+            } catch (IOException e) {
+                Log.e(TAG, "[loadAppKeyLists] Error: " + e.getMessage());
+                String log = "Unable to load saved App keys! App key changes will not be saved.";
+                toastLogLong(TAG, getContext(), log);
+                appKeyStore = new AppKeyStore();
+            }
+        }
+
+        // Put default keys into App key lists.
+        appKeyStore.setDefaultKey(keyInfoNoSmrDefault);
+        appKeyStore.setDefaultKey(keyInfoSmrDefault);
 
-            // Put keys from SharedPreferences into App key lists.
-            SharedPreferences pref = getActivity().getPreferences(MODE_PRIVATE);
-            String prefStrNoSmr = pref.getString(APP_KEY_LIST_NO_SMR, null);
-            String prefStrSmr = pref.getString(APP_KEY_LIST_SMR, null);
+        importAppKeyListsFromPreferences();
+    }
+
+    /**
+     * Move App key lists stored as JSON strings in SharedPreferences, if any,
+     * into the App key store.
+     * They are removed from SharedPreferences only once durably written to the App key store file,
+     * else they are imported again on the next load.
+     */
+    private void importAppKeyListsFromPreferences() {
+        SharedPreferences pref = getActivity().getPreferences(MODE_PRIVATE);
+        String prefStrNoSmr = pref.getString(APP_KEY_LIST_NO_SMR, null);
+        String prefStrSmr = pref.getString(APP_KEY_LIST_SMR, null);
+        if (prefStrNoSmr == null && prefStrSmr == null) {
+            return;
+        }
 
+        List<KeyInfo> keyInfoList = new ArrayList<KeyInfo>();
+        try {
             if (prefStrNoSmr != null) {
-                JSONArray prefListNoSmr = new JSONArray(prefStrNoSmr);
-                addAppKeyList(prefListNoSmr, false);
+                keyInfoList.addAll(
+                        Utils.convertJSONArrayToKeyInfoList(new JSONArray(prefStrNoSmr)));
             }
             if (prefStrSmr != null) {
-                JSONArray prefListSmr = new JSONArray(prefStrSmr);
-                addAppKeyList(prefListSmr, false);
+                keyInfoList.addAll(Utils.convertJSONArrayToKeyInfoList(new JSONArray(prefStrSmr)));
             }
-            storeAppKeyLists(getActivity());
-
         } catch (JSONException e) {
-            Log.e(TAG, "[loadAppKeyLists] Error: " + e.getMessage());
+            Log.e(TAG, "[importAppKeyListsFromPreferences] Error: " + e.getMessage() +
+                    " App Key Lists are kept in SharedPreferences.");
+            return;
+        }
+
+        if (!appKeyStore.putAllDurably(keyInfoList)) {
+            Log.w(TAG, "[importAppKeyListsFromPreferences] App Key Lists could not be saved " +
+                    "into App key store, they are kept in SharedPreferences.");
+            return;
         }
+        pref.edit()
+                .remove(APP_KEY_LIST_NO_SMR)
+                .remove(APP_KEY_LIST_SMR)
+                .commit();
+        Log.i(TAG, "App Key Lists moved from SharedPreferences into App key store.");
     }
 
     //----------------------------------------------------------------------------------------------
     // APIs
     //----------------------------------------------------------------------------------------------
 
+    /**
+     * Set the given App key as the Selected key in Config.
+     * Connection strings cached for the previous App key are dropped if the App key or its
+     * secret changed.
+     *
+     * @param keyInfo
+     * @param activity
+     */
+    public static void setSelectedKey(KeyInfo keyInfo, Activity activity) {
+        String appKeyOld = Config.getAppKey();
+        String appKeySecretOld = Config.getAppKeySecret();
+        Config.setAppKey(keyInfo.getKey(), activity);
+        Config.setAppKeySecret(keyInfo.getSecret(), activity);
+        Config.setAppKeyDescription(keyInfo.getDesc(), activity);
+        Config.setAppKeySmr(keyInfo.isSmr(), activity);
+        if (!appKeyOld.equals(Config.getAppKey()) ||
+                !appKeySecretOld.equals(Config.getAppKeySecret())) {
+            CredentialCache.getInstance().clear();
+        }
+    }
+
     /**
      * Add App key into List of AppKey for the same SMR status.
      * If App key already existed in either of AppKeyList, it will either:
@@ -285,177 +340,47 @@ public class ConfigKeyFragment extends Fragment {
      * - Replace the existing App key if the existing one is not a default key.
      *
      * @param keyInfo
-     * @param store   If true, store App Key List to SharedPreferences.
      * @return True is App key was added, false if it could not be added.
      */
-    public boolean addAppKey(KeyInfo keyInfo, boolean store) {
+    public boolean addAppKey(KeyInfo keyInfo) {
         String appKey = keyInfo.getKey();
-        String appKeySecret = keyInfo.getSecret();
-        String appKeyDesc = keyInfo.getDesc();
-        boolean isSmr = keyInfo.isSmr();
-
-        int posNoSmr = Utils.getKeyPosition(appKey, appKeyListNoSmr);
-        int posSmr = Utils.getKeyPosition(appKey, appKeyListSmr);
 
         // Do not add if it's either of the default keys.
-        if (posNoSmr == 0 || posSmr == 0) {
+        if (appKeyStore.isDefaultKey(appKey)) {
             return false;
         }
 
-        // Prepare to add to List of the same SMR state.
-        int posThis = posNoSmr;
-        int posOther = posSmr;
-        JSONArray listThis = appKeyListNoSmr;
-        if (isSmr) {
-            posThis = posSmr;
-            posOther = posNoSmr;
-            listThis = appKeyListSmr;
-        }
-
-        // Replace existing key if already present.
-        if (posThis > 0) {
-            try {
-                listThis.put(posThis, keyInfo.getJson());
-            } catch (JSONException e) {
-                Log.e(TAG, "[addAppKey] Error: " + e.getMessage() + ".");
-                return false;
-            }
-        } else {
-            // Add additional key if not already present.
-            listThis.put(keyInfo.getJson());
-        }
-
-        // Remove non-default key of other List if existed.
-        if (posOther > 0) {
-            removeFromConfigAppKeyList(posOther, !isSmr);
-        }
+        // Replace existing key if already present, removing it from the other List if there.
+        appKeyStore.put(keyInfo);
 
         // If replaced key is Selected key, set to Config.
         if (appKey.equals(Config.getAppKey())) {
-            Config.setAppKey(appKey, getActivity());
-            Config.setAppKeySecret(appKeySecret, getActivity());
-            Config.setAppKeyDescription(appKeyDesc, getActivity());
-            Config.setAppKeySmr(isSmr, getActivity());
-        }
-
-        if (store) {
-            storeAppKeyLists(getActivity());
+            setSelectedKey(keyInfo, getActivity());
         }
         return true;
     }
 
-    /**
-     * Add the App Keys from the given list into Config.
-     *
-     * @param fromList List of App Keys to be added.
-     * @param store    If true, store App Key List to SharedPreferences.
-     */
-    public void addAppKeyList(JSONArray fromList, boolean store) {
-        for (int i = 0; i < fromList.length(); ++i) {
-            JSONObject json = null;
-            try {
-                json = fromList.getJSONObject(i);
-            } catch (JSONException e) {
-                Log.e(TAG, "[addAppKeyList] Error: " + e.getMessage() + ".");
-            }
-            if (json != null) {
-                KeyInfo keyInfo = new KeyInfo(json);
-                addAppKey(keyInfo, false);
-            }
-        }
-        // Store to SharedPreferences only at the end, if required.
-        if (store) {
-            storeAppKeyLists(getActivity());
-        }
-    }
-
     public static boolean editAppKey(KeyInfo keyInfoNew, int pos, boolean wasSmr, Activity activity) {
 
         String appKeyNew = keyInfoNew.getKey();
-        String appKeySecretNew = keyInfoNew.getSecret();
-        String appKeyDescNew = keyInfoNew.getDesc();
-        boolean isSmr = keyInfoNew.isSmr();
-
-        int posNoSmr = Utils.getKeyPosition(appKeyNew, appKeyListNoSmr);
-        int posSmr = Utils.getKeyPosition(appKeyNew, appKeyListSmr);
 
         // Do not add if it's either of the default keys.
-        if (posNoSmr == 0 || posSmr == 0) {
+        if (appKeyStore.isDefaultKey(appKeyNew)) {
             return false;
         }
 
-        JSONArray listOld = appKeyListNoSmr;
-        if (wasSmr) {
-            listOld = appKeyListSmr;
-        }
-        KeyInfo keyInfoOld = null;
-        try {
-            keyInfoOld = new KeyInfo(listOld.getJSONObject(pos));
-        } catch (JSONException e) {
-            Log.e(TAG, "[editAppKey] Error: " + e.getMessage() + ".");
-            return false;
-        }
-
-        // Save edited Key into SharedPreferences and Config (if is selected key).
-        try {
-            // JSONObject KeyInfo stored in Config.
-            JSONObject keyInfoJson;
-
-            // Write into existing App key.
-            keyInfoJson = listOld.getJSONObject(pos);
-            KeyInfo.jsonPutKeyInfo(keyInfoJson, appKeyNew, appKeySecretNew, appKeyDescNew, isSmr);
-
-            // Remove any existing App key that is the same as the new App key.
-            boolean toRemoveSmr = false;
-            int toRemovePos = -1;
-            if (posNoSmr > 0) {
-                toRemovePos = posNoSmr;
-                toRemoveSmr = false;
-            } else if (posSmr > 0) {
-                toRemovePos = posSmr;
-                toRemoveSmr = true;
-            }
-            // Remove existing App key.
-            if (toRemovePos > 0) {
-                removeFromConfigAppKeyList(toRemovePos, toRemoveSmr);
-
-                // Find position of the old App key again as it might have changed.
-                pos = Utils.getKeyPosition(appKeyNew, listOld);
+        KeyInfo keyInfoOld = appKeyStore.getList(wasSmr).get(pos);
 
-                // Note if App key removed was Selected key,
-                // Selected key details will be overwritten as below.
-            }
+        // Write into existing App key, removing any other App key that is the same as the
+        // new App key, and switching it to the other List if SMR value changed.
+        appKeyStore.replace(keyInfoOld.getKey(), keyInfoNew);
 
-            // If SMR value changed, key has to be switched to the other Config array.
-            if (isSmr != wasSmr) {
-                if (wasSmr) {
-                    // Key was SMR but is now not SMR.
-                    appKeyListNoSmr.put(keyInfoJson);
-                    removeFromConfigAppKeyList(pos, true);
-                } else {
-                    // Key was not SMR but is now SMR.
-                    appKeyListSmr.put(keyInfoJson);
-                    removeFromConfigAppKeyList(pos, false);
-                }
-            }
-
-            // If edited key or replaced key is Selected key, set to Config.
-            if (keyInfoOld.getKey().equals(Config.getAppKey()) ||
-                    appKeyNew.equals(Config.getAppKey())) {
-                Config.setAppKey(appKeyNew, activity);
-                Config.setAppKeySecret(appKeySecretNew, activity);
-                Config.setAppKeyDescription(appKeyDescNew, activity);
-                Config.setAppKeySmr(isSmr, activity);
-            }
-
-            // Update the SharedPreferences.
-            storeAppKeyLists(activity);
-            return true;
-
-        } catch (JSONException e) {
-            Log.e(TAG, "[editAppKey] Error: " + e.getMessage() + ".");
-            return false;
+        // If edited key or replaced key is Selected key, set to Config.
+        if (keyInfoOld.getKey().equals(Config.getAppKey()) ||
+                appKeyNew.equals(Config.getAppKey())) {
+            setSelectedKey(keyInfoNew, activity);
         }
+        return true;
     }
 
     /**
@@ -467,58 +392,37 @@ public class ConfigKeyFragment extends Fragment {
      * @param activity
      */
     public static void deleteAppKey(int pos, boolean wasSmr, Activity activity) {
+        List<KeyInfo> appKeyList = appKeyStore.getList(wasSmr);
+        KeyInfo keyInfoOld = appKeyList.get(pos);
         // Switch to default key for same SMR value if this is selected key.
-        JSONArray appKeyList = appKeyListNoSmr;
-        if (wasSmr) {
-            appKeyList = appKeyListSmr;
+        if (keyInfoOld.getKey().equals(Config.getAppKey())) {
+            setSelectedKey(appKeyList.get(0), activity);
         }
-        KeyInfo keyInfoOld = null;
-        try {
-            keyInfoOld = new KeyInfo(appKeyList.getJSONObject(pos));
-            if (keyInfoOld.getKey().equals(Config.getAppKey())) {
-                // Get and set new keyInfo
-                KeyInfo keyInfoNew = new KeyInfo(appKeyList.getJSONObject(0));
-                Config.setAppKey(keyInfoNew.getKey(), activity);
-                Config.setAppKeySecret(keyInfoNew.getSecret(), activity);
-                Config.setAppKeyDescription(keyInfoNew.getDesc(), activity);
-                Config.setAppKeySmr(keyInfoNew.isSmr(), activity);
-            }
-        } catch (JSONException e) {
-            Log.e(TAG, "[deleteAppKey] Error: " + e.getMessage() + ".");
-        }
-
-        removeFromConfigAppKeyList(pos, wasSmr);
 
-        // Update the SharePreferences.
-        storeAppKeyLists(activity);
+        appKeyStore.remove(keyInfoOld.getKey());
     }
 
     /**
-     * Set the RadioButtons for AppKeyLists' SMR state.
+     * Get a copy of the App keys of the given SMR status, default key first.
      *
      * @param isSmr
+     * @return
      */
-    public void setRbAppKeyListSmr(boolean isSmr) {
-        int rbId = R.id.radio_btn_manage_no_smr;
-        if (isSmr) {
-            rbId = R.id.radio_btn_manage_smr;
-        }
-        rGroup.check(rbId);
+    public static List<KeyInfo> getAppKeyList(boolean isSmr) {
+        return new ArrayList<KeyInfo>(appKeyStore.getList(isSmr));
     }
 
     /**
-     * Removes the App Key at the given AppKeyList in ConfigKeyFragment.
+     * Set the RadioButtons for AppKeyLists' SMR state.
      *
-     * @param position
      * @param isSmr
-     * @return
      */
-    public static void removeFromConfigAppKeyList(int position, boolean isSmr) {
+    public void setRbAppKeyListSmr(boolean isSmr) {
+        int rbId = R.id.radio_btn_manage_no_smr;
         if (isSmr) {
-            appKeyListSmr = jsonArrayRemove(appKeyListSmr, position);
-        } else {
-            appKeyListNoSmr = jsonArrayRemove(appKeyListNoSmr, position);
+            rbId = R.id.radio_btn_manage_smr;
         }
+        rGroup.check(rbId);
     }
 
     /**
@@ -534,21 +438,4 @@ public class ConfigKeyFragment extends Fragment {
         description.setText(desc);
     }
 
-    /**
-     * Put App Key lists appKeyListNoSmr and appKeyListSmr into SharePreferences.
-     *
-     * @param activity
-     */
-    public static void storeAppKeyLists(Activity activity) {
-        SharedPreferences userInfo = activity.getPreferences(MODE_PRIVATE);
-        SharedPreferences.Editor editor = userInfo.edit();
-
-        editor.putString(APP_KEY_LIST_NO_SMR, appKeyListNoSmr.toString());
-        editor.putString(APP_KEY_LIST_SMR, appKeyListSmr.toString());
-        editor.commit();
-        Log.i(TAG, appKeyListSmr.toString());
-        Log.i(TAG, appKeyListNoSmr.toString());
-        Log.i(TAG, "App Key Lists stored into SharedPreferences.");
-    }
-
 }
\ No newline at end of file
@@ -0,0 +1,115 @@
+package sg.com.temasys.skylink.sdk.sampleapp.ConfigFragment;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write behind for Config values in SharedPreferences.
+ * <p>
+ * Values are kept pending in memory and written together in one SharedPreferences transaction,
+ * on a background thread, shortly after the first of them was put.
+ * A value put again before it is written replaces the pending value,
+ * so only the latest value of each key is written.
+ * <p>
+ * Values not yet written are not visible through the SharedPreferences,
+ * call {@link #flush()} to write them first where that matters.
+ */
+public class ConfigPrefWriter {
+
+    private static final String TAG = ConfigPrefWriter.class.getName();
+
+    public static final long DEFAULT_DELAY_MS = 100;
+
+    private final SharedPreferences sharedPref;
+    private final long delayMs;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+
+    // Map with preference key as key for its pending String or Boolean value.
+    private final Map<String, Object> pending = new LinkedHashMap<String, Object>();
+    private boolean writeScheduled;
+    // Held while writing, so that earlier values are never written after later ones.
+    private final Object writeLock = new Object();
+
+    private final Runnable writeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public ConfigPrefWriter(SharedPreferences sharedPref) {
+        this(sharedPref, DEFAULT_DELAY_MS);
+    }
+
+    /**
+     * @param sharedPref
+     * @param delayMs    Time after the first pending value is put, to write pending values.
+     */
+    public ConfigPrefWriter(SharedPreferences sharedPref, long delayMs) {
+        this.sharedPref = sharedPref;
+        this.delayMs = delayMs;
+    }
+
+    public void putString(String key, String value) {
+        put(key, value);
+    }
+
+    public void putBoolean(String key, boolean value) {
+        put(key, value);
+    }
+
+    /**
+     * Write all pending values now, on the calling thread.
+     *
+     * @return False if the values could not be written.
+     */
+    public boolean flush() {
+        synchronized (writeLock) {
+            Map<String, Object> values;
+            synchronized (pending) {
+                writeScheduled = false;
+                if (pending.isEmpty()) {
+                    return true;
+                }
+                values = new LinkedHashMap<String, Object>(pending);
+                pending.clear();
+            }
+
+            SharedPreferences.Editor editor = sharedPref.edit();
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof Boolean) {
+                    editor.putBoolean(entry.getKey(), (Boolean) value);
+                } else {
+                    editor.putString(entry.getKey(), (String) value);
+                }
+            }
+            boolean committed = editor.commit();
+            if (!committed) {
+                Log.e(TAG, "[flush] Unable to write " + values.size() + " Config value(s)!");
+            }
+            return committed;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    private void put(String key, Object value) {
+        synchronized (pending) {
+            pending.put(key, value);
+            if (writeScheduled) {
+                return;
+            }
+            writeScheduled = true;
+        }
+        writer.schedule(writeRunnable, delayMs, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,147 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.util.Log;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import sg.com.temasys.skylink.sdk.sampleapp.ConfigFragment.Config;
+
+/**
+ * Signed Skylink connection strings, keyed by App key, room name and duration, so that
+ * connecting again to a room does not have to sign a new one.
+ * <p>
+ * A connection string is handed out until half its duration has passed, so that a room joined
+ * with it still has at least half the duration to run. While it is being used, a replacement
+ * is signed in the background shortly before then. Connection strings not used since they were
+ * signed are dropped at that point instead.
+ */
+public class CredentialCache {
+
+    private static final String TAG = CredentialCache.class.getCanonicalName();
+
+    // Fraction of the duration for which a connection string is handed out.
+    private static final double USABLE_FRACTION = 0.5;
+    // How long before a connection string stops being handed out to sign its replacement.
+    private static final long REFRESH_LEAD_MS = 60 * 1000;
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    private static CredentialCache instance;
+
+    private final ConcurrentHashMap<String, Credential> credentials =
+            new ConcurrentHashMap<String, Credential>();
+    private final ScheduledExecutorService refresher =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private CredentialCache() {
+    }
+
+    public static synchronized CredentialCache getInstance() {
+        if (instance == null) {
+            instance = new CredentialCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Get a signed connection string for the current App key, signing one if none is cached.
+     *
+     * @param roomName Name of the room.
+     * @param duration Duration of the room in hours.
+     * @return The connection string, or null if it could not be signed.
+     */
+    public String get(String roomName, int duration) {
+        String appKey = Config.getAppKey();
+        String appKeySecret = Config.getAppKeySecret();
+        String key = appKey + "/" + roomName + "/" + duration;
+        long nowMs = System.currentTimeMillis();
+
+        Credential credential = credentials.get(key);
+        if (credential != null && credential.isUsable(appKeySecret, nowMs)) {
+            credential.used = true;
+            return credential.connectionString;
+        }
+        credential = sign(key, appKeySecret, roomName, duration, nowMs);
+        if (credential == null) {
+            return null;
+        }
+        credential.used = true;
+        return credential.connectionString;
+    }
+
+    /**
+     * Drop all cached connection strings, e.g. when the App key or its secret changes.
+     */
+    public void clear() {
+        credentials.clear();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Sign and cache a connection string starting now, and schedule its refresh.
+     */
+    private Credential sign(final String key, final String appKeySecret, final String roomName,
+                            final int duration, long nowMs) {
+        String connectionString =
+                Utils.getSkylinkConnectionString(roomName, new Date(nowMs), duration);
+        if (connectionString == null) {
+            return null;
+        }
+        long usableMs = (long) (duration * HOUR_MS * USABLE_FRACTION);
+        final Credential credential =
+                new Credential(connectionString, appKeySecret, nowMs + usableMs);
+        credentials.put(key, credential);
+
+        long refreshDelayMs = Math.max(0, usableMs - REFRESH_LEAD_MS);
+        refresher.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // Stop if it has already been replaced or dropped.
+                if (credentials.get(key) != credential) {
+                    return;
+                }
+                if (!credential.used || !credential.isSignedWith(Config.getAppKeySecret())) {
+                    credentials.remove(key, credential);
+                    return;
+                }
+                Log.d(TAG, "[SA][Credential] Refreshing connection string of room " +
+                        roomName + ".");
+                sign(key, appKeySecret, roomName, duration, System.currentTimeMillis());
+            }
+        }, refreshDelayMs, TimeUnit.MILLISECONDS);
+        return credential;
+    }
+
+    /**
+     * A signed connection string.
+     */
+    private static class Credential {
+        final String connectionString;
+        final String appKeySecret;
+        // Time until which it is handed out.
+        final long usableUntilMs;
+        // Whether it has been handed out.
+        volatile boolean used;
+
+        Credential(String connectionString, String appKeySecret, long usableUntilMs) {
+            this.connectionString = connectionString;
+            this.appKeySecret = appKeySecret;
+            this.usableUntilMs = usableUntilMs;
+        }
+
+        boolean isUsable(String appKeySecret, long nowMs) {
+            return nowMs < usableUntilMs && isSignedWith(appKeySecret);
+        }
+
+        boolean isSignedWith(String appKeySecret) {
+            return this.appKeySecret == null ? appKeySecret == null :
+                    this.appKeySecret.equals(appKeySecret);
+        }
+    }
+}
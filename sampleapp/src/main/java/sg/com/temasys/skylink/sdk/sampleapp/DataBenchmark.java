@@ -0,0 +1,271 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Data channel throughput benchmark.
+ * <p>
+ * The sender streams {@link DataFrame#TYPE_BENCHMARK} frames of a given payload size at a
+ * target rate for a given duration, then sends a {@link DataFrame#TYPE_BENCHMARK_END} frame.
+ * Each benchmark payload starts with its send time, so that the {@link Receiver} can compute
+ * goodput, loss, reordering and one way latency percentiles.
+ * One way latency relies on the clocks of both devices, so it is only as accurate as
+ * their synchronisation.
+ */
+public class DataBenchmark {
+
+    private static final String TAG = DataBenchmark.class.getCanonicalName();
+
+    public static final int PAYLOAD_SIZE_MIN = 1024;
+    public static final int PAYLOAD_SIZE_MAX = 1024 * 1024;
+
+    // Interval between sending ticks. Frames due within a tick are sent together.
+    private static final long TICK_MS = 10;
+    // Send time (8 bytes) at the start of each benchmark payload.
+    private static final int TIME_LENGTH = 8;
+    // Frames sent (4 bytes), payload size (4 bytes) and send time (8 bytes) of the end frame.
+    private static final int END_PAYLOAD_LENGTH = 16;
+
+    /**
+     * Sends a frame to a Peer, e.g. via SkylinkConnection#sendData.
+     */
+    public interface FrameSender {
+        /**
+         * @return false if the frame could not be sent, which ends the benchmark.
+         */
+        boolean sendFrame(String peerId, byte[] frame);
+    }
+
+    /**
+     * Receives the outcome of the sending side.
+     */
+    public interface SenderListener {
+        void onBenchmarkSent(String peerId, String summary);
+    }
+
+    private final FrameSender sender;
+    private volatile SenderListener listener;
+    private ScheduledExecutorService scheduler;
+    // Incremented per benchmark started, so that ticks of an earlier one do nothing.
+    private int run;
+
+    /**
+     * @param sender
+     * @param listener May be null, see {@link #setSenderListener}.
+     */
+    public DataBenchmark(FrameSender sender, SenderListener listener) {
+        this.sender = sender;
+        this.listener = listener;
+    }
+
+    /**
+     * @param listener May be null, e.g. while there is no UI to show the outcome on.
+     */
+    public void setSenderListener(SenderListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Start streaming benchmark frames to a Peer, stopping any benchmark in progress.
+     *
+     * @param peerId
+     * @param payloadSize Size of each payload in bytes, from PAYLOAD_SIZE_MIN to PAYLOAD_SIZE_MAX.
+     * @param rateBps     Target rate of payload bytes per second.
+     * @param durationMs  How long to send for.
+     */
+    public synchronized void start(final String peerId, int payloadSize, final double rateBps,
+                                   final long durationMs) {
+        stop();
+        final int size = Math.max(PAYLOAD_SIZE_MIN, Math.min(PAYLOAD_SIZE_MAX, payloadSize));
+        final byte[] payload = new byte[size];
+        new Random().nextBytes(payload);
+
+        final int thisRun = ++run;
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            final long startMs = System.currentTimeMillis();
+            // Bytes that may be sent now to keep to the target rate.
+            double credit = size;
+            int seq = 0;
+
+            @Override
+            public void run() {
+                if (!isRun(thisRun)) {
+                    return;
+                }
+                long nowMs = System.currentTimeMillis();
+                boolean ok = true;
+                if (nowMs - startMs < durationMs) {
+                    credit += rateBps * TICK_MS / 1000;
+                    while (ok && credit >= size) {
+                        credit -= size;
+                        ByteBuffer.wrap(payload).putLong(0, System.currentTimeMillis());
+                        ok = sender.sendFrame(peerId,
+                                DataFrame.encode(DataFrame.TYPE_BENCHMARK, seq, payload));
+                        if (ok) {
+                            ++seq;
+                        }
+                    }
+                    if (ok) {
+                        return;
+                    }
+                }
+
+                byte[] end = new byte[END_PAYLOAD_LENGTH];
+                ByteBuffer.wrap(end).putInt(seq).putInt(size).putLong(System.currentTimeMillis());
+                sender.sendFrame(peerId, DataFrame.encode(DataFrame.TYPE_BENCHMARK_END, seq, end));
+                long elapsedMs = Math.max(1, nowMs - startMs);
+                String summary = String.format(Locale.US,
+                        "Benchmark sent to Peer %s: %d frames of %d bytes in %d ms " +
+                                "(%.1f KB/s, target %.1f KB/s).",
+                        peerId, seq, size, elapsedMs,
+                        (double) seq * size * 1000 / elapsedMs / 1024, rateBps / 1024);
+                Log.d(TAG, "[SA][Benchmark] " + summary);
+                if (!stop(thisRun)) {
+                    return;
+                }
+                SenderListener currentListener = listener;
+                if (currentListener != null) {
+                    currentListener.onBenchmarkSent(peerId, summary);
+                }
+            }
+        }, 0, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    private synchronized boolean isRun(int thisRun) {
+        return run == thisRun && scheduler != null;
+    }
+
+    /**
+     * Stop the benchmark if it is still the given run.
+     *
+     * @return false if another benchmark has been started or it was stopped since.
+     */
+    private synchronized boolean stop(int thisRun) {
+        if (!isRun(thisRun)) {
+            return false;
+        }
+        stop();
+        return true;
+    }
+
+    /**
+     * Receiving side of a benchmark from one Peer.
+     */
+    public static class Receiver {
+
+        private final BitSet seqsReceived = new BitSet();
+        private int framesReceived;
+        private int framesDuplicate;
+        private int framesReordered;
+        private int framesCorrupt;
+        private int maxSeq = -1;
+        private long bytesReceived;
+        private long firstMs = -1;
+        private long lastMs;
+        private int[] latenciesMs = new int[1024];
+        private int latencyCount;
+
+        /**
+         * Record a received benchmark frame.
+         *
+         * @param frame Of type {@link DataFrame#TYPE_BENCHMARK}.
+         * @param nowMs
+         */
+        public void onFrame(DataFrame frame, long nowMs) {
+            if (!frame.isPayloadValid() || frame.getPayloadLength() < TIME_LENGTH) {
+                ++framesCorrupt;
+                return;
+            }
+            int seq = frame.getSeq();
+            if (seq < 0 || seqsReceived.get(seq)) {
+                ++framesDuplicate;
+                return;
+            }
+            seqsReceived.set(seq);
+            if (seq < maxSeq) {
+                ++framesReordered;
+            } else {
+                maxSeq = seq;
+            }
+            ++framesReceived;
+            bytesReceived += frame.getPayloadLength();
+            if (firstMs < 0) {
+                firstMs = nowMs;
+            }
+            lastMs = nowMs;
+
+            long sentMs = frame.getPayload().getLong(0);
+            if (latencyCount == latenciesMs.length) {
+                latenciesMs = Arrays.copyOf(latenciesMs, latencyCount * 2);
+            }
+            latenciesMs[latencyCount++] = (int) Math.max(0, nowMs - sentMs);
+        }
+
+        /**
+         * Summarise the benchmark once its end frame has been received.
+         *
+         * @param endFrame Of type {@link DataFrame#TYPE_BENCHMARK_END}.
+         * @return A readable summary of the benchmark.
+         */
+        public String getSummary(DataFrame endFrame) {
+            int framesSent = maxSeq + 1;
+            int payloadSize = 0;
+            if (endFrame != null && endFrame.isPayloadValid() &&
+                    endFrame.getPayloadLength() >= END_PAYLOAD_LENGTH) {
+                ByteBuffer end = endFrame.getPayload();
+                framesSent = end.getInt(0);
+                payloadSize = end.getInt(4);
+            }
+            int framesLost = Math.max(0, framesSent - framesReceived);
+            long elapsedMs = Math.max(1, lastMs - firstMs);
+            int[] latencies = Arrays.copyOf(latenciesMs, latencyCount);
+            Arrays.sort(latencies);
+
+            return String.format(Locale.US,
+                    "Benchmark: %d bytes payloads.\n" +
+                            "Received %d of %d frames, lost %d (%.2f%%), " +
+                            "reordered %d, duplicate %d, corrupt %d.\n" +
+                            "Goodput %.1f KB/s over %d ms.\n" +
+                            "One way latency (ms) p50 %d, p95 %d, p99 %d, max %d.",
+                    payloadSize, framesReceived, framesSent, framesLost,
+                    framesSent == 0 ? 0.0 : framesLost * 100.0 / framesSent,
+                    framesReordered, framesDuplicate, framesCorrupt,
+                    bytesReceived * 1000.0 / elapsedMs / 1024, elapsedMs,
+                    percentile(latencies, 50), percentile(latencies, 95),
+                    percentile(latencies, 99), percentile(latencies, 100));
+        }
+
+        private static int percentile(int[] sorted, int percent) {
+            if (sorted.length == 0) {
+                return -1;
+            }
+            int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+}
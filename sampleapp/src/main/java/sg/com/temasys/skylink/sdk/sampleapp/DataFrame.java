@@ -0,0 +1,145 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Envelope for payloads sent with {@link sg.com.temasys.skylink.sdk.rtc.SkylinkConnection#sendData}.
+ * <p>
+ * Each frame is a fixed size header followed by the payload:
+ * magic (4 bytes), type (1 byte), sequence number (4 bytes), payload length (4 bytes) and
+ * CRC32 of the payload (4 bytes), all big endian.
+ * <p>
+ * A received frame can be classified by inspecting only its header, via {@link #wrap},
+ * which does not copy the data. The payload is checked with {@link #isPayloadValid()}.
+ */
+public class DataFrame {
+
+    // "SKDF", Skylink Data Frame.
+    public static final int MAGIC = 0x534B4446;
+    public static final int HEADER_LENGTH = 17;
+
+    // Frame types.
+    public static final byte TYPE_PRIVATE = 1;
+    public static final byte TYPE_GROUP = 2;
+    // See DataBenchmark.
+    public static final byte TYPE_BENCHMARK = 3;
+    public static final byte TYPE_BENCHMARK_END = 4;
+
+    private static final int OFFSET_TYPE = 4;
+    private static final int OFFSET_SEQ = 5;
+    private static final int OFFSET_LENGTH = 9;
+    private static final int OFFSET_CRC = 13;
+
+    private final ByteBuffer buffer;
+
+    private DataFrame(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Build a frame around a payload.
+     *
+     * @param type    One of the TYPE_ constants.
+     * @param seq     Sequence number.
+     * @param payload
+     * @return The frame to be sent.
+     */
+    public static byte[] encode(byte type, int seq, byte[] payload) {
+        return encode(type, seq, crc32(payload, 0, payload.length), payload);
+    }
+
+    /**
+     * Build a frame around a payload made of one or more parts, whose CRC32 is already known,
+     * e.g. a payload that is sent many times.
+     * The parts are copied one after another into the frame.
+     *
+     * @param type  One of the TYPE_ constants.
+     * @param seq   Sequence number.
+     * @param crc   CRC32 of the whole payload, as from {@link #crc32}.
+     * @param parts
+     * @return The frame to be sent.
+     */
+    public static byte[] encode(byte type, int seq, int crc, byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] frame = new byte[HEADER_LENGTH + length];
+        ByteBuffer buffer = ByteBuffer.wrap(frame)
+                .putInt(MAGIC)
+                .put(type)
+                .putInt(seq)
+                .putInt(length)
+                .putInt(crc);
+        for (byte[] part : parts) {
+            buffer.put(part);
+        }
+        return frame;
+    }
+
+    /**
+     * Wrap received data as a frame without copying it.
+     *
+     * @param data As received.
+     * @return The frame, or null if the data is not a frame.
+     */
+    public static DataFrame wrap(byte[] data) {
+        if (data == null || data.length < HEADER_LENGTH) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt(0) != MAGIC ||
+                buffer.getInt(OFFSET_LENGTH) != data.length - HEADER_LENGTH) {
+            return null;
+        }
+        return new DataFrame(buffer);
+    }
+
+    /**
+     * @param data
+     * @param offset
+     * @param length
+     * @return The CRC32 of the given bytes, as stored in a frame header.
+     */
+    public static int crc32(byte[] data, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, offset, length);
+        return (int) crc32.getValue();
+    }
+
+    public byte getType() {
+        return buffer.get(OFFSET_TYPE);
+    }
+
+    public int getSeq() {
+        return buffer.getInt(OFFSET_SEQ);
+    }
+
+    public int getPayloadLength() {
+        return buffer.getInt(OFFSET_LENGTH);
+    }
+
+    /**
+     * @return The CRC32 of the payload as given in the header.
+     */
+    public int getCrc() {
+        return buffer.getInt(OFFSET_CRC);
+    }
+
+    /**
+     * @return A read only view of the payload, without copying it.
+     */
+    public ByteBuffer getPayload() {
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(HEADER_LENGTH);
+        return payload.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return true if the payload matches the CRC32 in the header.
+     */
+    public boolean isPayloadValid() {
+        return crc32(buffer.array(), HEADER_LENGTH, getPayloadLength()) == getCrc();
+    }
+}
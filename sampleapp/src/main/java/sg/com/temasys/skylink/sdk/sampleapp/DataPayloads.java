@@ -0,0 +1,176 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * The payloads sent by {@link DataTransferFragment}, loaded once per process off the main thread
+ * and shared by all instances of the fragment.
+ * <p>
+ * The private payload is the icon raw resource.
+ * The group payload is two of the private payload, kept as a composite of two references to the
+ * same bytes instead of a copy, and only laid out contiguously when encoded into a frame.
+ * The bytes are never exposed, so the payloads are immutable once loaded.
+ */
+public class DataPayloads {
+
+    private static final String TAG = DataPayloads.class.getCanonicalName();
+
+    // Number of copies of the private payload in the group payload.
+    private static final int GROUP_PARTS = 2;
+
+    /**
+     * Receives the payloads once loaded, on the main thread.
+     */
+    public interface LoadListener {
+        /**
+         * @param payloads The loaded payloads, or null if they could not be loaded.
+         */
+        void onPayloadsLoaded(DataPayloads payloads);
+    }
+
+    private static volatile DataPayloads instance;
+    private static ExecutorService loader;
+    private static final List<LoadListener> pendingListeners = new ArrayList<LoadListener>();
+
+    private final byte[] dataPrivate;
+    private final byte[][] dataGroup;
+    private final int crcPrivate;
+    private final int crcGroup;
+
+    private DataPayloads(byte[] dataPrivate) {
+        this.dataPrivate = dataPrivate;
+        dataGroup = new byte[GROUP_PARTS][];
+        CRC32 crc32 = new CRC32();
+        for (int i = 0; i < GROUP_PARTS; ++i) {
+            dataGroup[i] = dataPrivate;
+            crc32.update(dataPrivate, 0, dataPrivate.length);
+        }
+        crcPrivate = DataFrame.crc32(dataPrivate, 0, dataPrivate.length);
+        crcGroup = (int) crc32.getValue();
+    }
+
+    /**
+     * @return The payloads if already loaded, else null.
+     */
+    public static DataPayloads get() {
+        return instance;
+    }
+
+    /**
+     * Get the payloads, loading them in the background if not yet loaded.
+     * Must be called on the main thread.
+     *
+     * @param context
+     * @param listener Called on the main thread, immediately if already loaded.
+     */
+    public static void load(Context context, LoadListener listener) {
+        DataPayloads payloads = instance;
+        if (payloads != null) {
+            listener.onPayloadsLoaded(payloads);
+            return;
+        }
+        pendingListeners.add(listener);
+        if (loader != null) {
+            return;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        loader = Executors.newSingleThreadExecutor();
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DataPayloads loaded = read(appContext);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        instance = loaded;
+                        loader.shutdown();
+                        loader = null;
+                        List<LoadListener> listeners =
+                                new ArrayList<LoadListener>(pendingListeners);
+                        pendingListeners.clear();
+                        for (LoadListener pending : listeners) {
+                            pending.onPayloadsLoaded(loaded);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    public int getPrivateLength() {
+        return dataPrivate.length;
+    }
+
+    public int getGroupLength() {
+        return dataPrivate.length * GROUP_PARTS;
+    }
+
+    public int getCrcPrivate() {
+        return crcPrivate;
+    }
+
+    public int getCrcGroup() {
+        return crcGroup;
+    }
+
+    /**
+     * @param seq
+     * @return A frame of type {@link DataFrame#TYPE_PRIVATE} with the private payload.
+     */
+    public byte[] encodePrivate(int seq) {
+        return DataFrame.encode(DataFrame.TYPE_PRIVATE, seq, crcPrivate, dataPrivate);
+    }
+
+    /**
+     * @param seq
+     * @return A frame of type {@link DataFrame#TYPE_GROUP} with the group payload.
+     */
+    public byte[] encodeGroup(int seq) {
+        return DataFrame.encode(DataFrame.TYPE_GROUP, seq, crcGroup, dataGroup);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Read the icon raw resource in chunks.
+     *
+     * @return The payloads, or null if the resource could not be read.
+     */
+    private static DataPayloads read(Context context) {
+        InputStream inputStream = context.getResources().openRawResource(R.raw.icon);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8 * 1024];
+            int count;
+            while ((count = inputStream.read(buffer)) >= 0) {
+                outputStream.write(buffer, 0, count);
+            }
+            return new DataPayloads(outputStream.toByteArray());
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                Log.e(TAG, e.getMessage(), e);
+            }
+        }
+    }
+}
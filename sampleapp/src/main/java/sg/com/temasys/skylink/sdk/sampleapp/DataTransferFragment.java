@@ -1,6 +1,8 @@
 package sg.com.temasys.skylink.sdk.sampleapp;
 
+import android.app.AlertDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.os.Bundle;
 import android.util.Log;
 import android.util.Pair;
@@ -8,15 +10,16 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
+import java.util.HashMap;
 
 import sg.com.temasys.skylink.sdk.listener.DataTransferListener;
 import sg.com.temasys.skylink.sdk.listener.LifeCycleListener;
@@ -48,23 +51,51 @@ public class DataTransferFragment extends MultiPartyFragment implements
     private static final String BUNDLE_IS_PEER_JOINED = "peerJoined";
     private static SkylinkConnection skylinkConnection;
     private static SkylinkConfig skylinkConfig;
-    private static byte[] dataPrivate;
-    private static byte[] dataGroup;
+    // Rejoins the room after an unexpected disconnect.
+    private ReconnectManager reconnectManager;
+    // Sequence number of the next frame sent.
+    private static int seqSent;
     private TextView tvRoomDetails;
     private TextView transferStatus;
     private Button btnSendDataRoom;
     private Button btnSendDataPeer;
+    private Button btnBenchmark;
     private boolean peerJoined;
 
+    // Streams benchmark frames to a Peer.
+    private static DataBenchmark dataBenchmark;
+    // Map with PeerId as key for the receiving side of a benchmark from that Peer.
+    private static HashMap<String, DataBenchmark.Receiver> benchmarkReceivers =
+            new HashMap<String, DataBenchmark.Receiver>();
+    // Payload size (KB), target rate (KB/s) and duration (s) of the last benchmark.
+    private static String benchmarkParams = "16,256,10";
+    // Shows the outcome of benchmarks sent on this fragment, while it is attached.
+    private final DataBenchmark.SenderListener benchmarkSenderListener =
+            new DataBenchmark.SenderListener() {
+                @Override
+                public void onBenchmarkSent(String peerId, String summary) {
+                    exportBenchmarkSummary("sent", summary);
+                }
+            };
+    // Receives benchmarks while this sample is not shown,
+    // and stops benchmarks once the session ends.
+    private static final DataSession dataSession = new DataSession();
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle
             savedInstanceState) {
 
         MY_USER_NAME = Config.USER_NAME_DATA;
         ROOM_NAME = Config.ROOM_NAME_DATA;
+        // Leave the room of another sample, if still in it.
+        SkylinkSessionManager.getInstance().endOther(getSessionKey());
 
         super.onCreateView(inflater, container, savedInstanceState);
         View rootView = inflater.inflate(R.layout.fragment_data_transfer, container, false);
+        // Show the outcome of a benchmark still running on this fragment, not an earlier one.
+        if (dataBenchmark != null) {
+            dataBenchmark.setSenderListener(benchmarkSenderListener);
+        }
 
         peerRadioGroup = (RadioGroup) rootView.findViewById(R.id.radio_grp_peers);
         peerAll = (RadioButton) rootView.findViewById(R.id.radio_btn_peer_all);
@@ -77,6 +108,7 @@ public class DataTransferFragment extends MultiPartyFragment implements
         transferStatus = (TextView) rootView.findViewById(R.id.txt_data_transfer_status);
         btnSendDataRoom = (Button) rootView.findViewById(R.id.btn_send_data_to_room);
         btnSendDataPeer = (Button) rootView.findViewById(R.id.btn_send_data_to_peer);
+        btnBenchmark = (Button) rootView.findViewById(R.id.btn_data_benchmark);
 
         // [MultiParty]
         // Initialise peerList if required.
@@ -99,19 +131,36 @@ public class DataTransferFragment extends MultiPartyFragment implements
                 // Set the appropriate UI if already connected.
                 onConnectUIChange();
             }
+        } else if (SkylinkSessionManager.getInstance().isLive(getSessionKey())) {
+            // Still in the room since this sample was last shown, so show the room as it is now.
+            skylinkConnection = SkylinkSessionManager.getInstance().getSkylinkConnection();
+            setListeners();
+            // [MultiParty]
+            popPeerList(skylinkConnection.getPeerIdList());
+            peerJoined = getPeerNum() > 0;
+            onConnectUIChange();
         } else {
             // [MultiParty]
             // Just set room details
             setRoomDetails();
         }
 
-        // Show info about data sizes that can be transferred.
-        getDataGroup();
-        transferStatus.setText(String.format(getString(R.string.data_transfer_status),
-                String.valueOf(dataPrivate.length), String.valueOf(dataGroup.length)));
+        // Prepare the data to be transferred in the background if not yet prepared,
+        // then show info about data sizes that can be transferred.
+        DataPayloads.load(context, new DataPayloads.LoadListener() {
+            @Override
+            public void onPayloadsLoaded(DataPayloads payloads) {
+                if (payloads == null || !isAdded()) {
+                    return;
+                }
+                transferStatus.setText(String.format(getString(R.string.data_transfer_status),
+                        String.valueOf(payloads.getPrivateLength()),
+                        String.valueOf(payloads.getGroupLength())));
+            }
+        });
 
         // Try to connect to room if not yet connected.
-        if (!isConnectingOrConnected()) {
+        if (!SkylinkSessionManager.getInstance().isLive(getSessionKey())) {
             connectToRoom();
         }
 
@@ -126,13 +175,20 @@ public class DataTransferFragment extends MultiPartyFragment implements
                             return;
                         }
 
+                        DataPayloads payloads = getPayloadsWithWarning();
+                        if (payloads == null) {
+                            return;
+                        }
+
                         try {
                             if (remotePeerId == null) {
-                                // Send dataGroup to all Peer(s)
-                                skylinkConnection.sendData(remotePeerId, dataGroup);
+                                // Send group data to all Peer(s)
+                                skylinkConnection.sendData(remotePeerId,
+                                        payloads.encodeGroup(seqSent++));
                             } else {
-                                // Send dataPrivate to specific Peer
-                                skylinkConnection.sendData(remotePeerId, dataPrivate);
+                                // Send private data to specific Peer
+                                skylinkConnection.sendData(remotePeerId,
+                                        payloads.encodePrivate(seqSent++));
                             }
                         } catch (SkylinkException e) {
                             String log = e.getMessage();
@@ -163,9 +219,14 @@ public class DataTransferFragment extends MultiPartyFragment implements
                             peerAll.setChecked(true);
                         }
 
-                        // Send dataGroup to all Peers
+                        DataPayloads payloads = getPayloadsWithWarning();
+                        if (payloads == null) {
+                            return;
+                        }
+
+                        // Send group data to all Peers
                         try {
-                            skylinkConnection.sendData(null, dataGroup);
+                            skylinkConnection.sendData(null, payloads.encodeGroup(seqSent++));
                         } catch (SkylinkException e) {
                             String log = e.getMessage();
                             toastLogLong(TAG, context, log);
@@ -178,6 +239,25 @@ public class DataTransferFragment extends MultiPartyFragment implements
 
         );
 
+        btnBenchmark.setOnClickListener(
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        String remotePeerId = getPeerIdSelectedWithWarning();
+                        // Do not allow button actions if there are no Peers in the room.
+                        if ("".equals(remotePeerId)) {
+                            return;
+                        }
+                        if (remotePeerId == null) {
+                            String log = "Please select a single Peer to benchmark.";
+                            toastLog(TAG, context, log);
+                            return;
+                        }
+                        showBenchmarkDialog(remotePeerId);
+                    }
+                }
+        );
+
         return rootView;
     }
 
@@ -206,21 +286,45 @@ public class DataTransferFragment extends MultiPartyFragment implements
     @Override
     public void onDetach() {
         super.onDetach();
-
-        // Close the room connection when this sample app is finished, so the streams can be closed.
-        // I.e. already isConnected() and not changing orientation.
-        if (!((MainActivity) context).isChangingConfigurations() && skylinkConnection != null
-                && isConnectingOrConnected()) {
-            skylinkConnection.disconnectFromRoom();
-            dataPrivate = null;
-            dataGroup = null;
+        // Stop rejoining the room, as this sample is no longer shown.
+        if (reconnectManager != null) {
+            reconnectManager.cancel();
+        }
+        // A benchmark still running is only logged, as this UI is going away.
+        if (dataBenchmark != null) {
+            dataBenchmark.setSenderListener(null);
         }
+
+        // Stay in the room, to be shown again without reconnecting.
+        // The session is ended when another sample starts one, or when the App is finished.
+        SkylinkSessionManager.getInstance().detach(this);
     }
 
     //----------------------------------------------------------------------------------------------
     // Skylink helper methods
     //----------------------------------------------------------------------------------------------
 
+    private ReconnectManager getReconnectManager() {
+        if (reconnectManager != null) {
+            return reconnectManager;
+        }
+
+        reconnectManager = new ReconnectManager(new ReconnectManager.Reconnector() {
+            @Override
+            public void prepare() {
+                // Have the config and connection string ready for the first attempt.
+                getSkylinkConfig();
+                CredentialCache.getInstance().get(ROOM_NAME, SkylinkConnection.DEFAULT_DURATION);
+            }
+
+            @Override
+            public boolean reconnect() {
+                return connectToRoom();
+            }
+        });
+        return reconnectManager;
+    }
+
     private SkylinkConfig getSkylinkConfig() {
         if (skylinkConfig != null) {
             return skylinkConfig;
@@ -238,7 +342,12 @@ public class DataTransferFragment extends MultiPartyFragment implements
         return skylinkConfig;
     }
 
-    private void connectToRoom() {
+    /**
+     * Connect to the room, initializing SkylinkConnection.
+     *
+     * @return false if unable to connect.
+     */
+    private boolean connectToRoom() {
         // Initialize the skylink connection
         initializeSkylinkConnection();
 
@@ -246,20 +355,23 @@ public class DataTransferFragment extends MultiPartyFragment implements
         // In production, the connection string should be generated by an external entity
         // (such as a secure App server that has the Skylink App Key secret), and sent to the App.
         // This is to avoid keeping the App Key secret within the application, for better security.
-        String skylinkConnectionString = Utils.getSkylinkConnectionString(
-                ROOM_NAME, new Date(), SkylinkConnection.DEFAULT_DURATION);
+        // Reuse a connection string signed earlier for this room, if still valid.
+        String skylinkConnectionString = CredentialCache.getInstance().get(
+                ROOM_NAME, SkylinkConnection.DEFAULT_DURATION);
 
         // The skylinkConnectionString should not be logged in production,
         // as it contains potentially sensitive information like the Skylink App Key ID.
 
-        skylinkConnection.connectToRoom(skylinkConnectionString, MY_USER_NAME);
+        return skylinkConnection.connectToRoom(skylinkConnectionString, MY_USER_NAME);
+    }
+
+    private String getSessionKey() {
+        return SkylinkSessionManager.getSessionKey(TAG, ROOM_NAME, MY_USER_NAME);
     }
 
     private void initializeSkylinkConnection() {
-        skylinkConnection = SkylinkConnection.getInstance();
-        //the app_key and app_secret is obtained from the temasys developer console.
-        skylinkConnection.init(Config.getAppKey(), getSkylinkConfig(),
-                context.getApplicationContext());
+        skylinkConnection = SkylinkSessionManager.getInstance().start(getSessionKey(),
+                getSkylinkConfig(), context, dataSession);
 
         //set listeners to receive callbacks when events are triggered
         setListeners();
@@ -274,10 +386,8 @@ public class DataTransferFragment extends MultiPartyFragment implements
      */
     private boolean setListeners() {
         if (skylinkConnection != null) {
-            skylinkConnection.setLifeCycleListener(this);
-            skylinkConnection.setRemotePeerListener(this);
-            skylinkConnection.setDataTransferListener(this);
-            return true;
+            // Receive callbacks of the session via the event bus, on the UI thread.
+            return SkylinkSessionManager.getInstance().attach(this);
         } else {
             return false;
         }
@@ -288,32 +398,186 @@ public class DataTransferFragment extends MultiPartyFragment implements
     //----------------------------------------------------------------------------------------------
 
     /**
-     * Set dataGroup to contain 2 of dataPrivate.
-     * Will get dataPrivate if dataGroup and dataPrivate are null.
+     * @return The data to be transferred, or null with a warning if not yet prepared.
+     */
+    private DataPayloads getPayloadsWithWarning() {
+        DataPayloads payloads = DataPayloads.get();
+        if (payloads == null) {
+            String log = "Data is still being prepared, please try again shortly.";
+            toastLog(TAG, context, log);
+        }
+        return payloads;
+    }
+
+    /**
+     * Ask for the benchmark parameters, then start streaming benchmark frames to a Peer.
+     *
+     * @param remotePeerId
+     */
+    private void showBenchmarkDialog(final String remotePeerId) {
+        AlertDialog.Builder benchmarkDialogBuilder = new AlertDialog.Builder(context);
+        benchmarkDialogBuilder.setTitle("Payload size (KB), target rate (KB/s), duration (s)");
+        final EditText paramsEdtTxt = new EditText(context);
+        paramsEdtTxt.setText(benchmarkParams);
+        benchmarkDialogBuilder.setView(paramsEdtTxt);
+        benchmarkDialogBuilder.setPositiveButton("Start",
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        startBenchmark(remotePeerId, paramsEdtTxt.getText().toString());
+                    }
+                });
+        benchmarkDialogBuilder.setNegativeButton("Cancel", null);
+        benchmarkDialogBuilder.show();
+    }
+
+    /**
+     * @param remotePeerId
+     * @param params       Payload size (KB), target rate (KB/s) and duration (s),
+     *                     separated by commas.
      */
-    private void getDataGroup() {
-        getDataPrivate();
-        if (dataGroup == null) {
-            int len = dataPrivate.length;
-            dataGroup = new byte[2 * len];
-            System.arraycopy(dataPrivate, 0, dataGroup, 0, len);
-            System.arraycopy(dataPrivate, 0, dataGroup, len, len);
+    private void startBenchmark(String remotePeerId, String params) {
+        int payloadKB;
+        double rateKBps;
+        long durationS;
+        try {
+            String[] values = params.split(",");
+            payloadKB = Integer.parseInt(values[0].trim());
+            rateKBps = Double.parseDouble(values[1].trim());
+            durationS = Long.parseLong(values[2].trim());
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            String log = "Invalid benchmark parameters: " + params;
+            toastLog(TAG, context, log);
+            return;
+        }
+        if (payloadKB < 1 || payloadKB > 1024 || rateKBps <= 0 || durationS <= 0) {
+            String log = "Benchmark payload size must be 1 to 1024 KB, " +
+                    "with a positive rate and duration.";
+            toastLog(TAG, context, log);
+            return;
         }
+        benchmarkParams = params;
+
+        if (dataBenchmark == null) {
+            dataBenchmark = newDataBenchmark();
+            dataBenchmark.setSenderListener(benchmarkSenderListener);
+        }
+        dataBenchmark.start(remotePeerId, payloadKB * 1024, rateKBps * 1024, durationS * 1000);
+        String log = "Benchmark started to Peer " + Utils.getPeerIdNick(remotePeerId) + ".";
+        toastLog(TAG, context, log);
     }
 
     /**
-     * Read an image to a byte array and put in dataPrivate
+     * @return A DataBenchmark sending via the SkylinkConnection of the session.
+     * Static, so that it does not hold on to the fragment that created it.
      */
-    private void getDataPrivate() {
-        if (dataPrivate == null) {
-            InputStream inputStream = context.getResources().openRawResource(R.raw.icon);
+    private static DataBenchmark newDataBenchmark() {
+        return new DataBenchmark(new DataBenchmark.FrameSender() {
+            @Override
+            public boolean sendFrame(String peerId, byte[] frame) {
+                try {
+                    skylinkConnection.sendData(peerId, frame);
+                    return true;
+                } catch (SkylinkException | UnsupportedOperationException e) {
+                    Log.e(TAG, "[SA][Benchmark] " + e.getMessage(), e);
+                    return false;
+                }
+            }
+        }, null);
+    }
+
+    /**
+     * Handle a benchmark frame.
+     *
+     * @param remotePeerId
+     * @param frame        Of type TYPE_BENCHMARK or TYPE_BENCHMARK_END.
+     */
+    private void onBenchmarkFrame(String remotePeerId, DataFrame frame) {
+        String summary = receiveBenchmarkFrame(remotePeerId, frame);
+        if (summary != null) {
+            exportBenchmarkSummary("received", summary);
+        }
+    }
+
+    /**
+     * Count a benchmark frame towards the benchmark from its Peer.
+     *
+     * @param remotePeerId
+     * @param frame        Of type TYPE_BENCHMARK or TYPE_BENCHMARK_END.
+     * @return The summary of the benchmark if it has ended, else null.
+     */
+    private static String receiveBenchmarkFrame(String remotePeerId, DataFrame frame) {
+        DataBenchmark.Receiver receiver = benchmarkReceivers.get(remotePeerId);
+        if (frame.getType() == DataFrame.TYPE_BENCHMARK) {
+            if (receiver == null) {
+                receiver = new DataBenchmark.Receiver();
+                benchmarkReceivers.put(remotePeerId, receiver);
+            }
+            receiver.onFrame(frame, System.currentTimeMillis());
+            return null;
+        }
+        if (receiver == null) {
+            receiver = new DataBenchmark.Receiver();
+        }
+        benchmarkReceivers.remove(remotePeerId);
+        return "From Peer " + Utils.getPeerIdNick(remotePeerId) + ":\n" +
+                receiver.getSummary(frame);
+    }
+
+    /**
+     * Write a benchmark summary to a file in the app's external files directory, and show it.
+     * May be called from any thread.
+     *
+     * @param side    "sent" or "received".
+     * @param summary
+     */
+    private void exportBenchmarkSummary(String side, final String summary) {
+        final Context context = this.context;
+        String log = summary;
+        File dir = context.getExternalFilesDir(null);
+        if (dir != null) {
+            File file = new File(dir, "benchmark_" + side + "_" +
+                    System.currentTimeMillis() + ".txt");
             try {
-                dataPrivate = new byte[inputStream.available()];
-                inputStream.read(dataPrivate);
-                inputStream.close();
+                FileWriter writer = new FileWriter(file);
+                try {
+                    writer.write(summary);
+                    writer.write("\n");
+                } finally {
+                    writer.close();
+                }
+                log += "\nSaved to " + file.getAbsolutePath();
             } catch (IOException e) {
-                Log.e(TAG, e.getMessage(), e);
+                Log.e(TAG, "[SA][Benchmark] Unable to save summary.", e);
+            }
+        }
+        final String toast = log;
+        ((MainActivity) context).runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                toastLogLong(TAG, context, toast);
             }
+        });
+    }
+
+    /**
+     * @param frame
+     * @return true if the frame header describes the private or group data.
+     */
+    private boolean isExpectedFrame(DataFrame frame) {
+        DataPayloads payloads = DataPayloads.get();
+        if (frame == null || payloads == null) {
+            return false;
+        }
+        switch (frame.getType()) {
+            case DataFrame.TYPE_PRIVATE:
+                return frame.getPayloadLength() == payloads.getPrivateLength() &&
+                        frame.getCrc() == payloads.getCrcPrivate();
+            case DataFrame.TYPE_GROUP:
+                return frame.getPayloadLength() == payloads.getGroupLength() &&
+                        frame.getCrc() == payloads.getCrcGroup();
+            default:
+                return false;
         }
     }
 
@@ -350,6 +614,7 @@ public class DataTransferFragment extends MultiPartyFragment implements
 
     @Override
     public void onConnect(boolean isSuccessful, String message) {
+        getReconnectManager().onConnect(isSuccessful);
         //Update textview if connection is successful
         if (isSuccessful) {
             String log = "Connected to room " + ROOM_NAME + " (" + skylinkConnection.getRoomId() +
@@ -380,6 +645,8 @@ public class DataTransferFragment extends MultiPartyFragment implements
         }
         log += " Server message: " + message;
         toastLogLong(TAG, context, log);
+        // Rejoin the room if the disconnect was unexpected.
+        getReconnectManager().onDisconnect(errorCode);
     }
 
     @Override
@@ -485,10 +752,17 @@ public class DataTransferFragment extends MultiPartyFragment implements
 
     @Override
     public void onDataReceive(String remotePeerId, byte[] data) {
-        // Check if it is one of the data that we can send.
-        if (Arrays.equals(data, this.dataPrivate) || Arrays.equals(data, this.dataGroup)) {
+        // Check if it is one of the data that we can send, from the frame header,
+        // and that the payload arrived intact.
+        DataFrame frame = DataFrame.wrap(data);
+        if (frame != null && (frame.getType() == DataFrame.TYPE_BENCHMARK ||
+                frame.getType() == DataFrame.TYPE_BENCHMARK_END)) {
+            onBenchmarkFrame(remotePeerId, frame);
+            return;
+        }
+        if (isExpectedFrame(frame) && frame.isPayloadValid()) {
             String log = String.format(getString(R.string.data_transfer_received_expected),
-                    String.valueOf(data.length));
+                    String.valueOf(frame.getPayloadLength()));
             toastLog(TAG, context, log);
         } else {
             // Received some unexpected data that could be from other apps
@@ -498,4 +772,35 @@ public class DataTransferFragment extends MultiPartyFragment implements
             toastLogLong(TAG, context, log);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Handles the data of the session while this sample is not shown,
+     * and stops benchmarks when the session ends.
+     */
+    private static class DataSession implements SkylinkSessionManager.SessionListener,
+            DataTransferListener {
+
+        @Override
+        public void onSessionEnd() {
+            if (dataBenchmark != null) {
+                dataBenchmark.stop();
+            }
+            benchmarkReceivers.clear();
+        }
+
+        /**
+         * Keep receiving benchmarks, logging their summary as there is no UI to show it.
+         */
+        @Override
+        public void onDataReceive(String remotePeerId, byte[] data) {
+            DataFrame frame = DataFrame.wrap(data);
+            if (frame != null && (frame.getType() == DataFrame.TYPE_BENCHMARK ||
+                    frame.getType() == DataFrame.TYPE_BENCHMARK_END)) {
+                String summary = receiveBenchmarkFrame(remotePeerId, frame);
+                if (summary != null) {
+                    Log.i(TAG, "[SA][Benchmark] Received:\n" + summary);
+                }
+            }
+        }
+    }
+}
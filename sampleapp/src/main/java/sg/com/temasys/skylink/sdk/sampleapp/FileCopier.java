@@ -0,0 +1,103 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Copies files in fixed size chunks through a single reusable buffer,
+ * so that copying a large file does not need heap memory in proportion to the file size.
+ * A CRC32 checksum of the bytes copied is computed on the fly.
+ * <p>
+ * An instance is not thread safe, as the buffer is shared by all copies made with it.
+ */
+public class FileCopier {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Receives progress of a copy, once per chunk.
+     */
+    public interface ProgressListener {
+        /**
+         * @param bytesCopied Bytes copied so far.
+         * @param bytesTotal  Total bytes to copy, or a negative number if not known.
+         */
+        void onProgress(long bytesCopied, long bytesTotal);
+    }
+
+    private final ByteBuffer buffer;
+    private final CRC32 crc32 = new CRC32();
+
+    public FileCopier() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize Size of each chunk copied in bytes.
+     */
+    public FileCopier(int bufferSize) {
+        // A heap buffer is used as its backing array is needed for the checksum.
+        buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Copy a stream into a file, replacing the file if it exists.
+     * The stream is closed after the copy.
+     *
+     * @param in         Stream to copy from.
+     * @param bytesTotal Size of the stream if known, else a negative number. Only for progress.
+     * @param fileCopy   File to copy into.
+     * @param listener   Progress listener, may be null.
+     * @return The CRC32 checksum of the bytes copied.
+     * @throws IOException
+     */
+    public long copy(InputStream in, long bytesTotal, File fileCopy, ProgressListener listener)
+            throws IOException {
+        ReadableByteChannel inChannel = Channels.newChannel(in);
+        try {
+            return copy(inChannel, bytesTotal, fileCopy, listener);
+        } finally {
+            inChannel.close();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    private long copy(ReadableByteChannel inChannel, long bytesTotal, File fileCopy,
+                      ProgressListener listener) throws IOException {
+        FileChannel outChannel = new FileOutputStream(fileCopy).getChannel();
+        try {
+            crc32.reset();
+            buffer.clear();
+            long bytesCopied = 0;
+            while (inChannel.read(buffer) >= 0) {
+                int length = buffer.position();
+                if (length == 0) {
+                    continue;
+                }
+                crc32.update(buffer.array(), 0, length);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    outChannel.write(buffer);
+                }
+                buffer.clear();
+                bytesCopied += length;
+                if (listener != null) {
+                    listener.onProgress(bytesCopied, bytesTotal);
+                }
+            }
+            return crc32.getValue();
+        } finally {
+            outChannel.close();
+        }
+    }
+}
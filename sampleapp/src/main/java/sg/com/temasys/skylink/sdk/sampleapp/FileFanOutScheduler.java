@@ -0,0 +1,341 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Sends a file to many Peers as separate per Peer transfers, with at most a fixed number of
+ * transfers in flight at any time.
+ * <p>
+ * Each Peer's transfer proceeds at its own pace, so a slow Peer does not hold back others.
+ * When a transfer completes or is dropped, its slot is given to the next queued Peer.
+ * Dropped transfers are queued again after a delay, doubled per drop without progress in
+ * between, to be resumed when a slot is free. A Peer that keeps dropping is given up on.
+ * A fan out cannot be started while the previous one is still sending.
+ * The sending rate of each Peer is estimated from its progress reports, to give the
+ * aggregate throughput and the ETA of each Peer.
+ * <p>
+ * All methods should be called on the UI thread, where the SDK callbacks are received.
+ */
+public class FileFanOutScheduler {
+
+    private static final String TAG = FileFanOutScheduler.class.getCanonicalName();
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+    public static final long RETRY_BASE_DELAY_MS = 1000;
+    public static final long RETRY_MAX_DELAY_MS = 30 * 1000;
+    // Number of drops without progress after which a Peer is given up on.
+    public static final int MAX_DROPS = 5;
+
+    // Weight of a new rate sample in the estimated rate.
+    private static final double RATE_WEIGHT = 0.3;
+
+    /**
+     * Starts or resumes the transfer of a file to a Peer.
+     */
+    public interface TransferStarter {
+        /**
+         * @return false if the transfer could not be started.
+         */
+        boolean startTransfer(String peerId, File file);
+    }
+
+    private final int maxInFlight;
+    private final TransferStarter starter;
+
+    private File file;
+    // All Peers of the current fan out, in the order they were queued.
+    private final Map<String, PeerProgress> peers = new LinkedHashMap<String, PeerProgress>();
+    private final ArrayDeque<String> queue = new ArrayDeque<String>();
+    private int inFlight;
+    // Queues dropped Peers again after their delay.
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * @param maxInFlight Maximum number of transfers in flight at any time.
+     * @param starter
+     */
+    public FileFanOutScheduler(int maxInFlight, TransferStarter starter) {
+        this.maxInFlight = maxInFlight;
+        this.starter = starter;
+    }
+
+    /**
+     * Start sending a file to the given Peers, replacing the previous fan out if it is done.
+     *
+     * @param file
+     * @param peerIds
+     * @return false if the previous fan out is still sending, so this was not started.
+     */
+    public boolean start(File file, String[] peerIds) {
+        if (isBusy()) {
+            return false;
+        }
+        cancel();
+        this.file = file;
+        for (String peerId : peerIds) {
+            peers.put(peerId, new PeerProgress(peerId, file.length()));
+            queue.add(peerId);
+        }
+        startQueued();
+        return true;
+    }
+
+    /**
+     * @return true if any Peer of the current fan out is not yet done or given up on.
+     */
+    public boolean isBusy() {
+        for (PeerProgress progress : peers.values()) {
+            if (!progress.done) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forget the current fan out, e.g. when the session ends.
+     * Transfers already in flight are not stopped.
+     */
+    public void cancel() {
+        for (PeerProgress progress : peers.values()) {
+            handler.removeCallbacks(progress.requeue);
+        }
+        peers.clear();
+        queue.clear();
+        inFlight = 0;
+    }
+
+    /**
+     * @param peerId
+     * @return true if the Peer is part of the current fan out and not yet done.
+     */
+    public boolean isSending(String peerId) {
+        PeerProgress progress = peers.get(peerId);
+        return progress != null && !progress.done;
+    }
+
+    /**
+     * Record the progress of a Peer's transfer.
+     *
+     * @param peerId
+     * @param bytesSent Total bytes of the file sent to the Peer so far.
+     * @param nowMs
+     */
+    public void onProgress(String peerId, long bytesSent, long nowMs) {
+        PeerProgress progress = peers.get(peerId);
+        if (progress == null || progress.done) {
+            return;
+        }
+        if (bytesSent > progress.bytesSent) {
+            // Making progress again after any drops.
+            progress.drops = 0;
+        }
+        progress.update(bytesSent, nowMs);
+    }
+
+    /**
+     * Call when the transfer to a Peer has completed.
+     *
+     * @param peerId
+     */
+    public void onComplete(String peerId) {
+        PeerProgress progress = peers.get(peerId);
+        if (progress == null || progress.done) {
+            return;
+        }
+        progress.done = true;
+        progress.bytesSent = progress.bytesTotal;
+        releaseSlot(progress);
+        startQueued();
+    }
+
+    /**
+     * Call when the transfer to a Peer was dropped.
+     * The Peer is queued again behind the other Peers after a delay, or given up on if it has
+     * dropped {@link #MAX_DROPS} times without progress.
+     *
+     * @param peerId
+     */
+    public void onDropped(String peerId) {
+        PeerProgress progress = peers.get(peerId);
+        if (progress == null || progress.done || !progress.active) {
+            return;
+        }
+        releaseSlot(progress);
+        progress.rateBps = Double.NaN;
+        progress.lastMs = -1;
+        ++progress.drops;
+        if (progress.drops >= MAX_DROPS) {
+            Log.d(TAG, "[SA][FanOut] Gave up on Peer " + peerId + " after " + progress.drops +
+                    " drops.");
+            progress.done = true;
+            progress.failed = true;
+        } else {
+            // Cap the shift, so that the delay cannot overflow.
+            long delayMs = Math.min(RETRY_MAX_DELAY_MS,
+                    RETRY_BASE_DELAY_MS << Math.min(progress.drops - 1, 20));
+            handler.postDelayed(progress.requeue, delayMs);
+        }
+        startQueued();
+    }
+
+    /**
+     * Remove a Peer from the fan out, e.g. when it leaves the room.
+     *
+     * @param peerId
+     */
+    public void removePeer(String peerId) {
+        PeerProgress progress = peers.remove(peerId);
+        if (progress == null) {
+            return;
+        }
+        handler.removeCallbacks(progress.requeue);
+        queue.remove(peerId);
+        releaseSlot(progress);
+        startQueued();
+    }
+
+    /**
+     * @return Sum of the estimated rates of transfers in flight, in MB/s.
+     */
+    public double getThroughputMBps() {
+        double total = 0;
+        for (PeerProgress progress : peers.values()) {
+            if (progress.active && !Double.isNaN(progress.rateBps)) {
+                total += progress.rateBps;
+            }
+        }
+        return total / (1024 * 1024);
+    }
+
+    /**
+     * @param peerId
+     * @return Estimated ms left to send to the Peer, 0 if done, or -1 if not known.
+     */
+    public long getEtaMs(String peerId) {
+        PeerProgress progress = peers.get(peerId);
+        if (progress == null) {
+            return -1;
+        }
+        if (progress.done) {
+            return 0;
+        }
+        if (!progress.active || Double.isNaN(progress.rateBps) || progress.rateBps <= 0) {
+            return -1;
+        }
+        return (long) ((progress.bytesTotal - progress.bytesSent) * 1000 / progress.rateBps);
+    }
+
+    /**
+     * @return A readable summary of the fan out, with throughput and each Peer's progress.
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder(String.format(Locale.US,
+                "Sending %s: %.2f MB/s", file == null ? "" : file.getName(),
+                getThroughputMBps()));
+        for (Map.Entry<String, PeerProgress> entry : peers.entrySet()) {
+            PeerProgress progress = entry.getValue();
+            summary.append("\n").append(Utils.getPeerIdNick(entry.getKey())).append(": ");
+            if (progress.failed) {
+                summary.append("failed");
+                continue;
+            }
+            if (progress.done) {
+                summary.append("done");
+                continue;
+            }
+            long percent = progress.bytesTotal == 0 ? 0 :
+                    progress.bytesSent * 100 / progress.bytesTotal;
+            summary.append(percent).append("%");
+            if (!progress.active) {
+                summary.append(", queued");
+                continue;
+            }
+            long etaMs = getEtaMs(entry.getKey());
+            if (etaMs >= 0) {
+                summary.append(", ETA ").append((etaMs + 999) / 1000).append("s");
+            }
+        }
+        return summary.toString();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    private void startQueued() {
+        while (inFlight < maxInFlight && !queue.isEmpty()) {
+            String peerId = queue.poll();
+            PeerProgress progress = peers.get(peerId);
+            if (progress == null || progress.done || progress.active) {
+                continue;
+            }
+            progress.active = true;
+            ++inFlight;
+            if (!starter.startTransfer(peerId, file)) {
+                // Leave it out of the fan out rather than retrying it forever.
+                releaseSlot(progress);
+                peers.remove(peerId);
+            }
+        }
+    }
+
+    private void releaseSlot(PeerProgress progress) {
+        if (progress.active) {
+            progress.active = false;
+            --inFlight;
+        }
+    }
+
+    /**
+     * Progress of the transfer to one Peer.
+     */
+    private class PeerProgress {
+        final long bytesTotal;
+        long bytesSent;
+        long lastMs = -1;
+        // Estimated rate in bytes per second.
+        double rateBps = Double.NaN;
+        boolean active;
+        // Done when sent or given up on.
+        boolean done;
+        boolean failed;
+        // Number of drops since the last progress.
+        int drops;
+
+        // Queues the Peer again after a drop.
+        final Runnable requeue;
+
+        PeerProgress(final String peerId, long bytesTotal) {
+            this.bytesTotal = bytesTotal;
+            requeue = new Runnable() {
+                @Override
+                public void run() {
+                    queue.add(peerId);
+                    startQueued();
+                }
+            };
+        }
+
+        void update(long bytesSentNew, long nowMs) {
+            if (lastMs >= 0 && nowMs > lastMs && bytesSentNew >= bytesSent) {
+                double rate = (bytesSentNew - bytesSent) * 1000.0 / (nowMs - lastMs);
+                if (Double.isNaN(rateBps)) {
+                    rateBps = rate;
+                } else {
+                    rateBps += RATE_WEIGHT * (rate - rateBps);
+                }
+            }
+            bytesSent = bytesSentNew;
+            lastMs = nowMs;
+        }
+    }
+}
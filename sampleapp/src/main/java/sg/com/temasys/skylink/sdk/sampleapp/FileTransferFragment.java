@@ -3,10 +3,14 @@ package sg.com.temasys.skylink.sdk.sampleapp;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
 import android.media.MediaScannerConnection;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.method.LinkMovementMethod;
 import android.util.Log;
 import android.util.Pair;
@@ -21,12 +25,11 @@ import android.widget.RadioGroup;
 import android.widget.TextView;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import sg.com.temasys.skylink.sdk.listener.FileTransferListener;
 import sg.com.temasys.skylink.sdk.listener.LifeCycleListener;
@@ -64,6 +67,8 @@ public class FileTransferFragment extends MultiPartyFragment
     private static final String BUNDLE_IS_PEER_JOINED = "peerJoined";
     private static SkylinkConnection skylinkConnection;
     private static SkylinkConfig skylinkConfig;
+    // Rejoins the room after an unexpected disconnect.
+    private ReconnectManager reconnectManager;
     private TextView tvRoomDetails;
     private EditText etSenderFilePath;
     private TextView tvFileTransferDetails;
@@ -72,8 +77,20 @@ public class FileTransferFragment extends MultiPartyFragment
     private Button sendFileGroup;
     private String fileNamePrivate = "FileTransferPrivate.png";
     private String fileNameGroup = "FileTransferGroup.png";
-    private String fileNameDownloaded = "downloadFile.png";
+    private static String fileNameDownloaded = "downloadFile.png";
     private boolean peerJoined;
+    // Copies the default files to transfer, off the UI thread.
+    private static final ExecutorService fileCopyExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Copies files in chunks through a reusable buffer. Only used on fileCopyExecutor.
+    private static final FileCopier fileCopier = new FileCopier();
+    // Sends private files in resumable chunks, and assembles chunks received.
+    private static ChunkedFileTransfer chunkedFileTransfer;
+    // Sends a file to all Peers as separate chunked transfers, a few Peers at a time.
+    private static FileFanOutScheduler fileFanOut;
+    // Keeps the transfers going while this sample is not shown,
+    // and releases them once the session ends.
+    private static final FileSession fileSession = new FileSession();
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
@@ -81,6 +98,8 @@ public class FileTransferFragment extends MultiPartyFragment
 
         ROOM_NAME = Config.ROOM_NAME_FILE;
         MY_USER_NAME = Config.USER_NAME_FILE;
+        // Leave the room of another sample, if still in it.
+        SkylinkSessionManager.getInstance().endOther(getSessionKey());
 
         View rootView = inflater.inflate(R.layout.fragment_file_transfer, container, false);
 
@@ -161,6 +180,8 @@ public class FileTransferFragment extends MultiPartyFragment
         // Prepare default file for transfer and set UI.
         prepFile(getFileToTransfer(fileNamePrivate).getAbsolutePath());
 
+        initializeChunkedFileTransfer();
+
         // [MultiParty]
         // Initialise peerList if required.
         if (peerList == null) {
@@ -185,6 +206,14 @@ public class FileTransferFragment extends MultiPartyFragment
                 // Set the appropriate UI if already connected.
                 onConnectUIChange();
             }
+        } else if (SkylinkSessionManager.getInstance().isLive(getSessionKey())) {
+            // Still in the room since this sample was last shown, so show the room as it is now.
+            skylinkConnection = SkylinkSessionManager.getInstance().getSkylinkConnection();
+            setListeners();
+            // [MultiParty]
+            popPeerList(skylinkConnection.getPeerIdList());
+            peerJoined = getPeerNum() > 0;
+            onConnectUIChange();
         } else {
             // This is the start of this sample, reset permission request states.
             permQReset();
@@ -198,7 +227,7 @@ public class FileTransferFragment extends MultiPartyFragment
         createExternalStoragePrivatePicture();
 
         // Try to connect to room if not yet connected.
-        if (!isConnectingOrConnected()) {
+        if (!SkylinkSessionManager.getInstance().isLive(getSessionKey())) {
             connectToRoom();
         }
 
@@ -266,32 +295,28 @@ public class FileTransferFragment extends MultiPartyFragment
         // Check if valid file
         String filePath = etSenderFilePath.getText().toString();
         File file = new File(filePath);
-        String fileName;
         if (file.isFile()) {
             ivFilePreview.setImageURI(Uri.parse(filePath));
-            fileName = file.getName();
         } else {
             String log = "Please enter a valid filename";
             toastLog(TAG, context, log);
             return;
         }
 
-        // Send request to peer requesting permission for file transfer
-        try {
-            skylinkConnection.sendFileTransferPermissionRequest(
-                    tid, fileName, file.getAbsolutePath());
-            String peer = "";
-            if (tid == null) {
-                peer = "all Peers in room";
-            } else {
-                peer = "Peer " + tid;
+        // Send files in chunks, so that the transfer can resume after a drop.
+        // To all Peers, send to each Peer separately, so that each can go at its own pace.
+        if (tid == null) {
+            String log = "Sending file to all Peers in room.";
+            if (!fileFanOut.start(file, getPeerIdList())) {
+                log = "Please wait until the file being sent to all Peers is sent.\n" +
+                        fileFanOut.getSummary();
             }
-            String log = "Sending file to " + peer + ".";
             toastLog(TAG, context, log);
-        } catch (SkylinkException e) {
-            String log = e.getMessage();
-            toastLogLong(TAG, context, log);
-            Log.e(TAG, log, e);
+            return;
+        }
+        if (chunkedFileTransfer.send(tid, file)) {
+            String log = "Sending file to Peer " + tid + ".";
+            toastLog(TAG, context, log);
         }
     }
 
@@ -321,13 +346,18 @@ public class FileTransferFragment extends MultiPartyFragment
     @Override
     public void onDetach() {
         super.onDetach();
+        // Stop rejoining the room, as this sample is no longer shown.
+        if (reconnectManager != null) {
+            reconnectManager.cancel();
+        }
 
-        // Close the room connection when this sample app is finished, so the streams can be closed.
-        // I.e. already isConnected() and not changing orientation.
-        if (!((MainActivity) context).isChangingConfigurations() && skylinkConnection != null
-                && isConnectingOrConnected()) {
-            skylinkConnection.disconnectFromRoom();
+        // Stay in the room, to be shown again without reconnecting.
+        // The session is ended when another sample starts one, or when the App is finished.
+        // Until then, the transfers are handled without updating this UI.
+        if (chunkedFileTransfer != null) {
+            chunkedFileTransfer.setTransferListener(fileSession);
         }
+        SkylinkSessionManager.getInstance().detach(this);
     }
 
     @Override
@@ -341,6 +371,27 @@ public class FileTransferFragment extends MultiPartyFragment
     // Skylink helper methods
     //----------------------------------------------------------------------------------------------
 
+    private ReconnectManager getReconnectManager() {
+        if (reconnectManager != null) {
+            return reconnectManager;
+        }
+
+        reconnectManager = new ReconnectManager(new ReconnectManager.Reconnector() {
+            @Override
+            public void prepare() {
+                // Have the config and connection string ready for the first attempt.
+                getSkylinkConfig();
+                CredentialCache.getInstance().get(ROOM_NAME, SkylinkConnection.DEFAULT_DURATION);
+            }
+
+            @Override
+            public boolean reconnect() {
+                return connectToRoom();
+            }
+        });
+        return reconnectManager;
+    }
+
     private SkylinkConfig getSkylinkConfig() {
         if (skylinkConfig != null) {
             return skylinkConfig;
@@ -358,7 +409,12 @@ public class FileTransferFragment extends MultiPartyFragment
         return skylinkConfig;
     }
 
-    private void connectToRoom() {
+    /**
+     * Connect to the room, initializing SkylinkConnection.
+     *
+     * @return false if unable to connect.
+     */
+    private boolean connectToRoom() {
         // Initialize the skylink connection
         initializeSkylinkConnection();
 
@@ -366,20 +422,23 @@ public class FileTransferFragment extends MultiPartyFragment
         // In production, the connection string should be generated by an external entity
         // (such as a secure App server that has the Skylink App Key secret), and sent to the App.
         // This is to avoid keeping the App Key secret within the application, for better security.
-        String skylinkConnectionString = Utils.getSkylinkConnectionString(
-                ROOM_NAME, new Date(), SkylinkConnection.DEFAULT_DURATION);
+        // Reuse a connection string signed earlier for this room, if still valid.
+        String skylinkConnectionString = CredentialCache.getInstance().get(
+                ROOM_NAME, SkylinkConnection.DEFAULT_DURATION);
 
         // The skylinkConnectionString should not be logged in production,
         // as it contains potentially sensitive information like the Skylink App Key ID.
 
-        skylinkConnection.connectToRoom(skylinkConnectionString, MY_USER_NAME);
+        return skylinkConnection.connectToRoom(skylinkConnectionString, MY_USER_NAME);
+    }
+
+    private String getSessionKey() {
+        return SkylinkSessionManager.getSessionKey(TAG, ROOM_NAME, MY_USER_NAME);
     }
 
     private void initializeSkylinkConnection() {
-        skylinkConnection = SkylinkConnection.getInstance();
-        //the app_key and app_secret is obtained from the temasys developer console.
-        skylinkConnection.init(Config.getAppKey(), getSkylinkConfig(),
-                context.getApplicationContext());
+        skylinkConnection = SkylinkSessionManager.getInstance().start(getSessionKey(),
+                getSkylinkConfig(), context, fileSession);
 
         //set listeners to receive callbacks when events are triggered
         setListeners();
@@ -394,11 +453,8 @@ public class FileTransferFragment extends MultiPartyFragment
      */
     private boolean setListeners() {
         if (skylinkConnection != null) {
-            skylinkConnection.setLifeCycleListener(this);
-            skylinkConnection.setRemotePeerListener(this);
-            skylinkConnection.setOsListener(this);
-            skylinkConnection.setFileTransferListener(this);
-            return true;
+            // Receive callbacks of the session via the event bus, on the UI thread.
+            return SkylinkSessionManager.getInstance().attach(this);
         } else {
             return false;
         }
@@ -408,6 +464,73 @@ public class FileTransferFragment extends MultiPartyFragment
     // UI helper methods
     //----------------------------------------------------------------------------------------------
 
+    /**
+     * Create the {@link ChunkedFileTransfer} if not yet created,
+     * and set its listener to update this UI.
+     */
+    private void initializeChunkedFileTransfer() {
+        if (chunkedFileTransfer == null) {
+            File workDir = new File(context.getCacheDir(), "FileTransferChunks");
+            chunkedFileTransfer = new ChunkedFileTransfer(workDir,
+                    ChunkedFileTransfer.DEFAULT_CHUNK_SIZE,
+                    new ChunkedFileTransfer.ChunkSender() {
+                        @Override
+                        public boolean sendChunk(String peerId, String chunkName,
+                                                 File chunkFile) {
+                            if (skylinkConnection == null) {
+                                return false;
+                            }
+                            try {
+                                skylinkConnection.sendFileTransferPermissionRequest(
+                                        peerId, chunkName, chunkFile.getAbsolutePath());
+                                return true;
+                            } catch (SkylinkException e) {
+                                Log.e(TAG, "[SA][ChunkedFT] " + e.getMessage(), e);
+                                return false;
+                            }
+                        }
+                    });
+        }
+        if (fileFanOut == null) {
+            fileFanOut = new FileFanOutScheduler(FileFanOutScheduler.DEFAULT_MAX_IN_FLIGHT,
+                    new FileFanOutScheduler.TransferStarter() {
+                        @Override
+                        public boolean startTransfer(String peerId, File file) {
+                            return chunkedFileTransfer.send(peerId, file);
+                        }
+                    });
+        }
+        chunkedFileTransfer.setTransferListener(new ChunkedFileTransfer.TransferListener() {
+            @Override
+            public void onChunkSent(String peerId, String fileName, int chunksAcked,
+                                    int chunkCount) {
+                String log = "Uploading... " + chunksAcked + "/" + chunkCount + " chunks";
+                if (fileFanOut.isSending(peerId)) {
+                    log = fileFanOut.getSummary();
+                }
+                toastLog(TAG, context, log);
+            }
+
+            @Override
+            public void onSendComplete(String peerId, String fileName) {
+                String log = "Your file has been sent";
+                if (fileFanOut.isSending(peerId)) {
+                    fileFanOut.onComplete(peerId);
+                    log = fileFanOut.getSummary();
+                }
+                toastLog(TAG, context, log);
+            }
+
+            @Override
+            public void onReceiveComplete(String peerId, String fileName, File file) {
+                String log = "A file has been received : " + fileName;
+                toastLog(TAG, context, log);
+                tvFileTransferDetails
+                        .setText("File Transfer Successful\n\nDestination : " + file);
+            }
+        });
+    }
+
     /**
      * Creates a dummy file from the apk's asset folder to the device's filepath so that there is a
      * default file to transfer
@@ -421,36 +544,67 @@ public class FileTransferFragment extends MultiPartyFragment
         // your media for display to the user.
 
         // Files to be created on device...
-        File fileCopy1 = getFileToTransfer(fileNamePrivate);
-        File fileCopy2 = getFileToTransfer(fileNameGroup);
+        final File fileCopy1 = getFileToTransfer(fileNamePrivate);
+        final File fileCopy2 = getFileToTransfer(fileNameGroup);
 
         // ...copied from resource files here:
-        int fileIn1 = R.raw.icon;
-        int fileIn2 = R.raw.icon_group;
+        final int fileIn1 = R.raw.icon;
+        final int fileIn2 = R.raw.icon_group;
+
+        // Copy resource files into files on Device's directory, off the UI thread.
+        final Resources resources = getResources();
+        final Context appContext = context.getApplicationContext();
+        fileCopyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                copyFile(resources, appContext, fileIn1, fileCopy1);
+                copyFile(resources, appContext, fileIn2, fileCopy2);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFilesCopied(fileCopy1, fileCopy2);
+                    }
+                });
+            }
+        });
+    }
 
-        // Copy resource files into files on Device's directory.
-        copyFile(fileIn1, fileCopy1);
-        copyFile(fileIn2, fileCopy2);
+    /**
+     * Show the preview of the file to transfer again if it is one of the files just copied,
+     * as it may not have existed when first shown.
+     */
+    private void onFilesCopied(File... filesCopied) {
+        if (!isAdded() || etSenderFilePath == null) {
+            return;
+        }
+        String filePath = etSenderFilePath.getText().toString();
+        for (File file : filesCopied) {
+            if (file.getAbsolutePath().equals(filePath)) {
+                prepFile(filePath);
+                return;
+            }
+        }
     }
 
     /**
-     * @param fileIn   File to be copied as a resource id.
+     * Must be called on fileCopyExecutor, as it uses fileCopier.
+     *
+     * @param resources
+     * @param context
+     * @param fileIn    File to be copied as a resource id.
      * @param fileCopy
      */
-    private void copyFile(int fileIn, File fileCopy) {
+    private static void copyFile(Resources resources, Context context, int fileIn,
+                                 File fileCopy) {
         try {
-            // Very simple code to copy a picture from the application's
-            // resource into the external file.  Note that this code does
-            // no error checking, and assumes the picture is small (does not
-            // try to copy it in chunks).  Note that if external storage is
-            // not currently mounted this will silently fail.
-            InputStream is = getResources().openRawResource(fileIn);
-            OutputStream os = new FileOutputStream(fileCopy);
-            byte[] data = new byte[is.available()];
-            is.read(data);
-            os.write(data);
-            is.close();
-            os.close();
+            // Copy the resource into the external file in chunks, so that large resources
+            // do not have to fit in memory.  Note that if external storage is
+            // not currently mounted this will fail with an IOException.
+            long bytesTotal = getRawResourceLength(resources, fileIn);
+            InputStream is = resources.openRawResource(fileIn);
+            long checksum = fileCopier.copy(is, bytesTotal, fileCopy, null);
+            Log.d(EXTERNAL_STORAGE, "Copied " + fileCopy + " (" + fileCopy.length() +
+                    " bytes, CRC32:" + Long.toHexString(checksum) + ").");
 
             // Tell the media scanner about the new file so that it is
             // immediately available to the user.
@@ -469,6 +623,25 @@ public class FileTransferFragment extends MultiPartyFragment
         }
     }
 
+    /**
+     * @param resources
+     * @param resId     Raw resource id.
+     * @return Length of the raw resource in bytes, or -1 if not known, e.g. if it is compressed.
+     */
+    private static long getRawResourceLength(Resources resources, int resId) {
+        try {
+            AssetFileDescriptor afd = resources.openRawResourceFd(resId);
+            if (afd == null) {
+                return -1;
+            }
+            long length = afd.getLength();
+            afd.close();
+            return length;
+        } catch (Resources.NotFoundException | IOException e) {
+            return -1;
+        }
+    }
+
     //----------------------------------------------------------------------------------------------
     // UI helper methods
     //----------------------------------------------------------------------------------------------
@@ -520,6 +693,7 @@ public class FileTransferFragment extends MultiPartyFragment
 
     @Override
     public void onConnect(boolean isSuccessful, String message) {
+        getReconnectManager().onConnect(isSuccessful);
         //Update textview if connection is successful
         if (isSuccessful) {
             String log = "Connected to room " + ROOM_NAME + " (" + skylinkConnection.getRoomId() +
@@ -550,6 +724,8 @@ public class FileTransferFragment extends MultiPartyFragment
         }
         log += " Server message: " + message;
         toastLogLong(TAG, context, log);
+        // Rejoin the room if the disconnect was unexpected.
+        getReconnectManager().onDisconnect(errorCode);
     }
 
     @Override
@@ -578,13 +754,8 @@ public class FileTransferFragment extends MultiPartyFragment
     public void onFileTransferPermissionRequest(String peerId, String fileName, boolean isPrivate) {
         String log = "Received a file request";
         toastLogLong(TAG, context, log);
-        // Take note of download file name.
-        if (!"".equals(fileName)) {
-            fileNameDownloaded = fileName;
-        }
-        //Send false to reject file transfer
         try {
-            skylinkConnection.sendFileTransferPermissionResponse(peerId, getDownloadedFilePath(), true);
+            respondToFileRequest(peerId, fileName);
         } catch (SkylinkException e) {
             log = e.getMessage();
             toastLogLong(TAG, context, log);
@@ -597,6 +768,9 @@ public class FileTransferFragment extends MultiPartyFragment
         if (isPermitted) {
             String log = "Sending file";
             toastLog(TAG, context, log);
+        } else if (chunkedFileTransfer.onSendDeclined(peerId, fileName)) {
+            // The Peer already has this chunk, the next one has been sent.
+            Log.d(TAG, "[SA][ChunkedFT] Peer " + peerId + " already has " + fileName + ".");
         } else {
             String log = "Sorry, the remote peer has not granted permission for file transfer";
             toastLog(TAG, context, log);
@@ -606,11 +780,19 @@ public class FileTransferFragment extends MultiPartyFragment
     public void onFileTransferDrop(String remotePeerId, String fileName, String message,
                                    boolean isExplicit) {
         String log = "The file transfer was dropped.\nReason : " + message;
+        if (chunkedFileTransfer.onSendDrop(remotePeerId, fileName)) {
+            log += "\nIt will resume from the last chunk sent when the connection is refreshed.";
+            // Give its slot to the next Peer, it will resume when a slot is free again.
+            fileFanOut.onDropped(remotePeerId);
+        }
         toastLogLong(TAG, context, log);
     }
 
     @Override
     public void onFileSendComplete(String remotePeerId, String fileName) {
+        if (chunkedFileTransfer.onSendComplete(remotePeerId, fileName)) {
+            return;
+        }
         String log = "Your file has been sent";
         toastLog(TAG, context, log);
     }
@@ -618,11 +800,21 @@ public class FileTransferFragment extends MultiPartyFragment
     @Override
     public void onFileSendProgress(String remotePeerId, String fileName, double percentage) {
         String log = "Uploading... " + percentage;
+        if (fileFanOut.isSending(remotePeerId)) {
+            long bytesSent = chunkedFileTransfer.getBytesSent(remotePeerId, fileName, percentage);
+            if (bytesSent >= 0) {
+                fileFanOut.onProgress(remotePeerId, bytesSent, System.currentTimeMillis());
+                log = fileFanOut.getSummary();
+            }
+        }
         toastLog(TAG, context, log);
     }
 
     @Override
     public void onFileReceiveComplete(String remotePeerId, String fileName) {
+        if (chunkedFileTransfer.onReceiveComplete(remotePeerId, fileName)) {
+            return;
+        }
         String log = "A file has been received : " + fileName;
         toastLog(TAG, context, log);
         tvFileTransferDetails
@@ -684,6 +876,8 @@ public class FileTransferFragment extends MultiPartyFragment
         // [MultiParty]
         // Remove the Peer.
         removePeerRadioBtn(remotePeerId);
+        chunkedFileTransfer.removePeer(remotePeerId);
+        fileFanOut.removePeer(remotePeerId);
 
         //Set room status if there are no more peers.
         if (peerList.size() == 0) {
@@ -710,6 +904,11 @@ public class FileTransferFragment extends MultiPartyFragment
         } else {
             log += ".\r\n";
         }
+        // Resume any chunked transfers to the Peer from the first missing chunk.
+        // Transfers of a fan out are resumed by the fan out when a slot is free.
+        if (remotePeerId != null && !fileFanOut.isSending(remotePeerId)) {
+            chunkedFileTransfer.resume(remotePeerId);
+        }
 
         toastLog(TAG, context, log);
     }
@@ -740,12 +939,159 @@ public class FileTransferFragment extends MultiPartyFragment
         return new File(path, fileName);
     }
 
+    /**
+     * Respond to a request to send a file, or a chunk of one.
+     *
+     * @param peerId
+     * @param fileName
+     * @throws SkylinkException If unable to respond.
+     */
+    private static void respondToFileRequest(String peerId, String fileName)
+            throws SkylinkException {
+        // Take note of download file name.
+        if (!"".equals(fileName)) {
+            fileNameDownloaded = ChunkedFileTransfer.getFileName(fileName);
+        }
+        // Chunks are saved separately, and assembled into the download file once all arrive.
+        // Decline chunks already received, e.g. before a rejoin, so that the sender skips them.
+        File fileOut = new File(getDownloadedFilePath());
+        boolean isPermitted = !chunkedFileTransfer.isReceived(peerId, fileName, fileOut);
+        String filePath = chunkedFileTransfer.onReceiveRequest(peerId, fileName, fileOut);
+        if (filePath == null) {
+            filePath = getDownloadedFilePath();
+        }
+        //Send false to reject file transfer
+        skylinkConnection.sendFileTransferPermissionResponse(peerId, filePath, isPermitted);
+    }
+
     /**
      * @return Location to save the downloaded file on the file system
      */
-    private String getDownloadedFilePath() {
+    private static String getDownloadedFilePath() {
         File path = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
         return path.getAbsolutePath() + File.separator + fileNameDownloaded;
     }
 
-}
\ No newline at end of file
+
+    /**
+     * Handles the file transfers of the session while this sample is not shown,
+     * and releases them when the session ends.
+     */
+    private static class FileSession implements SkylinkSessionManager.SessionListener,
+            FileTransferListener, RemotePeerListener, ChunkedFileTransfer.TransferListener {
+
+        @Override
+        public void onSessionEnd() {
+            // Transfers cannot continue without the session. Chunks received are kept on disk,
+            // to be resumed in a later session.
+            if (chunkedFileTransfer != null) {
+                chunkedFileTransfer.setTransferListener(null);
+            }
+            if (fileFanOut != null) {
+                fileFanOut.cancel();
+            }
+            chunkedFileTransfer = null;
+            fileFanOut = null;
+        }
+
+        @Override
+        public void onFileTransferPermissionRequest(String peerId, String fileName,
+                                                    boolean isPrivate) {
+            try {
+                respondToFileRequest(peerId, fileName);
+            } catch (SkylinkException e) {
+                Log.e(TAG, "[SA][FileSession] " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void onFileTransferPermissionResponse(String peerId, String fileName,
+                                                     boolean isPermitted) {
+            if (!isPermitted) {
+                chunkedFileTransfer.onSendDeclined(peerId, fileName);
+            }
+        }
+
+        @Override
+        public void onFileTransferDrop(String remotePeerId, String fileName, String message,
+                                       boolean isExplicit) {
+            if (chunkedFileTransfer.onSendDrop(remotePeerId, fileName)) {
+                fileFanOut.onDropped(remotePeerId);
+            }
+        }
+
+        @Override
+        public void onFileSendComplete(String remotePeerId, String fileName) {
+            chunkedFileTransfer.onSendComplete(remotePeerId, fileName);
+        }
+
+        @Override
+        public void onFileReceiveComplete(String remotePeerId, String fileName) {
+            chunkedFileTransfer.onReceiveComplete(remotePeerId, fileName);
+        }
+
+        @Override
+        public void onFileSendProgress(String remotePeerId, String fileName,
+                                       double percentage) {
+            if (fileFanOut.isSending(remotePeerId)) {
+                long bytesSent =
+                        chunkedFileTransfer.getBytesSent(remotePeerId, fileName, percentage);
+                if (bytesSent >= 0) {
+                    fileFanOut.onProgress(remotePeerId, bytesSent, System.currentTimeMillis());
+                }
+            }
+        }
+
+        @Override
+        public void onFileReceiveProgress(String remotePeerId, String fileName,
+                                          double percentage) {
+        }
+
+        @Override
+        public void onRemotePeerJoin(String remotePeerId, Object userData,
+                                     boolean hasDataChannel) {
+        }
+
+        @Override
+        public void onRemotePeerConnectionRefreshed(String remotePeerId, Object userData,
+                                                    boolean hasDataChannel,
+                                                    boolean wasIceRestarted) {
+            if (remotePeerId != null && !fileFanOut.isSending(remotePeerId)) {
+                chunkedFileTransfer.resume(remotePeerId);
+            }
+        }
+
+        @Override
+        public void onRemotePeerUserDataReceive(String remotePeerId, Object userData) {
+        }
+
+        @Override
+        public void onOpenDataConnection(String remotePeerId) {
+        }
+
+        @Override
+        public void onRemotePeerLeave(String remotePeerId, String message, UserInfo userInfo) {
+            chunkedFileTransfer.removePeer(remotePeerId);
+            fileFanOut.removePeer(remotePeerId);
+        }
+
+        @Override
+        public void onChunkSent(String peerId, String fileName, int chunksAcked,
+                                int chunkCount) {
+        }
+
+        @Override
+        public void onSendComplete(String peerId, String fileName) {
+            if (fileFanOut.isSending(peerId)) {
+                fileFanOut.onComplete(peerId);
+            }
+            Log.d(TAG, "[SA][FileSession] Sent " + fileName + " to Peer " + peerId + ".");
+        }
+
+        @Override
+        public void onReceiveComplete(String peerId, String fileName, File file) {
+            Log.d(TAG, "[SA][FileSession] Received " + fileName + " from Peer " + peerId +
+                    " to " + file + ".");
+        }
+    }
+}
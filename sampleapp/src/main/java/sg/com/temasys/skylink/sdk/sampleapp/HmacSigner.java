@@ -0,0 +1,63 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.util.Base64;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Computes RFC 2104 HMAC signatures with a fixed key.
+ * <p>
+ * A Mac is not thread safe and is costly to look up and initialise, so each thread gets its own,
+ * initialised with the key once and reused for every signature made on that thread.
+ */
+public class HmacSigner {
+
+    private final String key;
+    private final String algorithm;
+    private final ThreadLocal<Mac> mac;
+
+    /**
+     * @param key       The signing key.
+     * @param algorithm E.g. "HmacSHA1".
+     */
+    public HmacSigner(String key, String algorithm) {
+        this.key = key;
+        this.algorithm = algorithm;
+        final SecretKeySpec signingKey = new SecretKeySpec(key.getBytes(), algorithm);
+        mac = new ThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() {
+                try {
+                    Mac mac = Mac.getInstance(signingKey.getAlgorithm());
+                    mac.init(signingKey);
+                    return mac;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("Unable to initialise " +
+                            signingKey.getAlgorithm() + "!", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param key
+     * @param algorithm
+     * @return true if this signer signs with the given key and algorithm.
+     */
+    public boolean hasKey(String key, String algorithm) {
+        return this.key.equals(key) && this.algorithm.equals(algorithm);
+    }
+
+    /**
+     * @param data The data to be signed.
+     * @return The Base64 encoded signature, without line breaks.
+     */
+    public String sign(String data) {
+        // doFinal also resets the Mac for the next signature.
+        byte[] rawHmac = mac.get().doFinal(data.getBytes());
+        return Base64.encodeToString(rawHmac, Base64.NO_WRAP);
+    }
+}
@@ -1,6 +1,10 @@
 package sg.com.temasys.skylink.sdk.sampleapp;
 
+import android.app.AlertDialog;
 import android.os.Bundle;
+import android.os.Trace;
+import android.view.View;
+import android.view.ViewTreeObserver;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.fragment.app.Fragment;
@@ -48,8 +52,12 @@ public class MainActivity extends AppCompatActivity
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        Trace.beginSection("MainActivity.onCreate");
         super.onCreate(savedInstanceState);
+        // Load selected App key details in the background, while the UI is set up.
+        Config.loadAsync(this);
         setContentView(R.layout.activity_main);
+        traceFirstFrame();
 
         mNavigationDrawerFragment = (NavigationDrawerFragment)
                 getSupportFragmentManager().findFragmentById(R.id.navigation_drawer);
@@ -59,9 +67,26 @@ public class MainActivity extends AppCompatActivity
                 R.id.navigation_drawer,
                 (DrawerLayout) findViewById(R.id.drawer_layout));
 
-        // Load selected App key details
-        Config.loadSelectedAppKey(this);
-        Config.loadRoomUserNames(this);
+        // Fragments use the room and user names once created, after this returns.
+        Config.awaitRoomUserNames();
+        StartupTrace.mark(StartupTrace.ACTIVITY_CREATE);
+        Trace.endSection();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Write Config values still pending, as the App may be killed once in the background.
+        Config.flushPrefs();
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Leave the room of the sample last shown, as the App is finished.
+        if (isFinishing()) {
+            SkylinkSessionManager.getInstance().end();
+        }
+        super.onDestroy();
     }
 
     @Override
@@ -135,6 +160,15 @@ public class MainActivity extends AppCompatActivity
                     + "\n" + "Sample application version: " + BuildConfig.VERSION_NAME;
             toastLogLong(TAG, this, log);
             return true;
+        } else if (id == R.id.action_event_metrics) {
+            new AlertDialog.Builder(this)
+                    .setTitle(R.string.action_event_metrics)
+                    .setMessage(SkylinkEventBus.getInstance().getMetricsSummary() + "\n" +
+                            ReconnectManager.getMetricsSummary() + "\n" +
+                            StartupTrace.getSummary())
+                    .setPositiveButton("OK", null)
+                    .show();
+            return true;
         } else if (id == R.id.action_configuration) {
             // update the main content by replacing fragments
             FragmentManager fragmentManager = getSupportFragmentManager();
@@ -188,4 +222,40 @@ public class MainActivity extends AppCompatActivity
 
         return fragmentToLaunch;
     }
+
+    /**
+     * Record the {@link StartupTrace} milestones of the first frame being drawn,
+     * and of the first fragment in the container being ready for interaction.
+     */
+    private void traceFirstFrame() {
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        StartupTrace.mark(StartupTrace.FIRST_FRAME);
+                        return true;
+                    }
+                });
+
+        getSupportFragmentManager().registerFragmentLifecycleCallbacks(
+                new FragmentManager.FragmentLifecycleCallbacks() {
+                    @Override
+                    public void onFragmentResumed(FragmentManager fm, Fragment f) {
+                        if (f.getId() != R.id.container || f.getView() == null) {
+                            return;
+                        }
+                        fm.unregisterFragmentLifecycleCallbacks(this);
+                        // Posted to run after the fragment's first layout.
+                        f.getView().post(new Runnable() {
+                            @Override
+                            public void run() {
+                                StartupTrace.mark(StartupTrace.FIRST_FRAGMENT_INTERACTIVE);
+                                reportFullyDrawn();
+                            }
+                        });
+                    }
+                }, false);
+    }
 }
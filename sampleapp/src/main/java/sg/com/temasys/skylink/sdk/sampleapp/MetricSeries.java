@@ -0,0 +1,271 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+/**
+ * Fixed capacity ring buffer time series of a single metric, with rolling aggregates over
+ * a few time windows.
+ * <p>
+ * Samples are kept in primitive arrays, so memory use does not grow with the length of a call.
+ * For each window, the mean is kept as a running sum, min and max are kept with monotonic
+ * queues, and the 95th percentile is estimated from a fixed size log scaled histogram.
+ * Adding a sample is amortised O(1), and reading any aggregate is O(1)
+ * (p95 scans a constant number of histogram buckets).
+ * <p>
+ * A window contains the samples whose timestamps are within the window length of the time
+ * given to the query, up to the capacity of the series.
+ */
+public class MetricSeries {
+
+    // Histogram resolution: buckets per doubling of the value (about 9% per bucket).
+    private static final int BUCKETS_PER_OCTAVE = 8;
+    // Enough buckets to cover values up to about 2^24.
+    private static final int BUCKET_COUNT = 1 + 24 * BUCKETS_PER_OCTAVE;
+    private static final double LN_2 = Math.log(2);
+
+    private final int capacity;
+    private final long[] timestamps;
+    private final double[] values;
+    // Sequence number of the next sample to be added.
+    private long head;
+    private final Window[] windows;
+
+    /**
+     * @param capacity  Maximum number of samples kept.
+     * @param windowsMs Length of each window in ms, referred to by their index in queries.
+     */
+    public MetricSeries(int capacity, long... windowsMs) {
+        this.capacity = capacity;
+        timestamps = new long[capacity];
+        values = new double[capacity];
+        windows = new Window[windowsMs.length];
+        for (int i = 0; i < windowsMs.length; ++i) {
+            windows[i] = new Window(windowsMs[i]);
+        }
+    }
+
+    /**
+     * Add a sample. Samples should be added in order of time.
+     * NaN values are ignored.
+     *
+     * @param timestampMs
+     * @param value
+     */
+    public synchronized void add(long timestampMs, double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        // The slot to be written may still be in a window, if so, evict it first.
+        if (head >= capacity) {
+            for (Window window : windows) {
+                window.evictUpTo(head - capacity);
+            }
+        }
+        int index = index(head);
+        timestamps[index] = timestampMs;
+        values[index] = value;
+        long seq = head++;
+        for (Window window : windows) {
+            window.add(seq);
+            window.expire(timestampMs);
+        }
+    }
+
+    /**
+     * @return Total number of samples added since creation or {@link #clear()}.
+     */
+    public synchronized long getTotalCount() {
+        return head;
+    }
+
+    /**
+     * @return The latest value, or NaN if there is none.
+     */
+    public synchronized double getLast() {
+        if (head == 0) {
+            return Double.NaN;
+        }
+        return values[index(head - 1)];
+    }
+
+    public synchronized int getCount(int window, long nowMs) {
+        Window w = windows[window];
+        w.expire(nowMs);
+        return w.count;
+    }
+
+    /**
+     * @return The minimum value within the window, or NaN if there are no samples.
+     */
+    public synchronized double getMin(int window, long nowMs) {
+        Window w = windows[window];
+        w.expire(nowMs);
+        if (w.count == 0) {
+            return Double.NaN;
+        }
+        return values[index(w.minQueue[w.minHead])];
+    }
+
+    /**
+     * @return The maximum value within the window, or NaN if there are no samples.
+     */
+    public synchronized double getMax(int window, long nowMs) {
+        Window w = windows[window];
+        w.expire(nowMs);
+        if (w.count == 0) {
+            return Double.NaN;
+        }
+        return values[index(w.maxQueue[w.maxHead])];
+    }
+
+    /**
+     * @return The mean value within the window, or NaN if there are no samples.
+     */
+    public synchronized double getMean(int window, long nowMs) {
+        Window w = windows[window];
+        w.expire(nowMs);
+        if (w.count == 0) {
+            return Double.NaN;
+        }
+        return w.sum / w.count;
+    }
+
+    /**
+     * Estimate of the 95th percentile value within the window, accurate to about one histogram
+     * bucket (about 9%), and always within the window's min and max.
+     *
+     * @return The estimated p95 value, or NaN if there are no samples.
+     */
+    public synchronized double getP95(int window, long nowMs) {
+        Window w = windows[window];
+        w.expire(nowMs);
+        if (w.count == 0) {
+            return Double.NaN;
+        }
+        int rank = (int) Math.ceil(0.95 * w.count);
+        int seen = 0;
+        double estimate = Double.NaN;
+        for (int bucket = 0; bucket < BUCKET_COUNT; ++bucket) {
+            seen += w.histogram[bucket];
+            if (seen >= rank) {
+                estimate = bucketUpperBound(bucket);
+                break;
+            }
+        }
+        double min = values[index(w.minQueue[w.minHead])];
+        double max = values[index(w.maxQueue[w.maxHead])];
+        return Math.max(min, Math.min(max, estimate));
+    }
+
+    /**
+     * Remove all samples.
+     */
+    public synchronized void clear() {
+        head = 0;
+        for (int i = 0; i < windows.length; ++i) {
+            windows[i] = new Window(windows[i].lengthMs);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    private int index(long seq) {
+        return (int) (seq % capacity);
+    }
+
+    private static int bucket(double value) {
+        if (value <= 0) {
+            return 0;
+        }
+        int bucket = 1 + (int) (Math.log1p(value) / LN_2 * BUCKETS_PER_OCTAVE);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    private static double bucketUpperBound(int bucket) {
+        if (bucket == 0) {
+            return 0;
+        }
+        return Math.expm1((double) bucket / BUCKETS_PER_OCTAVE * LN_2);
+    }
+
+    /**
+     * Aggregates of the samples within a time window.
+     * Samples in the window are those with sequence numbers from start to head - 1.
+     */
+    private class Window {
+        final long lengthMs;
+        long start;
+        int count;
+        double sum;
+        final int[] histogram = new int[BUCKET_COUNT];
+
+        // Monotonic queues of sample sequence numbers, as ring buffers.
+        final long[] minQueue = new long[capacity];
+        int minHead;
+        int minSize;
+        final long[] maxQueue = new long[capacity];
+        int maxHead;
+        int maxSize;
+
+        Window(long lengthMs) {
+            this.lengthMs = lengthMs;
+        }
+
+        void add(long seq) {
+            double value = values[index(seq)];
+            sum += value;
+            ++count;
+            ++histogram[bucket(value)];
+
+            // Drop queued samples that can no longer be the min or max.
+            while (minSize > 0 &&
+                    values[index(minQueue[(minHead + minSize - 1) % capacity])] >= value) {
+                --minSize;
+            }
+            minQueue[(minHead + minSize) % capacity] = seq;
+            ++minSize;
+
+            while (maxSize > 0 &&
+                    values[index(maxQueue[(maxHead + maxSize - 1) % capacity])] <= value) {
+                --maxSize;
+            }
+            maxQueue[(maxHead + maxSize) % capacity] = seq;
+            ++maxSize;
+        }
+
+        /**
+         * Evict samples that are older than the window length relative to nowMs.
+         */
+        void expire(long nowMs) {
+            long oldestMs = nowMs - lengthMs;
+            while (start < head && timestamps[index(start)] <= oldestMs) {
+                evictOldest();
+            }
+        }
+
+        /**
+         * Evict samples with sequence numbers up to and including the given one.
+         */
+        void evictUpTo(long seq) {
+            while (start < head && start <= seq) {
+                evictOldest();
+            }
+        }
+
+        private void evictOldest() {
+            double value = values[index(start)];
+            --count;
+            sum = count == 0 ? 0 : sum - value;
+            --histogram[bucket(value)];
+            if (minSize > 0 && minQueue[minHead] == start) {
+                minHead = (minHead + 1) % capacity;
+                --minSize;
+            }
+            if (maxSize > 0 && maxQueue[maxHead] == start) {
+                maxHead = (maxHead + 1) % capacity;
+                --maxSize;
+            }
+            ++start;
+        }
+    }
+}
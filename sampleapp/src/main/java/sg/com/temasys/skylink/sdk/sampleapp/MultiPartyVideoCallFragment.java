@@ -23,9 +23,7 @@ import android.widget.TextView;
 import org.webrtc.SurfaceViewRenderer;
 
 import java.util.Arrays;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import sg.com.temasys.skylink.sdk.listener.LifeCycleListener;
@@ -70,6 +68,8 @@ public class MultiPartyVideoCallFragment extends Fragment implements
      */
     private static SkylinkConnection skylinkConnection;
     private static SkylinkConfig skylinkConfig;
+    // Rejoins the room after an unexpected disconnect.
+    private ReconnectManager reconnectManager;
     // Indicates if camera should be toggled after returning to app.
     // Generally, it should match whether it was toggled when moving away from app.
     // For e.g., if camera was already off, then it would not be toggled when moving away from app,
@@ -87,12 +87,21 @@ public class MultiPartyVideoCallFragment extends Fragment implements
     private static ConcurrentHashMap<String, Boolean> isGettingWebrtcStats =
             new ConcurrentHashMap<String, Boolean>();
 
+    // Requests stats on a single shared thread for all Peers flagged in isGettingWebrtcStats.
+    private StatsCollector statsCollector;
+    // Parses received WebRTC stats into pooled typed records.
+    private final WebrtcStatsParser webrtcStatsParser = new WebrtcStatsParser();
+    // Bounded time series of call quality metrics per Peer, kept across rotation.
+    private static CallQualityMonitor callQualityMonitor = new CallQualityMonitor();
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
 
         ROOM_NAME = Config.ROOM_NAME_PARTY;
         MY_USER_NAME = Config.USER_NAME_PARTY;
+        // Leave the room of another sample, if still in it.
+        SkylinkSessionManager.getInstance().endOther(getSessionKey());
 
         View rootView = inflater.inflate(R.layout.fragment_video_multiparty, container, false);
 
@@ -180,11 +189,19 @@ public class MultiPartyVideoCallFragment extends Fragment implements
         // Add all existing VideoViews to UI
         addViews();
 
+        // Start collecting stats for any Peer that still has stats on, e.g. after rotation.
+        startStatsCollector();
+
         return rootView;
     }
 
 
-    private void connectToRoom() {
+    /**
+     * Connect to the room, initializing SkylinkConnection.
+     *
+     * @return false if unable to connect.
+     */
+    private boolean connectToRoom() {
         // Initialize the skylink connection
         initializeSkylinkConnection();
 
@@ -192,8 +209,9 @@ public class MultiPartyVideoCallFragment extends Fragment implements
         // In production, the connection string should be generated by an external entity
         // (such as a secure App server that has the Skylink App Key secret), and sent to the App.
         // This is to avoid keeping the App Key secret within the application, for better security.
-        String skylinkConnectionString = Utils.getSkylinkConnectionString(
-                ROOM_NAME, new Date(), SkylinkConnection.DEFAULT_DURATION);
+        // Reuse a connection string signed earlier for this room, if still valid.
+        String skylinkConnectionString = CredentialCache.getInstance().get(
+                ROOM_NAME, SkylinkConnection.DEFAULT_DURATION);
 
         // The skylinkConnectionString should not be logged in production,
         // as it contains potentially sensitive information like the Skylink App Key ID.
@@ -204,11 +222,12 @@ public class MultiPartyVideoCallFragment extends Fragment implements
             String log = "Unable to connect to Room! Rotate device to try again later.";
             toastLogLong(TAG, context, log);
             Log.e(TAG, log);
-            return;
+            return false;
         }
 
         // Initialize and use the Audio router to switch between headphone and headset
         AudioRouter.startAudioRouting(context);
+        return true;
     }
 
     @Override
@@ -262,6 +281,14 @@ public class MultiPartyVideoCallFragment extends Fragment implements
     @Override
     public void onDetach() {
         super.onDetach();
+        // Stop rejoining the room, as this sample is no longer shown.
+        if (reconnectManager != null) {
+            reconnectManager.cancel();
+        }
+        // Stop requesting stats.
+        if (statsCollector != null) {
+            statsCollector.shutdown();
+        }
         // Remove all views from layouts.
         emptyLayout();
         // Close the room connection when this sample app is finished, so the streams can be closed.
@@ -284,6 +311,27 @@ public class MultiPartyVideoCallFragment extends Fragment implements
     // Skylink helper methods
     //----------------------------------------------------------------------------------------------
 
+    private ReconnectManager getReconnectManager() {
+        if (reconnectManager != null) {
+            return reconnectManager;
+        }
+
+        reconnectManager = new ReconnectManager(new ReconnectManager.Reconnector() {
+            @Override
+            public void prepare() {
+                // Have the config and connection string ready for the first attempt.
+                getSkylinkConfig();
+                CredentialCache.getInstance().get(ROOM_NAME, SkylinkConnection.DEFAULT_DURATION);
+            }
+
+            @Override
+            public boolean reconnect() {
+                return connectToRoom();
+            }
+        });
+        return reconnectManager;
+    }
+
     private SkylinkConfig getSkylinkConfig() {
         if (skylinkConfig != null) {
             return skylinkConfig;
@@ -306,11 +354,13 @@ public class MultiPartyVideoCallFragment extends Fragment implements
         return skylinkConfig;
     }
 
+    private String getSessionKey() {
+        return SkylinkSessionManager.getSessionKey(TAG, ROOM_NAME, MY_USER_NAME);
+    }
+
     private void initializeSkylinkConnection() {
-        skylinkConnection = SkylinkConnection.getInstance();
-        //the app_key and app_secret is obtained from the temasys developer console.
-        skylinkConnection.init(Config.getAppKey(), getSkylinkConfig(),
-                context.getApplicationContext());
+        skylinkConnection = SkylinkSessionManager.getInstance().start(getSessionKey(),
+                getSkylinkConfig(), context, null);
         // Set listeners to receive callbacks when events are triggered
         setListeners();
     }
@@ -324,12 +374,8 @@ public class MultiPartyVideoCallFragment extends Fragment implements
      */
     private boolean setListeners() {
         if (skylinkConnection != null) {
-            skylinkConnection.setLifeCycleListener(this);
-            skylinkConnection.setMediaListener(this);
-            skylinkConnection.setOsListener(this);
-            skylinkConnection.setRecordingListener(this);
-            skylinkConnection.setRemotePeerListener(this);
-            skylinkConnection.setStatsListener(this);
+            // Receive callbacks of the session via the event bus, on the UI thread.
+            SkylinkSessionManager.getInstance().attach(this);
             return true;
         } else {
             return false;
@@ -413,7 +459,8 @@ public class MultiPartyVideoCallFragment extends Fragment implements
             gettingStats = true;
         }
         isGettingWebrtcStats.put(peerId, gettingStats);
-        getWStatsAll(peerId);
+        // The StatsCollector will pick up the new state on its next tick.
+        startStatsCollector();
     }
 
     /**
@@ -427,41 +474,35 @@ public class MultiPartyVideoCallFragment extends Fragment implements
     }
 
     /**
-     * Trigger getWebrtcStats for specific Peer in a loop if current state allows.
-     * To stop loop, set {@link #isGettingWebrtcStats} to false.
+     * Show a summary of the call quality metrics recorded for a Peer over the last minute.
      *
      * @param peerId
      */
-    private void getWStatsAll(final String peerId) {
-        Boolean gettingStats = isGettingWebrtcStats.get(peerId);
-        if (gettingStats == null) {
-            String log = "[SA][WStatsAll] Peer " + peerId +
-                    " does not exist. Will not get WebRTC stats.";
-            Log.e(TAG, log);
-            return;
-        }
-
-        if (gettingStats) {
-            // Request to get WebRTC stats.
-            skylinkConnection.getWebrtcStats(peerId, Info.MEDIA_DIRECTION_BOTH, Info.MEDIA_ALL);
-
-            // Wait for waitMs ms before requesting WebRTC stats again.
-            final int waitMs = 1000;
-            new Thread(new Runnable() {
-                public void run() {
-                    try {
-                        Thread.sleep(waitMs);
-                    } catch (InterruptedException e) {
-                        String error =
-                                "[SA][WStatsAll] Error while waiting to call for WebRTC stats again: " +
-                                        e.getMessage();
-                        Log.e(TAG, error);
-                    }
-                    getWStatsAll(peerId);
-                }
-            }).start();
+    private void showCallQuality(String peerId) {
+        String log = callQualityMonitor.getSummary(peerId, CallQualityMonitor.WINDOW_60S);
+        toastLogLong(TAG, context, log);
+    }
 
+    /**
+     * Start the {@link StatsCollector} that requests WebRTC stats and transfer speeds
+     * for all Peers that are flagged in {@link #isGettingWebrtcStats}.
+     */
+    private void startStatsCollector() {
+        if (statsCollector == null) {
+            statsCollector = new StatsCollector(isGettingWebrtcStats,
+                    new StatsCollector.StatsRequester() {
+                        @Override
+                        public void requestStats(String peerId) {
+                            if (skylinkConnection == null) {
+                                return;
+                            }
+                            skylinkConnection.getWebrtcStats(
+                                    peerId, Info.MEDIA_DIRECTION_BOTH, Info.MEDIA_ALL);
+                            getTransferSpeedAll(peerId);
+                        }
+                    });
         }
+        statsCollector.start();
     }
 
 
@@ -563,6 +604,11 @@ public class MultiPartyVideoCallFragment extends Fragment implements
         removePeerView(peerId);
         peerList[index] = null;
         isGettingWebrtcStats.remove(peerId);
+        if (statsCollector != null) {
+            statsCollector.removePeer(peerId);
+        }
+        webrtcStatsParser.removePeer(peerId);
+        callQualityMonitor.removePeer(peerId);
         shiftUpRemotePeers();
     }
 
@@ -725,6 +771,12 @@ public class MultiPartyVideoCallFragment extends Fragment implements
                                         }
                                         getTransferSpeedAll(peerId);
                                         return true;
+                                    case R.id.call_quality:
+                                        if (peerId == null) {
+                                            return false;
+                                        }
+                                        showCallQuality(peerId);
+                                        return true;
                                     case R.id.recording_start:
                                         return startRecording();
                                     case R.id.recording_stop:
@@ -775,6 +827,7 @@ public class MultiPartyVideoCallFragment extends Fragment implements
                     }
                     popupMenu.getMenu().add(0, R.id.webrtc_stats, 0, statsStr);
                     popupMenu.getMenu().add(0, R.id.transfer_speed, 0, R.string.transfer_speed);
+                    popupMenu.getMenu().add(0, R.id.call_quality, 0, R.string.call_quality);
                 }
                 popupMenu.getMenu().add(0, R.id.recording_start, 0, R.string.recording_start);
                 popupMenu.getMenu().add(0, R.id.recording_stop, 0, R.string.recording_stop);
@@ -802,6 +855,7 @@ public class MultiPartyVideoCallFragment extends Fragment implements
 
     @Override
     public void onConnect(boolean isSuccessful, String message) {
+        getReconnectManager().onConnect(isSuccessful);
         if (isSuccessful) {
             String log = "Connected to room " + ROOM_NAME + " (" + skylinkConnection.getRoomId() +
                     ") as " + skylinkConnection.getPeerId() + " (" + MY_USER_NAME + ").";
@@ -824,6 +878,10 @@ public class MultiPartyVideoCallFragment extends Fragment implements
         }
         log += " Server message: " + message;
         toastLogLong(TAG, context, log);
+        // Discard call quality metrics of this session.
+        callQualityMonitor.clear();
+        // Rejoin the room if the disconnect was unexpected.
+        getReconnectManager().onDisconnect(errorCode);
     }
 
     @Override
@@ -1070,13 +1128,16 @@ public class MultiPartyVideoCallFragment extends Fragment implements
 
     @Override
     public void onWebrtcStatsReceived(final String peerId, int mediaDirection, int mediaType, HashMap<String, String> stats) {
-        // Log the WebRTC stats.
-        StringBuilder log =
-                new StringBuilder("[SA][WStatsRecv] Received for Peer " + peerId + ":\r\n");
-        for (Map.Entry<String, String> entry : stats.entrySet()) {
-            log.append(entry.getKey()).append(": ").append(entry.getValue()).append(".\r\n");
+        // Allow the next stats request for this Peer.
+        if (statsCollector != null) {
+            statsCollector.onStatsReceived(peerId);
         }
-        Log.d(TAG, log.toString());
+        // Parse the WebRTC stats into a typed record, and log it.
+        WebrtcStats webrtcStats =
+                webrtcStatsParser.parse(peerId, mediaDirection, mediaType, stats);
+        Log.d(TAG, "[SA][WStatsRecv] Received for " + webrtcStats);
+        callQualityMonitor.onWebrtcStats(webrtcStats);
+        webrtcStatsParser.recycle(webrtcStats);
     }
 
     @Override
@@ -1089,5 +1150,6 @@ public class MultiPartyVideoCallFragment extends Fragment implements
         String log = "[SA][TransSpeed] Transfer speed for Peer " + peerId + ": " +
                 Info.getInfoString(mediaType) + " " + direction + " = " + transferSpeed + " kbps";
         Log.d(TAG, log);
+        callQualityMonitor.onTransferSpeed(peerId, mediaDirection, mediaType, transferSpeed);
     }
 }
\ No newline at end of file
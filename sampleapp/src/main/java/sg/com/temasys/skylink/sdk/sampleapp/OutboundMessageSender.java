@@ -0,0 +1,301 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import sg.com.temasys.skylink.sdk.rtc.SkylinkException;
+
+/**
+ * Sends chat messages off the UI thread, coalescing messages to the same destination.
+ * <p>
+ * Messages queued within a short window of the first pending message for a destination
+ * are packed into one envelope, up to a size limit, and sent in a single call.
+ * A lone message is sent as is, as a String. An envelope is sent as a JSONObject with type
+ * {@link #ENVELOPE_TYPE} and the array of messages, which {@link #unpack} turns back into the
+ * messages. As text is always a String, text that looks like an envelope is never unpacked.
+ * <p>
+ * A send that fails with a {@link SkylinkException} is retried with exponential backoff,
+ * holding back later messages to the same destination to keep them in order.
+ */
+public class OutboundMessageSender {
+
+    private static final String TAG = OutboundMessageSender.class.getCanonicalName();
+
+    public static final String ENVELOPE_TYPE = "SA-MB";
+    public static final long DEFAULT_WINDOW_MS = 50;
+    public static final int DEFAULT_MAX_ENVELOPE_LENGTH = 4096;
+
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_MESSAGES = "messages";
+    // Length of an envelope without messages, i.e. {"type":"SA-MB","messages":[]}.
+    private static final int ENVELOPE_OVERHEAD =
+            KEY_TYPE.length() + ENVELOPE_TYPE.length() + KEY_MESSAGES.length() + 13;
+
+    private static final long BACKOFF_INITIAL_MS = 200;
+    private static final long BACKOFF_MAX_MS = 5000;
+    private static final int MAX_ATTEMPTS = 5;
+
+    /**
+     * Sends a message, e.g. via SkylinkConnection#sendServerMessage or #sendP2PMessage.
+     */
+    public interface Transport {
+        /**
+         * @param message A String, or a JSONObject envelope.
+         */
+        void sendMessage(String remotePeerId, boolean isP2P, Object message)
+                throws SkylinkException;
+    }
+
+    /**
+     * Receives messages that could not be sent after all retries, on the sending thread.
+     */
+    public interface FailureListener {
+        void onSendFailed(String remotePeerId, boolean isP2P, List<String> messages);
+    }
+
+    private final Transport transport;
+    private volatile FailureListener listener;
+    private final long windowMs;
+    private final int maxEnvelopeLength;
+    private final ScheduledThreadPoolExecutor executor;
+    // Only accessed on the executor.
+    private final Map<String, Destination> destinations = new HashMap<String, Destination>();
+    private boolean closed;
+
+    public OutboundMessageSender(Transport transport, FailureListener listener) {
+        this(transport, listener, DEFAULT_WINDOW_MS, DEFAULT_MAX_ENVELOPE_LENGTH);
+    }
+
+    /**
+     * @param transport
+     * @param listener          May be null, see {@link #setFailureListener}.
+     * @param windowMs          How long to wait for more messages before sending.
+     * @param maxEnvelopeLength Maximum length of an envelope, in chars.
+     */
+    public OutboundMessageSender(Transport transport, FailureListener listener, long windowMs,
+                                 int maxEnvelopeLength) {
+        this.transport = transport;
+        this.listener = listener;
+        this.windowMs = windowMs;
+        this.maxEnvelopeLength = maxEnvelopeLength;
+        executor = new ScheduledThreadPoolExecutor(1);
+        // On close, pending messages are sent at once, so flushes and retries are not waited for.
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Queue a message to be sent. Does not block.
+     *
+     * @param remotePeerId Null to send to all Peers in the room.
+     * @param isP2P        Send via the DataChannel rather than via the signalling server.
+     * @param message
+     */
+    public void send(final String remotePeerId, final boolean isP2P, final String message) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (closed) {
+                    return;
+                }
+                String key = (isP2P ? "P2P:" : "SIG:") + remotePeerId;
+                Destination destination = destinations.get(key);
+                if (destination == null) {
+                    destination = new Destination(remotePeerId, isP2P);
+                    destinations.put(key, destination);
+                }
+                destination.add(message);
+            }
+        });
+    }
+
+    /**
+     * Set the receiver of messages that could not be sent, e.g. when the view showing them
+     * changes.
+     *
+     * @param listener May be null.
+     */
+    public void setFailureListener(FailureListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Send messages still pending once, without waiting or retrying, and stop sending.
+     * Blocks until they have been sent, e.g. before disconnecting from the room,
+     * or until the timeout, so keep the timeout short on the UI thread.
+     *
+     * @param timeoutMs
+     * @return false if not all pending messages were sent within the timeout.
+     */
+    public boolean close(long timeoutMs) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                closed = true;
+                for (Destination destination : destinations.values()) {
+                    destination.retrying = false;
+                    destination.packPending();
+                    destination.sendOutbox();
+                }
+                destinations.clear();
+            }
+        });
+        executor.shutdown();
+        try {
+            if (executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.w(TAG, "[SA][MsgSender] Closed before all pending messages were sent!");
+        return false;
+    }
+
+    /**
+     * @param received A message as received from a Peer.
+     * @return The messages packed in it if it is an envelope, the message itself if it is text,
+     * else no messages.
+     */
+    public static List<String> unpack(Object received) {
+        if (received instanceof String) {
+            return Collections.singletonList((String) received);
+        }
+        if (!(received instanceof JSONObject) ||
+                !ENVELOPE_TYPE.equals(((JSONObject) received).optString(KEY_TYPE))) {
+            return Collections.emptyList();
+        }
+        try {
+            JSONArray array = ((JSONObject) received).getJSONArray(KEY_MESSAGES);
+            List<String> messages = new ArrayList<String>(array.length());
+            for (int i = 0; i < array.length(); ++i) {
+                messages.add(array.getString(i));
+            }
+            return messages;
+        } catch (JSONException e) {
+            Log.w(TAG, "[SA][MsgSender] Received a malformed envelope, dropping it.", e);
+            return Collections.emptyList();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Messages pending for one destination.
+     * Only accessed on the executor.
+     */
+    private class Destination {
+        final String remotePeerId;
+        final boolean isP2P;
+        // Messages not yet packed, and the length of the envelope they would make.
+        final List<String> pending = new ArrayList<String>();
+        int pendingLength;
+        // Packed messages waiting to be sent, in order.
+        final ArrayDeque<List<String>> outbox = new ArrayDeque<List<String>>();
+        boolean flushScheduled;
+        boolean retrying;
+        int attempts;
+
+        final Runnable flush = new Runnable() {
+            @Override
+            public void run() {
+                flushScheduled = false;
+                packPending();
+                sendOutbox();
+            }
+        };
+
+        final Runnable retry = new Runnable() {
+            @Override
+            public void run() {
+                retrying = false;
+                sendOutbox();
+            }
+        };
+
+        Destination(String remotePeerId, boolean isP2P) {
+            this.remotePeerId = remotePeerId;
+            this.isP2P = isP2P;
+        }
+
+        void add(String message) {
+            // Quoted message and its separator.
+            int length = JSONObject.quote(message).length() + 1;
+            if (!pending.isEmpty() && pendingLength + length > maxEnvelopeLength) {
+                packPending();
+                sendOutbox();
+            }
+            if (pending.isEmpty()) {
+                pendingLength = ENVELOPE_OVERHEAD - 1;
+            }
+            pending.add(message);
+            pendingLength += length;
+            if (!flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void packPending() {
+            if (!pending.isEmpty()) {
+                outbox.add(new ArrayList<String>(pending));
+                pending.clear();
+            }
+        }
+
+        void sendOutbox() {
+            while (!retrying && !outbox.isEmpty()) {
+                List<String> messages = outbox.peek();
+                try {
+                    transport.sendMessage(remotePeerId, isP2P, pack(messages));
+                } catch (SkylinkException e) {
+                    if (!closed && ++attempts < MAX_ATTEMPTS) {
+                        long delayMs = Math.min(BACKOFF_MAX_MS,
+                                BACKOFF_INITIAL_MS << (attempts - 1));
+                        Log.w(TAG, "[SA][MsgSender] Unable to send " + messages.size() +
+                                " message(s), retrying in " + delayMs + " ms.", e);
+                        retrying = true;
+                        executor.schedule(retry, delayMs, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    Log.e(TAG, "[SA][MsgSender] Unable to send " + messages.size() +
+                            " message(s), giving up.", e);
+                    FailureListener currentListener = listener;
+                    if (currentListener != null) {
+                        currentListener.onSendFailed(remotePeerId, isP2P, messages);
+                    }
+                }
+                outbox.poll();
+                attempts = 0;
+            }
+        }
+
+        Object pack(List<String> messages) {
+            if (messages.size() == 1) {
+                return messages.get(0);
+            }
+            JSONObject envelope = new JSONObject();
+            try {
+                envelope.put(KEY_TYPE, ENVELOPE_TYPE);
+                envelope.put(KEY_MESSAGES, new JSONArray(messages));
+            } catch (JSONException e) {
+                // Not thrown for String keys and values.
+                throw new IllegalStateException(e);
+            }
+            return envelope;
+        }
+    }
+}
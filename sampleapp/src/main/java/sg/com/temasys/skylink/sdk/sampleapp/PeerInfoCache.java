@@ -0,0 +1,68 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Display strings of remote Peers, keyed by PeerId, so that they are built once per Peer
+ * rather than on every message or UI refresh.
+ * <p>
+ * Entries are kept by {@link SkylinkEventBus}, as the callbacks of the single SkylinkConnection
+ * are dispatched: added when a Peer joins, replaced when its userData changes,
+ * and removed when it leaves or we disconnect from the room.
+ * Lookups of Peers not cached are not added, see {@link Utils}.
+ */
+public class PeerInfoCache {
+
+    private static final ConcurrentHashMap<String, PeerInfo> peers =
+            new ConcurrentHashMap<String, PeerInfo>();
+
+    private PeerInfoCache() {
+    }
+
+    /**
+     * Display strings of a Peer.
+     */
+    static class PeerInfo {
+        // userData as a string, "" if none.
+        final String userDataString;
+        // PeerId followed by userData, as from Utils#getPeerIdNick(String).
+        final String peerIdNick;
+        // userData as a string, or the PeerId if none, as from Utils#getNick.
+        final String nick;
+
+        PeerInfo(String peerId, Object userData) {
+            userDataString = userData == null ? "" : userData.toString();
+            peerIdNick = "\"" + peerId + "\"(" + userDataString + ")";
+            nick = "".equals(userDataString) ? peerId : userDataString;
+        }
+    }
+
+    /**
+     * Add or replace the display strings of a Peer.
+     *
+     * @param peerId
+     * @param userData The Peer's current userData.
+     * @return The display strings.
+     */
+    static PeerInfo put(String peerId, Object userData) {
+        PeerInfo info = new PeerInfo(peerId, userData);
+        peers.put(peerId, info);
+        return info;
+    }
+
+    /**
+     * @param peerId
+     * @return The display strings of a Peer, or null if not cached.
+     */
+    static PeerInfo get(String peerId) {
+        return peers.get(peerId);
+    }
+
+    static void remove(String peerId) {
+        peers.remove(peerId);
+    }
+
+    static void clear() {
+        peers.clear();
+    }
+}
@@ -0,0 +1,258 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import sg.com.temasys.skylink.sdk.rtc.Errors;
+import sg.com.temasys.skylink.sdk.rtc.SkylinkConnection;
+
+import static sg.com.temasys.skylink.sdk.sampleapp.Utils.isConnectingOrConnected;
+
+/**
+ * Reconnects to the room after an unexpected disconnect, so that a network blip does not
+ * require the user to join the room again.
+ * <p>
+ * What a reconnect needs, such as the SkylinkConfig and a signed connection string, is prepared
+ * as soon as the disconnect is reported, so that each attempt only has to connect.
+ * Attempts are retried with exponential backoff and full jitter, i.e. a random delay of up to
+ * the base delay doubled per failed attempt, capped at the max delay.
+ * An attempt that has not connected within the attempt timeout is abandoned and counts as failed.
+ * The time from disconnect to reconnect is kept across all rooms, see {@link #getMetricsSummary}.
+ * <p>
+ * Must be used on the UI thread, where the Skylink callbacks are received.
+ */
+public class ReconnectManager {
+
+    private static final String TAG = ReconnectManager.class.getCanonicalName();
+
+    public static final long DEFAULT_BASE_DELAY_MS = 500;
+    public static final long DEFAULT_MAX_DELAY_MS = 30 * 1000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+    public static final long DEFAULT_ATTEMPT_TIMEOUT_MS = 20 * 1000;
+
+    // Number of latest times to reconnect the percentiles are computed from.
+    private static final int SAMPLE_CAPACITY = 128;
+
+    // Times to reconnect in ms, as a ring buffer.
+    private static final long[] reconnectTimesMs = new long[SAMPLE_CAPACITY];
+    private static int reconnectCount;
+    private static int giveUpCount;
+
+    /**
+     * Connects to the room again, as the App would when the user joins it.
+     */
+    public interface Reconnector {
+        /**
+         * Called once per disconnect, before the first attempt, to prepare what the attempts
+         * need, e.g. the SkylinkConfig and the connection string.
+         */
+        void prepare();
+
+        /**
+         * @return false if the attempt could not be started.
+         */
+        boolean reconnect();
+    }
+
+    private final Reconnector reconnector;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final int maxAttempts;
+    private final long attemptTimeoutMs;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+
+    private boolean reconnecting;
+    private boolean attemptPending;
+    // True from abandoning a timed out attempt until its disconnect or the next onConnect,
+    // so that the disconnect this causes does not stop reconnecting.
+    private boolean abandoning;
+    private int attempts;
+    private long disconnectedAtMs;
+
+    private final Runnable attemptRunnable = new Runnable() {
+        @Override
+        public void run() {
+            attemptPending = false;
+            ++attempts;
+            // The user may have joined the room again in the meantime,
+            // which is then awaited like an attempt.
+            if (!isConnectingOrConnected()) {
+                Log.d(TAG, "[SA][Reconnect] Attempt " + attempts + " of " + maxAttempts + ".");
+                if (!reconnector.reconnect()) {
+                    scheduleAttempt();
+                    return;
+                }
+            }
+            handler.postDelayed(attemptTimeoutRunnable, attemptTimeoutMs);
+        }
+    };
+
+    private final Runnable attemptTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(TAG, "[SA][Reconnect] Attempt " + attempts + " timed out after " +
+                    attemptTimeoutMs + " ms.");
+            if (isConnectingOrConnected()) {
+                abandoning = true;
+                SkylinkConnection.getInstance().disconnectFromRoom();
+            }
+            scheduleAttempt();
+        }
+    };
+
+    public ReconnectManager(Reconnector reconnector) {
+        this(reconnector, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_MAX_ATTEMPTS,
+                DEFAULT_ATTEMPT_TIMEOUT_MS);
+    }
+
+    /**
+     * @param reconnector
+     * @param baseDelayMs Maximum delay before the first attempt.
+     * @param maxDelayMs  Maximum delay before any attempt.
+     * @param maxAttempts Number of attempts after which reconnecting is given up.
+     * @param attemptTimeoutMs Time after which an attempt without onConnect is abandoned.
+     */
+    public ReconnectManager(Reconnector reconnector, long baseDelayMs, long maxDelayMs,
+                            int maxAttempts, long attemptTimeoutMs) {
+        this.reconnector = reconnector;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.maxAttempts = maxAttempts;
+        this.attemptTimeoutMs = attemptTimeoutMs;
+    }
+
+    /**
+     * To be called from {@link sg.com.temasys.skylink.sdk.listener.LifeCycleListener#onConnect}.
+     *
+     * @param isSuccessful
+     */
+    public void onConnect(boolean isSuccessful) {
+        if (!reconnecting) {
+            return;
+        }
+        handler.removeCallbacks(attemptTimeoutRunnable);
+        abandoning = false;
+        if (isSuccessful) {
+            long reconnectTimeMs = SystemClock.elapsedRealtime() - disconnectedAtMs;
+            Log.d(TAG, "[SA][Reconnect] Reconnected after " + attempts + " attempt(s) in " +
+                    reconnectTimeMs + " ms.");
+            addReconnectTime(reconnectTimeMs);
+            reset();
+        } else {
+            scheduleAttempt();
+        }
+    }
+
+    /**
+     * To be called from {@link sg.com.temasys.skylink.sdk.listener.LifeCycleListener#onDisconnect}.
+     * Starts reconnecting if the disconnect was unexpected, else stops reconnecting.
+     *
+     * @param errorCode
+     */
+    public void onDisconnect(int errorCode) {
+        if (abandoning) {
+            // Caused by abandoning an attempt, the next attempt is already scheduled.
+            abandoning = false;
+            return;
+        }
+        handler.removeCallbacks(attemptTimeoutRunnable);
+        if (errorCode != Errors.DISCONNECT_UNEXPECTED_ERROR) {
+            cancel();
+            return;
+        }
+        if (!reconnecting) {
+            reconnecting = true;
+            attempts = 0;
+            disconnectedAtMs = SystemClock.elapsedRealtime();
+            reconnector.prepare();
+        }
+        scheduleAttempt();
+    }
+
+    /**
+     * Stop reconnecting, e.g. when the user leaves the room.
+     */
+    public void cancel() {
+        reset();
+    }
+
+    public boolean isReconnecting() {
+        return reconnecting;
+    }
+
+    /**
+     * @return Human readable summary of the times to reconnect, across all rooms.
+     */
+    public static String getMetricsSummary() {
+        long[] sorted;
+        int count;
+        int gaveUp;
+        synchronized (reconnectTimesMs) {
+            count = reconnectCount;
+            sorted = Arrays.copyOf(reconnectTimesMs, Math.min(count, SAMPLE_CAPACITY));
+            gaveUp = giveUpCount;
+        }
+        if (sorted.length == 0) {
+            return "Reconnects: none, gave up " + gaveUp + ".";
+        }
+        Arrays.sort(sorted);
+        return String.format(Locale.US,
+                "Reconnects: %d, gave up %d, time p50 %d ms, p90 %d ms, p99 %d ms.",
+                count, gaveUp, percentile(sorted, 50), percentile(sorted, 90),
+                percentile(sorted, 99));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    private void scheduleAttempt() {
+        if (!reconnecting || attemptPending) {
+            return;
+        }
+        if (attempts >= maxAttempts) {
+            Log.d(TAG, "[SA][Reconnect] Gave up after " + attempts + " attempt(s).");
+            synchronized (reconnectTimesMs) {
+                ++giveUpCount;
+            }
+            reset();
+            return;
+        }
+        // Cap the shift, so that the delay cannot overflow.
+        long ceilingMs = Math.min(maxDelayMs, baseDelayMs << Math.min(attempts, 20));
+        long delayMs = (long) (random.nextDouble() * ceilingMs);
+        attemptPending = true;
+        handler.postDelayed(attemptRunnable, delayMs);
+    }
+
+    private void reset() {
+        handler.removeCallbacks(attemptRunnable);
+        handler.removeCallbacks(attemptTimeoutRunnable);
+        reconnecting = false;
+        attemptPending = false;
+        abandoning = false;
+        attempts = 0;
+    }
+
+    private static void addReconnectTime(long reconnectTimeMs) {
+        synchronized (reconnectTimesMs) {
+            reconnectTimesMs[reconnectCount % SAMPLE_CAPACITY] = reconnectTimeMs;
+            ++reconnectCount;
+        }
+    }
+
+    /**
+     * Nearest rank percentile of ascending values.
+     */
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,789 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.graphics.Point;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.webrtc.SurfaceViewRenderer;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sg.com.temasys.skylink.sdk.listener.DataTransferListener;
+import sg.com.temasys.skylink.sdk.listener.FileTransferListener;
+import sg.com.temasys.skylink.sdk.listener.LifeCycleListener;
+import sg.com.temasys.skylink.sdk.listener.MediaListener;
+import sg.com.temasys.skylink.sdk.listener.MessagesListener;
+import sg.com.temasys.skylink.sdk.listener.OsListener;
+import sg.com.temasys.skylink.sdk.listener.RecordingListener;
+import sg.com.temasys.skylink.sdk.listener.RemotePeerListener;
+import sg.com.temasys.skylink.sdk.listener.StatsListener;
+import sg.com.temasys.skylink.sdk.rtc.SkylinkCaptureFormat;
+import sg.com.temasys.skylink.sdk.rtc.SkylinkConnection;
+import sg.com.temasys.skylink.sdk.rtc.UserInfo;
+
+/**
+ * Single receiver of all {@link SkylinkConnection} callbacks, which dispatches them to the
+ * current subscriber of each listener interface.
+ * <p>
+ * Each callback becomes an {@link Event} of its listener interface, queued on that interface's
+ * bounded lock free queue, so that the SDK callback thread only enqueues and returns.
+ * The queue is drained on the UI thread, where the subscribers handle them.
+ * Events of an interface are dispatched in order.
+ * <p>
+ * No event is dropped. Progress and stats events, which only report the latest state, are
+ * coalesced instead: while one of them is waiting to be dispatched, a newer one of the same
+ * Peer, file or stats type replaces it, so that they take at most one slot each in the queue.
+ * If a queue is still full, events overflow into an unbounded queue, dispatched after it,
+ * rather than blocking the SDK.
+ * <p>
+ * The display strings of remote Peers in {@link PeerInfoCache} are kept up to date here, as the
+ * Peers join, change userData and leave, and cleared on disconnect, in the order of their events.
+ * <p>
+ * The number and rate of each event, and the queue depth, overflows, coalesced events and
+ * dispatch latency of each interface are available from {@link #getMetricsSummary()}.
+ */
+public class SkylinkEventBus implements LifeCycleListener, RemotePeerListener, MessagesListener,
+        DataTransferListener, FileTransferListener, MediaListener, OsListener, RecordingListener,
+        StatsListener {
+
+    private static final String TAG = SkylinkEventBus.class.getCanonicalName();
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Runs handlers on the UI thread.
+     */
+    private static final Executor UI_EXECUTOR = new Executor() {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable runnable) {
+            handler.post(runnable);
+        }
+    };
+
+    /**
+     * A callback of listener interface L, to be delivered to its subscriber.
+     *
+     * @param <L> The listener interface.
+     */
+    public interface Event<L> {
+        void dispatch(L listener);
+    }
+
+    private static SkylinkEventBus instance;
+
+    // Listener interface to its channel. Not modified after construction.
+    private final Map<Class<?>, Channel<?>> channels = new LinkedHashMap<Class<?>, Channel<?>>();
+    // Event name to number of times posted.
+    private final ConcurrentHashMap<String, AtomicLong> eventCounts =
+            new ConcurrentHashMap<String, AtomicLong>();
+    // Counts and time of the last metrics summary, to give rates since then.
+    private final Map<String, Long> lastEventCounts = new HashMap<String, Long>();
+    private long lastMetricsMs = System.currentTimeMillis();
+
+    private SkylinkEventBus() {
+        addChannel(LifeCycleListener.class);
+        addChannel(RemotePeerListener.class);
+        addChannel(MessagesListener.class);
+        addChannel(DataTransferListener.class);
+        addChannel(FileTransferListener.class);
+        addChannel(MediaListener.class);
+        addChannel(OsListener.class);
+        addChannel(RecordingListener.class);
+        addChannel(StatsListener.class);
+    }
+
+    public static synchronized SkylinkEventBus getInstance() {
+        if (instance == null) {
+            instance = new SkylinkEventBus();
+        }
+        return instance;
+    }
+
+    /**
+     * Make a subscriber the only receiver of the callbacks of every listener interface it
+     * implements, and receive those callbacks from the SkylinkConnection.
+     * Listener interfaces it does not implement no longer have a subscriber.
+     * As with the SkylinkConnection listener setters, do not call before
+     * {@link SkylinkConnection#init}, as that removes all existing listeners.
+     *
+     * @param skylinkConnection
+     * @param subscriber        Implements one or more Skylink listener interfaces.
+     */
+    public void register(SkylinkConnection skylinkConnection, Object subscriber) {
+        for (Channel<?> channel : channels.values()) {
+            channel.setListener(subscriber);
+        }
+        if (subscriber instanceof LifeCycleListener) {
+            skylinkConnection.setLifeCycleListener(this);
+        }
+        if (subscriber instanceof RemotePeerListener) {
+            skylinkConnection.setRemotePeerListener(this);
+        }
+        if (subscriber instanceof MessagesListener) {
+            skylinkConnection.setMessagesListener(this);
+        }
+        if (subscriber instanceof DataTransferListener) {
+            skylinkConnection.setDataTransferListener(this);
+        }
+        if (subscriber instanceof FileTransferListener) {
+            skylinkConnection.setFileTransferListener(this);
+        }
+        if (subscriber instanceof MediaListener) {
+            skylinkConnection.setMediaListener(this);
+        }
+        if (subscriber instanceof OsListener) {
+            skylinkConnection.setOsListener(this);
+        }
+        if (subscriber instanceof RecordingListener) {
+            skylinkConnection.setRecordingListener(this);
+        }
+        if (subscriber instanceof StatsListener) {
+            skylinkConnection.setStatsListener(this);
+        }
+    }
+
+    /**
+     * @return Rate of each event since the last call, and the state of each queue.
+     */
+    public synchronized String getMetricsSummary() {
+        long nowMs = System.currentTimeMillis();
+        double elapsedS = Math.max(1, nowMs - lastMetricsMs) / 1000.0;
+        StringBuilder summary = new StringBuilder(String.format(Locale.US,
+                "Events in the last %.1f s:", elapsedS));
+        for (Map.Entry<String, AtomicLong> entry :
+                new TreeMap<String, AtomicLong>(eventCounts).entrySet()) {
+            long count = entry.getValue().get();
+            Long lastCount = lastEventCounts.put(entry.getKey(), count);
+            long delta = count - (lastCount == null ? 0 : lastCount);
+            summary.append(String.format(Locale.US, "\n%s: %.1f/s (%d in total)",
+                    entry.getKey(), delta / elapsedS, count));
+        }
+        lastMetricsMs = nowMs;
+
+        summary.append("\nQueues:");
+        for (Channel<?> channel : channels.values()) {
+            long dispatched = channel.dispatched.get();
+            if (dispatched == 0 && channel.overflowed.get() == 0) {
+                continue;
+            }
+            summary.append(String.format(Locale.US,
+                    "\n%s: max depth %d, overflowed %d, coalesced %d, avg latency %.2f ms",
+                    channel.type.getSimpleName(), channel.maxDepth.get(),
+                    channel.overflowed.get(), channel.coalesced.get(),
+                    dispatched == 0 ? 0.0 : channel.latencyNs.get() / 1e6 / dispatched));
+        }
+        return summary.toString();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Skylink Listeners
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * LifeCycleListener Callbacks
+     */
+
+    @Override
+    public void onConnect(final boolean isSuccessful, final String message) {
+        post(LifeCycleListener.class, "onConnect", new Event<LifeCycleListener>() {
+            @Override
+            public void dispatch(LifeCycleListener listener) {
+                listener.onConnect(isSuccessful, message);
+            }
+        });
+    }
+
+    @Override
+    public void onDisconnect(final int errorCode, final String message) {
+        post(LifeCycleListener.class, "onDisconnect", new Event<LifeCycleListener>() {
+            @Override
+            public void dispatch(LifeCycleListener listener) {
+                listener.onDisconnect(errorCode, message);
+                PeerInfoCache.clear();
+            }
+        });
+    }
+
+    @Override
+    public void onLockRoomStatusChange(final String remotePeerId, final boolean lockStatus) {
+        post(LifeCycleListener.class, "onLockRoomStatusChange", new Event<LifeCycleListener>() {
+            @Override
+            public void dispatch(LifeCycleListener listener) {
+                listener.onLockRoomStatusChange(remotePeerId, lockStatus);
+            }
+        });
+    }
+
+    @Override
+    public void onReceiveLog(final int infoCode, final String message) {
+        post(LifeCycleListener.class, "onReceiveLog", new Event<LifeCycleListener>() {
+            @Override
+            public void dispatch(LifeCycleListener listener) {
+                listener.onReceiveLog(infoCode, message);
+            }
+        });
+    }
+
+    @Override
+    public void onWarning(final int errorCode, final String message) {
+        post(LifeCycleListener.class, "onWarning", new Event<LifeCycleListener>() {
+            @Override
+            public void dispatch(LifeCycleListener listener) {
+                listener.onWarning(errorCode, message);
+            }
+        });
+    }
+
+    /**
+     * RemotePeerListener Callbacks
+     */
+
+    @Override
+    public void onRemotePeerJoin(final String remotePeerId, final Object userData,
+                                 final boolean hasDataChannel) {
+        post(RemotePeerListener.class, "onRemotePeerJoin", new Event<RemotePeerListener>() {
+            @Override
+            public void dispatch(RemotePeerListener listener) {
+                PeerInfoCache.put(remotePeerId, userData);
+                listener.onRemotePeerJoin(remotePeerId, userData, hasDataChannel);
+            }
+        });
+    }
+
+    @Override
+    public void onRemotePeerConnectionRefreshed(final String remotePeerId, final Object userData,
+                                                final boolean hasDataChannel,
+                                                final boolean wasIceRestarted) {
+        post(RemotePeerListener.class, "onRemotePeerConnectionRefreshed",
+                new Event<RemotePeerListener>() {
+                    @Override
+                    public void dispatch(RemotePeerListener listener) {
+                        listener.onRemotePeerConnectionRefreshed(remotePeerId, userData,
+                                hasDataChannel, wasIceRestarted);
+                    }
+                });
+    }
+
+    @Override
+    public void onRemotePeerUserDataReceive(final String remotePeerId, final Object userData) {
+        post(RemotePeerListener.class, "onRemotePeerUserDataReceive",
+                new Event<RemotePeerListener>() {
+                    @Override
+                    public void dispatch(RemotePeerListener listener) {
+                        PeerInfoCache.put(remotePeerId, userData);
+                        listener.onRemotePeerUserDataReceive(remotePeerId, userData);
+                    }
+                });
+    }
+
+    @Override
+    public void onOpenDataConnection(final String remotePeerId) {
+        post(RemotePeerListener.class, "onOpenDataConnection", new Event<RemotePeerListener>() {
+            @Override
+            public void dispatch(RemotePeerListener listener) {
+                listener.onOpenDataConnection(remotePeerId);
+            }
+        });
+    }
+
+    @Override
+    public void onRemotePeerLeave(final String remotePeerId, final String message,
+                                  final UserInfo userInfo) {
+        post(RemotePeerListener.class, "onRemotePeerLeave", new Event<RemotePeerListener>() {
+            @Override
+            public void dispatch(RemotePeerListener listener) {
+                listener.onRemotePeerLeave(remotePeerId, message, userInfo);
+                // After the listener, which may still show the Peer.
+                PeerInfoCache.remove(remotePeerId);
+            }
+        });
+    }
+
+    /**
+     * MessagesListener Callbacks
+     */
+
+    @Override
+    public void onServerMessageReceive(final String remotePeerId, final Object message,
+                                       final boolean isPrivate) {
+        post(MessagesListener.class, "onServerMessageReceive", new Event<MessagesListener>() {
+            @Override
+            public void dispatch(MessagesListener listener) {
+                listener.onServerMessageReceive(remotePeerId, message, isPrivate);
+            }
+        });
+    }
+
+    @Override
+    public void onP2PMessageReceive(final String remotePeerId, final Object message,
+                                    final boolean isPrivate) {
+        post(MessagesListener.class, "onP2PMessageReceive", new Event<MessagesListener>() {
+            @Override
+            public void dispatch(MessagesListener listener) {
+                listener.onP2PMessageReceive(remotePeerId, message, isPrivate);
+            }
+        });
+    }
+
+    /**
+     * DataTransferListener Callbacks
+     */
+
+    @Override
+    public void onDataReceive(final String remotePeerId, final byte[] data) {
+        post(DataTransferListener.class, "onDataReceive", new Event<DataTransferListener>() {
+            @Override
+            public void dispatch(DataTransferListener listener) {
+                listener.onDataReceive(remotePeerId, data);
+            }
+        });
+    }
+
+    /**
+     * FileTransferListener Callbacks
+     */
+
+    @Override
+    public void onFileTransferPermissionRequest(final String remotePeerId, final String fileName,
+                                                final boolean isPrivate) {
+        post(FileTransferListener.class, "onFileTransferPermissionRequest",
+                new Event<FileTransferListener>() {
+                    @Override
+                    public void dispatch(FileTransferListener listener) {
+                        listener.onFileTransferPermissionRequest(remotePeerId, fileName,
+                                isPrivate);
+                    }
+                });
+    }
+
+    @Override
+    public void onFileTransferPermissionResponse(final String remotePeerId, final String fileName,
+                                                 final boolean isPermitted) {
+        post(FileTransferListener.class, "onFileTransferPermissionResponse",
+                new Event<FileTransferListener>() {
+                    @Override
+                    public void dispatch(FileTransferListener listener) {
+                        listener.onFileTransferPermissionResponse(remotePeerId, fileName,
+                                isPermitted);
+                    }
+                });
+    }
+
+    @Override
+    public void onFileTransferDrop(final String remotePeerId, final String fileName,
+                                   final String message, final boolean isExplicit) {
+        post(FileTransferListener.class, "onFileTransferDrop", new Event<FileTransferListener>() {
+            @Override
+            public void dispatch(FileTransferListener listener) {
+                listener.onFileTransferDrop(remotePeerId, fileName, message, isExplicit);
+            }
+        });
+    }
+
+    @Override
+    public void onFileSendComplete(final String remotePeerId, final String fileName) {
+        post(FileTransferListener.class, "onFileSendComplete", new Event<FileTransferListener>() {
+            @Override
+            public void dispatch(FileTransferListener listener) {
+                listener.onFileSendComplete(remotePeerId, fileName);
+            }
+        });
+    }
+
+    @Override
+    public void onFileReceiveComplete(final String remotePeerId, final String fileName) {
+        post(FileTransferListener.class, "onFileReceiveComplete",
+                new Event<FileTransferListener>() {
+                    @Override
+                    public void dispatch(FileTransferListener listener) {
+                        listener.onFileReceiveComplete(remotePeerId, fileName);
+                    }
+                });
+    }
+
+    @Override
+    public void onFileSendProgress(final String remotePeerId, final String fileName,
+                                   final double percentage) {
+        postLatest(FileTransferListener.class, "onFileSendProgress", remotePeerId + "/" + fileName,
+                new Event<FileTransferListener>() {
+                    @Override
+                    public void dispatch(FileTransferListener listener) {
+                        listener.onFileSendProgress(remotePeerId, fileName, percentage);
+                    }
+                });
+    }
+
+    @Override
+    public void onFileReceiveProgress(final String remotePeerId, final String fileName,
+                                      final double percentage) {
+        postLatest(FileTransferListener.class, "onFileReceiveProgress",
+                remotePeerId + "/" + fileName, new Event<FileTransferListener>() {
+                    @Override
+                    public void dispatch(FileTransferListener listener) {
+                        listener.onFileReceiveProgress(remotePeerId, fileName, percentage);
+                    }
+                });
+    }
+
+    /**
+     * MediaListener Callbacks
+     */
+
+    @Override
+    public void onLocalMediaCapture(final SurfaceViewRenderer videoView) {
+        post(MediaListener.class, "onLocalMediaCapture", new Event<MediaListener>() {
+            @Override
+            public void dispatch(MediaListener listener) {
+                listener.onLocalMediaCapture(videoView);
+            }
+        });
+    }
+
+    @Override
+    public void onInputVideoResolutionObtained(final int width, final int height, final int fps,
+                                               final SkylinkCaptureFormat captureFormat) {
+        post(MediaListener.class, "onInputVideoResolutionObtained", new Event<MediaListener>() {
+            @Override
+            public void dispatch(MediaListener listener) {
+                listener.onInputVideoResolutionObtained(width, height, fps, captureFormat);
+            }
+        });
+    }
+
+    @Override
+    public void onReceivedVideoResolutionObtained(final String peerId, final int width,
+                                                  final int height, final int fps) {
+        post(MediaListener.class, "onReceivedVideoResolutionObtained",
+                new Event<MediaListener>() {
+                    @Override
+                    public void dispatch(MediaListener listener) {
+                        listener.onReceivedVideoResolutionObtained(peerId, width, height, fps);
+                    }
+                });
+    }
+
+    @Override
+    public void onSentVideoResolutionObtained(final String peerId, final int width,
+                                              final int height, final int fps) {
+        post(MediaListener.class, "onSentVideoResolutionObtained", new Event<MediaListener>() {
+            @Override
+            public void dispatch(MediaListener listener) {
+                listener.onSentVideoResolutionObtained(peerId, width, height, fps);
+            }
+        });
+    }
+
+    @Override
+    public void onVideoSizeChange(final String peerId, final Point size) {
+        post(MediaListener.class, "onVideoSizeChange", new Event<MediaListener>() {
+            @Override
+            public void dispatch(MediaListener listener) {
+                listener.onVideoSizeChange(peerId, size);
+            }
+        });
+    }
+
+    @Override
+    public void onRemotePeerMediaReceive(final String remotePeerId,
+                                         final SurfaceViewRenderer videoView) {
+        post(MediaListener.class, "onRemotePeerMediaReceive", new Event<MediaListener>() {
+            @Override
+            public void dispatch(MediaListener listener) {
+                listener.onRemotePeerMediaReceive(remotePeerId, videoView);
+            }
+        });
+    }
+
+    @Override
+    public void onRemotePeerAudioToggle(final String remotePeerId, final boolean isMuted) {
+        post(MediaListener.class, "onRemotePeerAudioToggle", new Event<MediaListener>() {
+            @Override
+            public void dispatch(MediaListener listener) {
+                listener.onRemotePeerAudioToggle(remotePeerId, isMuted);
+            }
+        });
+    }
+
+    @Override
+    public void onRemotePeerVideoToggle(final String remotePeerId, final boolean isMuted) {
+        post(MediaListener.class, "onRemotePeerVideoToggle", new Event<MediaListener>() {
+            @Override
+            public void dispatch(MediaListener listener) {
+                listener.onRemotePeerVideoToggle(remotePeerId, isMuted);
+            }
+        });
+    }
+
+    /**
+     * OsListener Callbacks
+     */
+
+    @Override
+    public void onPermissionRequired(final String[] permissions, final int requestCode,
+                                     final int infoCode) {
+        post(OsListener.class, "onPermissionRequired", new Event<OsListener>() {
+            @Override
+            public void dispatch(OsListener listener) {
+                listener.onPermissionRequired(permissions, requestCode, infoCode);
+            }
+        });
+    }
+
+    @Override
+    public void onPermissionGranted(final String[] permissions, final int requestCode,
+                                    final int infoCode) {
+        post(OsListener.class, "onPermissionGranted", new Event<OsListener>() {
+            @Override
+            public void dispatch(OsListener listener) {
+                listener.onPermissionGranted(permissions, requestCode, infoCode);
+            }
+        });
+    }
+
+    @Override
+    public void onPermissionDenied(final String[] permissions, final int requestCode,
+                                   final int infoCode) {
+        post(OsListener.class, "onPermissionDenied", new Event<OsListener>() {
+            @Override
+            public void dispatch(OsListener listener) {
+                listener.onPermissionDenied(permissions, requestCode, infoCode);
+            }
+        });
+    }
+
+    /**
+     * RecordingListener Callbacks
+     */
+
+    @Override
+    public void onRecordingStart(final String recordingId) {
+        post(RecordingListener.class, "onRecordingStart", new Event<RecordingListener>() {
+            @Override
+            public void dispatch(RecordingListener listener) {
+                listener.onRecordingStart(recordingId);
+            }
+        });
+    }
+
+    @Override
+    public void onRecordingStop(final String recordingId) {
+        post(RecordingListener.class, "onRecordingStop", new Event<RecordingListener>() {
+            @Override
+            public void dispatch(RecordingListener listener) {
+                listener.onRecordingStop(recordingId);
+            }
+        });
+    }
+
+    @Override
+    public void onRecordingVideoLink(final String recordingId, final String peerId,
+                                     final String videoLink) {
+        post(RecordingListener.class, "onRecordingVideoLink", new Event<RecordingListener>() {
+            @Override
+            public void dispatch(RecordingListener listener) {
+                listener.onRecordingVideoLink(recordingId, peerId, videoLink);
+            }
+        });
+    }
+
+    @Override
+    public void onRecordingError(final String recordingId, final int errorCode,
+                                 final String description) {
+        post(RecordingListener.class, "onRecordingError", new Event<RecordingListener>() {
+            @Override
+            public void dispatch(RecordingListener listener) {
+                listener.onRecordingError(recordingId, errorCode, description);
+            }
+        });
+    }
+
+    /**
+     * StatsListener Callbacks
+     */
+
+    @Override
+    public void onWebrtcStatsReceived(final String peerId, final int mediaDirection,
+                                      final int mediaType, final HashMap<String, String> stats) {
+        postLatest(StatsListener.class, "onWebrtcStatsReceived",
+                peerId + "/" + mediaDirection + "/" + mediaType, new Event<StatsListener>() {
+                    @Override
+                    public void dispatch(StatsListener listener) {
+                        listener.onWebrtcStatsReceived(peerId, mediaDirection, mediaType, stats);
+                    }
+                });
+    }
+
+    @Override
+    public void onTransferSpeedReceived(final String peerId, final int mediaDirection,
+                                        final int mediaType, final double transferSpeed) {
+        postLatest(StatsListener.class, "onTransferSpeedReceived",
+                peerId + "/" + mediaDirection + "/" + mediaType, new Event<StatsListener>() {
+                    @Override
+                    public void dispatch(StatsListener listener) {
+                        listener.onTransferSpeedReceived(peerId, mediaDirection, mediaType,
+                                transferSpeed);
+                    }
+                });
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    private <L> void addChannel(Class<L> type) {
+        channels.put(type, new Channel<L>(type));
+    }
+
+    private <L> void post(Class<L> type, String name, Event<L> event) {
+        getChannel(type, name).post(new Posted<L>(name, null, event));
+    }
+
+    /**
+     * Post an event that only reports the latest state of something, replacing the event of the
+     * same key if it is still waiting to be dispatched.
+     *
+     * @param type
+     * @param name
+     * @param key   Identifies what the event reports on, e.g. a Peer and file.
+     * @param event
+     */
+    private <L> void postLatest(Class<L> type, String name, String key, Event<L> event) {
+        getChannel(type, name).post(new Posted<L>(name, name + "/" + key, event));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <L> Channel<L> getChannel(Class<L> type, String name) {
+        AtomicLong count = eventCounts.get(name);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = eventCounts.putIfAbsent(name, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+        return (Channel<L>) channels.get(type);
+    }
+
+    /**
+     * An event waiting to be dispatched.
+     */
+    private static class Posted<L> {
+        final String name;
+        // Key of a coalesced event, else null.
+        final String key;
+        final Event<L> event;
+        final long postedNs;
+
+        Posted(String name, String key, Event<L> event) {
+            this.name = name;
+            this.key = key;
+            this.event = event;
+            postedNs = System.nanoTime();
+        }
+    }
+
+    /**
+     * Queue and subscriber of one listener interface.
+     */
+    private static class Channel<L> {
+        final Class<L> type;
+        final BoundedEventQueue<Posted<L>> queue =
+                new BoundedEventQueue<Posted<L>>(DEFAULT_QUEUE_CAPACITY);
+        // Events posted while the queue is full, and after that until they are dispatched,
+        // so that events stay in order.
+        final ConcurrentLinkedQueue<Posted<L>> overflow = new ConcurrentLinkedQueue<Posted<L>>();
+        // Key to the latest coalesced event of the key, which has a slot in the queue.
+        final ConcurrentHashMap<String, Posted<L>> latest =
+                new ConcurrentHashMap<String, Posted<L>>();
+        // Whether a drain is scheduled or running.
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile L listener;
+
+        // Metrics.
+        final AtomicInteger maxDepth = new AtomicInteger();
+        final AtomicLong overflowed = new AtomicLong();
+        final AtomicLong coalesced = new AtomicLong();
+        final AtomicLong dispatched = new AtomicLong();
+        final AtomicLong latencyNs = new AtomicLong();
+
+        final Runnable drain = new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    Posted<L> posted = queue.poll();
+                    if (posted == null) {
+                        posted = overflow.poll();
+                    }
+                    if (posted == null) {
+                        // Stop, unless an event was queued after the last poll and
+                        // its producer has not scheduled another drain.
+                        scheduled.set(false);
+                        if ((queue.isEmpty() && overflow.isEmpty()) ||
+                                !scheduled.compareAndSet(false, true)) {
+                            return;
+                        }
+                        continue;
+                    }
+                    if (posted.key != null) {
+                        // Dispatch the latest event of the key in the slot of the first.
+                        posted = latest.remove(posted.key);
+                        if (posted == null) {
+                            continue;
+                        }
+                    }
+                    latencyNs.addAndGet(System.nanoTime() - posted.postedNs);
+                    dispatched.incrementAndGet();
+                    L current = listener;
+                    if (current != null) {
+                        posted.event.dispatch(current);
+                    }
+                }
+            }
+        };
+
+        Channel(Class<L> type) {
+            this.type = type;
+        }
+
+        void setListener(Object subscriber) {
+            listener = type.isInstance(subscriber) ? type.cast(subscriber) : null;
+        }
+
+        void post(Posted<L> posted) {
+            if (posted.key != null && latest.put(posted.key, posted) != null) {
+                // Replaced an event of the key still waiting, which keeps its slot.
+                coalesced.incrementAndGet();
+                return;
+            }
+            if (!overflow.isEmpty() || !queue.offer(posted)) {
+                if (overflowed.getAndIncrement() == 0) {
+                    Log.w(TAG, "[SA][EventBus] Queue of " + type.getSimpleName() +
+                            " is full, overflowing from " + posted.name + ".");
+                }
+                overflow.offer(posted);
+            }
+            int depth = queue.size();
+            int max;
+            while (depth > (max = maxDepth.get()) && !maxDepth.compareAndSet(max, depth)) {
+                // Retry until the max is at least depth.
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                UI_EXECUTOR.execute(drain);
+            }
+        }
+    }
+}
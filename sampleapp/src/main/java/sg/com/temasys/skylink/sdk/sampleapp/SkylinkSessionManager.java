@@ -0,0 +1,338 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import sg.com.temasys.skylink.sdk.listener.DataTransferListener;
+import sg.com.temasys.skylink.sdk.listener.FileTransferListener;
+import sg.com.temasys.skylink.sdk.listener.LifeCycleListener;
+import sg.com.temasys.skylink.sdk.listener.MessagesListener;
+import sg.com.temasys.skylink.sdk.listener.RemotePeerListener;
+import sg.com.temasys.skylink.sdk.rtc.SkylinkConfig;
+import sg.com.temasys.skylink.sdk.rtc.SkylinkConnection;
+import sg.com.temasys.skylink.sdk.rtc.UserInfo;
+import sg.com.temasys.skylink.sdk.sampleapp.ConfigFragment.Config;
+
+import static sg.com.temasys.skylink.sdk.sampleapp.Utils.isConnectingOrConnected;
+
+/**
+ * Owner of the room session of the {@link SkylinkConnection}, independent of the fragments that
+ * show it, so that a session can outlive the fragment that started it.
+ * <p>
+ * A sample fragment starts a session with {@link #start}, and attaches to it as the view
+ * receiving its callbacks. When the fragment goes away, it may detach and leave the session
+ * running, to attach to it again when the sample is shown next, instead of reconnecting to the
+ * room. While no view is attached, this receives the lifecycle and remote Peer callbacks,
+ * and passes the remote Peer, message, data and file transfer callbacks on to the
+ * {@link SessionListener} of the session, if it implements their listener interfaces.
+ * Callbacks of other listener interfaces are dropped.
+ * <p>
+ * As there is a single SkylinkConnection, there can be only one live session. Starting a session
+ * ends any other live session first, and the live session ends when the App is finished.
+ */
+public class SkylinkSessionManager implements LifeCycleListener, RemotePeerListener,
+        MessagesListener, DataTransferListener, FileTransferListener {
+
+    private static final String TAG = SkylinkSessionManager.class.getCanonicalName();
+
+    /**
+     * Notified when a session is ended by this manager.
+     * May also implement RemotePeerListener, MessagesListener, DataTransferListener or
+     * FileTransferListener, to handle those callbacks of the session while no view is attached,
+     * e.g. to keep the messages received.
+     */
+    public interface SessionListener {
+        /**
+         * Called before disconnecting from the room, to release what was kept for the session.
+         */
+        void onSessionEnd();
+    }
+
+    private static SkylinkSessionManager instance;
+
+    private SkylinkConnection skylinkConnection;
+    // Key of the session last started, see getSessionKey.
+    private String sessionKey;
+    private SessionListener sessionListener;
+    // View receiving the callbacks of the session, if any.
+    private Object view;
+
+    private SkylinkSessionManager() {
+    }
+
+    public static synchronized SkylinkSessionManager getInstance() {
+        if (instance == null) {
+            instance = new SkylinkSessionManager();
+        }
+        return instance;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // APIs
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * @param sample   Name of the sample, e.g. the TAG of its fragment.
+     * @param roomName
+     * @param userName
+     * @return Key identifying a session of the sample with the current App key, room and user name.
+     */
+    public static String getSessionKey(String sample, String roomName, String userName) {
+        return sample + "|" + Config.getAppKey() + "|" + roomName + "|" + userName;
+    }
+
+    /**
+     * @param sessionKey From {@link #getSessionKey}.
+     * @return True if the session of the key is the live session, i.e. connecting or connected.
+     */
+    public boolean isLive(String sessionKey) {
+        return sessionKey.equals(this.sessionKey) && skylinkConnection != null
+                && isConnectingOrConnected();
+    }
+
+    /**
+     * Start a session, ending the live session first if it is of another key.
+     * The SkylinkConnection returned is initialised with the config,
+     * to attach to and connect to the room with.
+     *
+     * @param sessionKey      From {@link #getSessionKey}.
+     * @param skylinkConfig
+     * @param context
+     * @param sessionListener Notified if the session is ended by this manager. May be null.
+     * @return The SkylinkConnection of the session.
+     */
+    public SkylinkConnection start(String sessionKey, SkylinkConfig skylinkConfig,
+                                   Context context, SessionListener sessionListener) {
+        endOther(sessionKey);
+
+        skylinkConnection = SkylinkConnection.getInstance();
+        //the app_key and app_secret is obtained from the temasys developer console.
+        skylinkConnection.init(Config.getAppKey(), skylinkConfig,
+                context.getApplicationContext());
+        this.sessionKey = sessionKey;
+        this.sessionListener = sessionListener;
+        view = null;
+        Log.d(TAG, "[SA][Session] Started session " + sessionKey + ".");
+        return skylinkConnection;
+    }
+
+    /**
+     * Make a view the receiver of the callbacks of the session.
+     * Must be called after {@link #start}, as that removes all existing listeners.
+     *
+     * @param view Implements one or more Skylink listener interfaces.
+     * @return False if there is no session to attach to.
+     */
+    public boolean attach(Object view) {
+        if (skylinkConnection == null) {
+            return false;
+        }
+        this.view = view;
+        // Receive callbacks via the event bus, on the UI thread.
+        SkylinkEventBus.getInstance().register(skylinkConnection, view);
+        return true;
+    }
+
+    /**
+     * Stop a view from receiving the callbacks of the session, if it is attached.
+     * The session keeps running until ended.
+     *
+     * @param view
+     */
+    public void detach(Object view) {
+        if (skylinkConnection == null || this.view != view) {
+            return;
+        }
+        this.view = null;
+        SkylinkEventBus.getInstance().register(skylinkConnection, this);
+    }
+
+    /**
+     * End the live session if it is of another key, so that the sample of this key
+     * finds the SkylinkConnection free for its own session.
+     *
+     * @param sessionKey From {@link #getSessionKey}.
+     */
+    public void endOther(String sessionKey) {
+        if (this.sessionKey != null && !sessionKey.equals(this.sessionKey)) {
+            end();
+        }
+    }
+
+    /**
+     * End the live session, if any, disconnecting from its room.
+     */
+    public void end() {
+        SessionListener listener = sessionListener;
+        String key = sessionKey;
+        sessionListener = null;
+        sessionKey = null;
+        view = null;
+        if (listener != null) {
+            listener.onSessionEnd();
+        }
+        if (skylinkConnection != null && isConnectingOrConnected()) {
+            skylinkConnection.disconnectFromRoom();
+            Log.d(TAG, "[SA][Session] Ended session " + key + ".");
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Getters & Setters
+    //----------------------------------------------------------------------------------------------
+
+    public SkylinkConnection getSkylinkConnection() {
+        return skylinkConnection;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Skylink Listeners, while no view is attached
+    //----------------------------------------------------------------------------------------------
+
+    @Override
+    public void onConnect(boolean isSuccessful, String message) {
+        Log.d(TAG, "[SA][Session] Connected to room of detached session " + sessionKey +
+                ": " + isSuccessful + ".");
+    }
+
+    @Override
+    public void onDisconnect(int errorCode, String message) {
+        Log.d(TAG, "[SA][Session] Detached session " + sessionKey + " disconnected (" +
+                errorCode + "): " + message);
+    }
+
+    @Override
+    public void onLockRoomStatusChange(String remotePeerId, boolean lockStatus) {
+    }
+
+    @Override
+    public void onReceiveLog(int infoCode, String message) {
+        Log.d(TAG, "[SA][Session] Log (" + infoCode + "): " + message);
+    }
+
+    @Override
+    public void onWarning(int errorCode, String message) {
+        Log.w(TAG, "[SA][Session] Warning (" + errorCode + "): " + message);
+    }
+
+    @Override
+    public void onRemotePeerJoin(String remotePeerId, Object userData, boolean hasDataChannel) {
+        if (sessionListener instanceof RemotePeerListener) {
+            ((RemotePeerListener) sessionListener).onRemotePeerJoin(remotePeerId, userData,
+                    hasDataChannel);
+        }
+    }
+
+    @Override
+    public void onRemotePeerConnectionRefreshed(String remotePeerId, Object userData,
+                                                boolean hasDataChannel, boolean wasIceRestarted) {
+        if (sessionListener instanceof RemotePeerListener) {
+            ((RemotePeerListener) sessionListener).onRemotePeerConnectionRefreshed(remotePeerId,
+                    userData, hasDataChannel, wasIceRestarted);
+        }
+    }
+
+    @Override
+    public void onRemotePeerUserDataReceive(String remotePeerId, Object userData) {
+        if (sessionListener instanceof RemotePeerListener) {
+            ((RemotePeerListener) sessionListener).onRemotePeerUserDataReceive(remotePeerId,
+                    userData);
+        }
+    }
+
+    @Override
+    public void onOpenDataConnection(String remotePeerId) {
+        if (sessionListener instanceof RemotePeerListener) {
+            ((RemotePeerListener) sessionListener).onOpenDataConnection(remotePeerId);
+        }
+    }
+
+    @Override
+    public void onRemotePeerLeave(String remotePeerId, String message, UserInfo userInfo) {
+        if (sessionListener instanceof RemotePeerListener) {
+            ((RemotePeerListener) sessionListener).onRemotePeerLeave(remotePeerId, message,
+                    userInfo);
+        }
+    }
+
+    @Override
+    public void onServerMessageReceive(String remotePeerId, Object message, boolean isPrivate) {
+        if (sessionListener instanceof MessagesListener) {
+            ((MessagesListener) sessionListener).onServerMessageReceive(remotePeerId, message,
+                    isPrivate);
+        }
+    }
+
+    @Override
+    public void onP2PMessageReceive(String remotePeerId, Object message, boolean isPrivate) {
+        if (sessionListener instanceof MessagesListener) {
+            ((MessagesListener) sessionListener).onP2PMessageReceive(remotePeerId, message,
+                    isPrivate);
+        }
+    }
+
+    @Override
+    public void onDataReceive(String remotePeerId, byte[] data) {
+        if (sessionListener instanceof DataTransferListener) {
+            ((DataTransferListener) sessionListener).onDataReceive(remotePeerId, data);
+        }
+    }
+
+    @Override
+    public void onFileTransferPermissionRequest(String remotePeerId, String fileName,
+                                                boolean isPrivate) {
+        if (sessionListener instanceof FileTransferListener) {
+            ((FileTransferListener) sessionListener).onFileTransferPermissionRequest(
+                    remotePeerId, fileName, isPrivate);
+        }
+    }
+
+    @Override
+    public void onFileTransferPermissionResponse(String remotePeerId, String fileName,
+                                                 boolean isPermitted) {
+        if (sessionListener instanceof FileTransferListener) {
+            ((FileTransferListener) sessionListener).onFileTransferPermissionResponse(
+                    remotePeerId, fileName, isPermitted);
+        }
+    }
+
+    @Override
+    public void onFileTransferDrop(String remotePeerId, String fileName, String message,
+                                   boolean isExplicit) {
+        if (sessionListener instanceof FileTransferListener) {
+            ((FileTransferListener) sessionListener).onFileTransferDrop(remotePeerId, fileName,
+                    message, isExplicit);
+        }
+    }
+
+    @Override
+    public void onFileSendComplete(String remotePeerId, String fileName) {
+        if (sessionListener instanceof FileTransferListener) {
+            ((FileTransferListener) sessionListener).onFileSendComplete(remotePeerId, fileName);
+        }
+    }
+
+    @Override
+    public void onFileReceiveComplete(String remotePeerId, String fileName) {
+        if (sessionListener instanceof FileTransferListener) {
+            ((FileTransferListener) sessionListener).onFileReceiveComplete(remotePeerId,
+                    fileName);
+        }
+    }
+
+    @Override
+    public void onFileSendProgress(String remotePeerId, String fileName, double percentage) {
+        if (sessionListener instanceof FileTransferListener) {
+            ((FileTransferListener) sessionListener).onFileSendProgress(remotePeerId, fileName,
+                    percentage);
+        }
+    }
+
+    @Override
+    public void onFileReceiveProgress(String remotePeerId, String fileName, double percentage) {
+        if (sessionListener instanceof FileTransferListener) {
+            ((FileTransferListener) sessionListener).onFileReceiveProgress(remotePeerId,
+                    fileName, percentage);
+        }
+    }
+}
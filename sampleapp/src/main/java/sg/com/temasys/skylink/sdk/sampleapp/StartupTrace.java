@@ -0,0 +1,82 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Times of startup milestones since process start, for measuring cold start.
+ * <p>
+ * Each milestone is recorded only the first time it is reached in a process,
+ * so later Activity restarts, e.g. on rotation, do not overwrite the cold start times.
+ * Milestones are logged as they are reached, and are available from {@link #getSummary()}.
+ * On API levels before 24, times are measured from when this class was loaded instead of
+ * process start.
+ */
+public class StartupTrace {
+
+    private static final String TAG = StartupTrace.class.getCanonicalName();
+
+    public static final String ACTIVITY_CREATE = "Activity created";
+    public static final String ROOM_USER_NAMES_LOADED = "Room and user names loaded";
+    public static final String APP_KEY_LOADED = "App key loaded";
+    public static final String FIRST_FRAME = "First frame";
+    public static final String FIRST_FRAGMENT_INTERACTIVE = "First fragment interactive";
+
+    private static final long START_MS = getProcessStartMs();
+
+    // Map with milestone as key for its time since process start in ms, in order reached.
+    private static final Map<String, Long> milestones = new LinkedHashMap<String, Long>();
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Record that a milestone has been reached now, unless it was already recorded.
+     *
+     * @param milestone
+     */
+    public static void mark(String milestone) {
+        long timeMs = SystemClock.elapsedRealtime() - START_MS;
+        synchronized (milestones) {
+            if (milestones.containsKey(milestone)) {
+                return;
+            }
+            milestones.put(milestone, timeMs);
+        }
+        Log.i(TAG, "[SA][Startup] " + milestone + " at " + timeMs + " ms.");
+    }
+
+    /**
+     * @return Human readable times of the milestones reached, with the time since the previous.
+     */
+    public static String getSummary() {
+        StringBuilder summary = new StringBuilder("Startup since process start:");
+        long previousMs = 0;
+        synchronized (milestones) {
+            for (Map.Entry<String, Long> entry : milestones.entrySet()) {
+                long timeMs = entry.getValue();
+                summary.append(String.format(Locale.US, "\n%s: %d ms (+%d ms)",
+                        entry.getKey(), timeMs, timeMs - previousMs));
+                previousMs = timeMs;
+            }
+        }
+        return summary.toString();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    private static long getProcessStartMs() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime();
+        }
+        return SystemClock.elapsedRealtime();
+    }
+}
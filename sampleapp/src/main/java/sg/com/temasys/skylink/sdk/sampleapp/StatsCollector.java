@@ -0,0 +1,171 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import android.util.Log;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically requests stats for all Peers flagged in a shared Map of PeerId to Boolean,
+ * using a single scheduler thread for all Peers instead of a new Thread per Peer per tick.
+ * <p>
+ * Each tick is delayed by the interval plus a random jitter.
+ * A new request is not sent for a Peer while its previous request is still pending,
+ * i.e. until {@link #onStatsReceived} is called for that Peer,
+ * or until the pending request is older than the pending timeout.
+ */
+public class StatsCollector {
+
+    private static final String TAG = StatsCollector.class.getName();
+
+    public static final long DEFAULT_INTERVAL_MS = 1000;
+    public static final long DEFAULT_JITTER_MS = 100;
+    public static final long DEFAULT_PENDING_TIMEOUT_MS = 5000;
+
+    /**
+     * Performs the actual stats request(s) for a Peer, e.g. via
+     * {@link sg.com.temasys.skylink.sdk.rtc.SkylinkConnection#getWebrtcStats}.
+     */
+    public interface StatsRequester {
+        void requestStats(String peerId);
+    }
+
+    private final Map<String, Boolean> peerFlags;
+    private final StatsRequester requester;
+    private final long intervalMs;
+    private final long jitterMs;
+    private final long pendingTimeoutMs;
+    private final Random random = new Random();
+
+    // Map with PeerId as key for the time (ms) at which the last unanswered request was sent.
+    private final ConcurrentHashMap<String, Long> pendingSince =
+            new ConcurrentHashMap<String, Long>();
+
+    private ScheduledExecutorService scheduler;
+
+    private final Runnable tickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                tick(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                Log.e(TAG, "[SA][StatsCollector] Error while requesting stats: " +
+                        e.getMessage(), e);
+            }
+            scheduleNext();
+        }
+    };
+
+    /**
+     * @param peerFlags  Map with PeerId as key for boolean state that indicates
+     *                   if stats should currently be collected for the Peer.
+     * @param requester  Called on the scheduler thread for each flagged Peer per tick.
+     */
+    public StatsCollector(Map<String, Boolean> peerFlags, StatsRequester requester) {
+        this(peerFlags, requester, DEFAULT_INTERVAL_MS, DEFAULT_JITTER_MS,
+                DEFAULT_PENDING_TIMEOUT_MS);
+    }
+
+    /**
+     * @param peerFlags        Map with PeerId as key for boolean state that indicates
+     *                         if stats should currently be collected for the Peer.
+     * @param requester        Called on the scheduler thread for each flagged Peer per tick.
+     * @param intervalMs       Base delay between ticks.
+     * @param jitterMs         Maximum random delay added to each tick.
+     * @param pendingTimeoutMs Time after which a request without response is no longer pending.
+     */
+    public StatsCollector(Map<String, Boolean> peerFlags, StatsRequester requester,
+                          long intervalMs, long jitterMs, long pendingTimeoutMs) {
+        this.peerFlags = peerFlags;
+        this.requester = requester;
+        this.intervalMs = intervalMs;
+        this.jitterMs = jitterMs;
+        this.pendingTimeoutMs = pendingTimeoutMs;
+    }
+
+    /**
+     * Start ticking if not already started.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduleNext();
+    }
+
+    /**
+     * Stop ticking and discard all pending states.
+     * Can be started again with {@link #start()}.
+     */
+    public synchronized void shutdown() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler = null;
+        pendingSince.clear();
+    }
+
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    /**
+     * Call when stats for a Peer are received, to allow the next request for that Peer.
+     *
+     * @param peerId
+     */
+    public void onStatsReceived(String peerId) {
+        if (peerId != null) {
+            pendingSince.remove(peerId);
+        }
+    }
+
+    /**
+     * Call when a Peer is no longer in the room.
+     *
+     * @param peerId
+     */
+    public void removePeer(String peerId) {
+        if (peerId != null) {
+            pendingSince.remove(peerId);
+        }
+    }
+
+    /**
+     * Request stats for every flagged Peer that does not have a pending request.
+     *
+     * @param nowMs Current time in ms.
+     */
+    void tick(long nowMs) {
+        for (Map.Entry<String, Boolean> entry : peerFlags.entrySet()) {
+            String peerId = entry.getKey();
+            if (!Boolean.TRUE.equals(entry.getValue())) {
+                pendingSince.remove(peerId);
+                continue;
+            }
+            Long since = pendingSince.get(peerId);
+            if (since != null && nowMs - since < pendingTimeoutMs) {
+                continue;
+            }
+            pendingSince.put(peerId, nowMs);
+            requester.requestStats(peerId);
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        if (scheduler == null || scheduler.isShutdown()) {
+            return;
+        }
+        long delayMs = intervalMs;
+        if (jitterMs > 0) {
+            delayMs += (long) (random.nextDouble() * jitterMs);
+        }
+        scheduler.schedule(tickRunnable, delayMs, TimeUnit.MILLISECONDS);
+    }
+}
@@ -8,7 +8,6 @@ import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
 import androidx.core.content.ContextCompat;
 import android.text.method.LinkMovementMethod;
-import android.util.Base64;
 import android.util.Log;
 import android.view.ViewGroup;
 import android.widget.TextView;
@@ -20,10 +19,8 @@ import org.json.JSONObject;
 import org.webrtc.SurfaceViewRenderer;
 
 import java.io.UnsupportedEncodingException;
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -34,9 +31,6 @@ import java.util.Deque;
 import java.util.List;
 import java.util.TimeZone;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
 import sg.com.temasys.skylink.sdk.rtc.Errors;
 import sg.com.temasys.skylink.sdk.rtc.SkylinkConfig;
 import sg.com.temasys.skylink.sdk.rtc.SkylinkConnection;
@@ -59,6 +53,19 @@ public class Utils {
     private static final String TAG = Utils.class.getName();
     private static final String HMAC_SHA1_ALGORITHM = "HmacSHA1";
 
+    // Signer of the last key used by calculateRFC2104HMAC.
+    private static volatile HmacSigner hmacSigner;
+
+    // SimpleDateFormat is not thread safe, so keep one per thread.
+    private static final ThreadLocal<DateFormat> isoTimeFormat = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            DateFormat df = new SimpleDateFormat(ISO_TIME_FORMAT);
+            df.setTimeZone(TimeZone.getTimeZone(TIME_ZONE_UTC));
+            return df;
+        }
+    };
+
     private static SkylinkConnection scInstance;
 
     // Queue of Permission requesting objects.
@@ -123,6 +130,9 @@ public class Utils {
      * @return
      */
     public static String getUserDataString(String peerId) {
+        if (peerId != null) {
+            return getPeerInfo(peerId).userDataString;
+        }
         Object userDataObject = getScInstance().getUserData(peerId);
         String userDataString = "";
         if (userDataObject != null) {
@@ -131,6 +141,22 @@ public class Utils {
         return userDataString;
     }
 
+    /**
+     * Get the cached display strings of a remote Peer, or build them if not cached.
+     * A Peer is only cached from its events, see {@link SkylinkEventBus}, so that a lookup of a
+     * Peer that left or is not yet known does not add an entry that is never removed.
+     *
+     * @param peerId
+     * @return
+     */
+    private static PeerInfoCache.PeerInfo getPeerInfo(String peerId) {
+        PeerInfoCache.PeerInfo info = PeerInfoCache.get(peerId);
+        if (info == null) {
+            info = new PeerInfoCache.PeerInfo(peerId, getScInstance().getUserData(peerId));
+        }
+        return info;
+    }
+
     /**
      * Returns the userData of a Peer as a String.
      * If there is no userData, returns the empty string, "".
@@ -180,15 +206,16 @@ public class Utils {
      * @return
      */
     public static String getPeerIdNick(String peerId) {
-        String peerIdShow = peerId;
-        if (peerId == null) {
-            SkylinkConnection skylinkConnection = getScInstance();
-            if (skylinkConnection != null) {
-                peerIdShow = skylinkConnection.getPeerId();
-            }
-            if (peerIdShow == null) {
-                peerIdShow = "Self";
-            }
+        if (peerId != null) {
+            return getPeerInfo(peerId).peerIdNick;
+        }
+        String peerIdShow = null;
+        SkylinkConnection skylinkConnection = getScInstance();
+        if (skylinkConnection != null) {
+            peerIdShow = skylinkConnection.getPeerId();
+        }
+        if (peerIdShow == null) {
+            peerIdShow = "Self";
         }
         final String peerIdNick = "\"" + peerIdShow + "\"(" + getUserDataString(peerId) + ")";
         return peerIdNick;
@@ -214,6 +241,9 @@ public class Utils {
      * @return
      */
     public static String getNick(String peerId) {
+        if (peerId != null) {
+            return getPeerInfo(peerId).nick;
+        }
         String nick = getUserDataString(peerId);
         if ("".equals(nick)) {
             nick = peerId;
@@ -327,6 +357,10 @@ public class Utils {
         // Compute RFC 2104-compliant HMAC signature
         String cred = calculateRFC2104HMAC(roomName + "_" + duration + "_"
                 + dateString, Config.getAppKeySecret());
+        if (cred == null) {
+            Log.e(TAG, "[ERROR] Unable to generate credentials. Not joining room!");
+            return null;
+        }
         try {
             cred = URLEncoder.encode(cred, "UTF-8");
         } catch (UnsupportedEncodingException e) {
@@ -345,18 +379,11 @@ public class Utils {
         String connectionString = urlStart + Config.getAppKey() + "/"
                 + roomName + "/" + dateString + "/" + duration;
         info += "Precursor connectionString: \"" + connectionString + "\"\r\n";
-        URL urlObject = null;
         URI uriObject = null;
         try {
-            urlObject = new URL(connectionString);
-            uriObject =
-                    new URI(urlObject.getProtocol(), urlObject.getUserInfo(), urlObject.getHost(),
-                            urlObject.getPort(), urlObject.getPath(),
-                            urlObject.getQuery(), urlObject.getRef());
-        } catch (MalformedURLException e) {
-            info += "Error: Could not create URL safe connectionString:\r\n" + e.getMessage();
-            Log.e(TAG, info);
-            return null;
+            // Quote the path directly, rather than parsing it as a URL first.
+            uriObject = new URI("http", null, "host", -1,
+                    connectionString.substring(urlStart.length() - 1), null, null);
         } catch (URISyntaxException e) {
             info += "Error: Could not create URL safe connectionString:\r\n" + e.getMessage();
             Log.e(TAG, info);
@@ -384,28 +411,18 @@ public class Utils {
      * @return The Base64-encoded RFC 2104-compliant HMAC signature.
      */
     public static String calculateRFC2104HMAC(String data, String key) {
-        String result = null;
+        // Reuse the signer, and its initialised Macs, for as long as the key is the same.
+        HmacSigner signer = hmacSigner;
+        if (signer == null || !signer.hasKey(key, HMAC_SHA1_ALGORITHM)) {
+            signer = new HmacSigner(key, HMAC_SHA1_ALGORITHM);
+            hmacSigner = signer;
+        }
         try {
-
-            // Get an hmac_sha1 key from the raw key bytes
-            SecretKeySpec signingKey = new SecretKeySpec(key.getBytes(),
-                    HMAC_SHA1_ALGORITHM);
-
-            // Get an hmac_sha1 Mac instance and initialize with the signing key
-            Mac mac = Mac.getInstance(HMAC_SHA1_ALGORITHM);
-            mac.init(signingKey);
-
-            // Compute the hmac on input data bytes
-            byte[] rawHmac = mac.doFinal(data.getBytes());
-
-            // Base64-encode the hmac
-            result = Base64
-                    .encodeToString(rawHmac, Base64.DEFAULT);
-
-        } catch (Exception e) {
+            return signer.sign(data);
+        } catch (IllegalStateException e) {
             Log.e(TAG, "Failed to generate HMAC : " + e.getMessage(), e);
+            return null;
         }
-        return result.substring(0, result.length() - 1);
     }
 
     /**
@@ -415,10 +432,7 @@ public class Utils {
      * @return ISO timestamp
      */
     public static String getISOTimeStamp(Date date) {
-        TimeZone tz = TimeZone.getTimeZone(TIME_ZONE_UTC);
-        DateFormat df = new SimpleDateFormat(ISO_TIME_FORMAT);
-        df.setTimeZone(tz);
-        return df.format(date);
+        return isoTimeFormat.get().format(date);
     }
 
     /**
@@ -467,38 +481,6 @@ public class Utils {
         return peerIdList.length;
     }
 
-    /**
-     * Return a new JSONArray like the one provided,
-     * except less the element at the specified position.
-     * JSONArray.remove is not available for API levels before 19.
-     *
-     * @param arrayOld
-     * @param position
-     * @return
-     */
-    public static JSONArray jsonArrayRemove(JSONArray arrayOld, int position) {
-        JSONArray arrayNew = new JSONArray();
-        Log.e("Position", String.valueOf(position));
-        try {
-            int len = arrayOld.length();
-            if (arrayOld != null) {
-                for (int i = 0; i < len; i++) {
-                    if (i != position) {
-                        JSONObject joOld = arrayOld.getJSONObject(i);
-                        JSONObject joNew = new KeyInfo(joOld).getJson();
-                        arrayNew.put(joNew);
-                    }
-                }
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        String log = "[jsonArrayRemove] Array old:\r\n" + arrayOld + ".\r\n" +
-                "[jsonArrayRemove] Array new:\r\n" + arrayNew + ".";
-        Log.d(TAG, log);
-        return arrayNew;
-    }
-
     public static List<KeyInfo> convertJSONArrayToKeyInfoList(JSONArray ja) {
         List keyInfoList = new ArrayList<>();
         for (int i = 0; i < ja.length(); i++) {
@@ -513,36 +495,6 @@ public class Utils {
         return keyInfoList;
     }
 
-    /**
-     * Checks if an App Key exists in a JSONArray of KeyInfo JSONObject.
-     *
-     * @param key
-     * @param keyList
-     * @return The position (array index) of the App Key if it exists,
-     * or else a negative nubmer if it does not.
-     */
-    public static int getKeyPosition(String key, JSONArray keyList) {
-        if (key == null) {
-            return -1;
-        }
-
-        for (int i = 0; i < keyList.length(); ++i) {
-            JSONObject keyInfoJson = null;
-            try {
-                keyInfoJson = keyList.getJSONObject(i);
-            } catch (JSONException e) {
-                Log.e(TAG, "[getKeyPosition] Error: " + e.getMessage() + ".");
-                continue;
-            }
-            if (keyInfoJson != null) {
-                if (key.equals(KeyInfo.getKey(keyInfoJson))) {
-                    return i;
-                }
-            }
-        }
-        return -1;
-    }
-
     public static boolean checkAppKeyAndSecret(String key, String secret) {
         boolean correct = false;
         if (key.length() == 36 && secret.length() == 13) {
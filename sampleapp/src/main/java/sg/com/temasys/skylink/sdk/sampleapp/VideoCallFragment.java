@@ -26,13 +26,20 @@ import android.widget.TextView;
 
 import org.webrtc.SurfaceViewRenderer;
 
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import sg.com.temasys.skylink.sdk.listener.LifeCycleListener;
 import sg.com.temasys.skylink.sdk.listener.MediaListener;
 import sg.com.temasys.skylink.sdk.listener.OsListener;
 import sg.com.temasys.skylink.sdk.listener.RemotePeerListener;
+import sg.com.temasys.skylink.sdk.listener.StatsListener;
 import sg.com.temasys.skylink.sdk.rtc.Errors;
+import sg.com.temasys.skylink.sdk.rtc.Info;
 import sg.com.temasys.skylink.sdk.rtc.SkylinkCaptureFormat;
 import sg.com.temasys.skylink.sdk.rtc.SkylinkConfig;
 import sg.com.temasys.skylink.sdk.rtc.SkylinkConnection;
@@ -53,7 +60,8 @@ import static sg.com.temasys.skylink.sdk.sampleapp.Utils.toastLogLong;
  * This class is used to demonstrate the VideoCall between two clients in WebRTC
  */
 public class VideoCallFragment extends Fragment
-        implements LifeCycleListener, MediaListener, OsListener, RemotePeerListener {
+        implements LifeCycleListener, MediaListener, OsListener, RemotePeerListener,
+        StatsListener {
 
     private String ROOM_NAME;
     private String MY_USER_NAME;
@@ -95,6 +103,8 @@ public class VideoCallFragment extends Fragment
 
     private static SkylinkConnection skylinkConnection;
     private static SkylinkConfig skylinkConfig;
+    // Rejoins the room after an unexpected disconnect.
+    private ReconnectManager reconnectManager;
     // Indicates if camera should be toggled after returning to app.
     // Generally, it should match whether it was toggled when moving away from app.
     // For e.g., if camera was already off, then it would not be toggled when moving away from app,
@@ -102,6 +112,20 @@ public class VideoCallFragment extends Fragment
     // it would not be toggled.
     private static boolean toggleCamera;
 
+    // Steps the local video quality along adaptiveFormats and adaptiveFps,
+    // based on the stats of the video sent, when adaptive quality is on.
+    private AdaptiveVideoController adaptiveVideoController;
+    // The ladder of capture formats and frame rates, from lowest to highest quality.
+    private SkylinkCaptureFormat[] adaptiveFormats;
+    private int[] adaptiveFps;
+    // Map with PeerId as key for whether stats of the Peer are used for adaptive quality.
+    private final ConcurrentHashMap<String, Boolean> adaptivePeers =
+            new ConcurrentHashMap<String, Boolean>();
+    private StatsCollector statsCollector;
+    private final WebrtcStatsParser webrtcStatsParser = new WebrtcStatsParser();
+    // Cumulative packets lost of the video sent, as of the last stats report.
+    private long lastPacketsLost = WebrtcStats.UNKNOWN;
+
     private boolean connecting = false;
     private String roomName;
     private boolean audioMuted;
@@ -142,6 +166,8 @@ public class VideoCallFragment extends Fragment
 
         ROOM_NAME = Config.ROOM_NAME_VIDEO;
         MY_USER_NAME = Config.USER_NAME_VIDEO;
+        // Leave the room of another sample, if still in it.
+        SkylinkSessionManager.getInstance().endOther(getSessionKey());
 
         rootView = inflater.inflate(R.layout.fragment_video_call, container, false);
         linearLayout = (LinearLayout) rootView.findViewById(R.id.ll_video_call);
@@ -263,6 +289,10 @@ public class VideoCallFragment extends Fragment
             public void onClick(View v) {
                 String log = "Clicked Disconnect!";
                 toastLog(TAG, context, log);
+                // Stop rejoining the room, as the user left it.
+                if (reconnectManager != null) {
+                    reconnectManager.cancel();
+                }
                 disconnectFromRoom();
                 onDisconnectUIChange();
             }
@@ -328,6 +358,11 @@ public class VideoCallFragment extends Fragment
     @Override
     public void onDetach() {
         super.onDetach();
+        // Stop rejoining the room, as this sample is no longer shown.
+        if (reconnectManager != null) {
+            reconnectManager.cancel();
+        }
+        stopAdaptiveVideo();
         disconnectFromRoom();
     }
 
@@ -346,8 +381,10 @@ public class VideoCallFragment extends Fragment
      * Get room name from text field (or use default if not entered),
      * and connect to that room.
      * Initializes SkylinkConnection if not initialized.
+     *
+     * @return false if unable to connect.
      */
-    private void connectToRoom() {
+    private boolean connectToRoom() {
         roomName = etRoomName.getText().toString();
 
         String log = "";
@@ -361,6 +398,19 @@ public class VideoCallFragment extends Fragment
             log = "Entering video room \"" + roomName + "\".";
         }
         toastLog(TAG, context, log);
+        return connectToRoom(roomName);
+    }
+
+    /**
+     * Connect to the given room, e.g. to rejoin the room that was left.
+     * Initializes SkylinkConnection if not initialized.
+     *
+     * @param roomName
+     * @return false if unable to connect.
+     */
+    private boolean connectToRoom(String roomName) {
+        this.roomName = roomName;
+        String log;
 
         // Initialize the skylink connection
         initializeSkylinkConnection();
@@ -369,8 +419,9 @@ public class VideoCallFragment extends Fragment
         // In production, the connection string should be generated by an external entity
         // (such as a secure App server that has the Skylink App Key secret), and sent to the App.
         // This is to avoid keeping the App Key secret within the application, for better security.
-        String skylinkConnectionString = Utils.getSkylinkConnectionString(
-                roomName, new Date(), SkylinkConnection.DEFAULT_DURATION);
+        // Reuse a connection string signed earlier for this room, if still valid.
+        String skylinkConnectionString = CredentialCache.getInstance().get(
+                roomName, SkylinkConnection.DEFAULT_DURATION);
 
         // The skylinkConnectionString should not be logged in production,
         // as it contains potentially sensitive information like the Skylink App Key ID.
@@ -380,13 +431,14 @@ public class VideoCallFragment extends Fragment
         if (connectFailed) {
             log = "[SA][Video][connectToRoom] Unable to connect to room!";
             toastLog(TAG, context, log);
-            return;
+            return false;
         }
 
         connecting = true;
 
         // Initialize and use the Audio router to switch between headphone and headset
         AudioRouter.startAudioRouting(context);
+        return true;
     }
 
     /**
@@ -461,10 +513,8 @@ public class VideoCallFragment extends Fragment
         if (skylinkConnection != null) {
             log = logTag + "Setting Listeners...";
             Log.d(TAG, log);
-            skylinkConnection.setLifeCycleListener(this);
-            skylinkConnection.setMediaListener(this);
-            skylinkConnection.setOsListener(this);
-            skylinkConnection.setRemotePeerListener(this);
+            // Receive callbacks of the session via the event bus, on the UI thread.
+            SkylinkSessionManager.getInstance().attach(this);
             log = logTag + "Done.";
             Log.d(TAG, log);
             return true;
@@ -493,6 +543,37 @@ public class VideoCallFragment extends Fragment
         return peerIdList[index];
     }
 
+    private ReconnectManager getReconnectManager() {
+        if (reconnectManager != null) {
+            return reconnectManager;
+        }
+
+        reconnectManager = new ReconnectManager(new ReconnectManager.Reconnector() {
+            // Room that was disconnected from, as the room name entered may have changed since.
+            private String reconnectRoomName;
+
+            @Override
+            public void prepare() {
+                reconnectRoomName = roomName;
+                // Have the config and connection string ready for the first attempt.
+                getSkylinkConfig();
+                CredentialCache.getInstance().get(reconnectRoomName,
+                        SkylinkConnection.DEFAULT_DURATION);
+            }
+
+            @Override
+            public boolean reconnect() {
+                toastLog(TAG, context, "Rejoining video room \"" + reconnectRoomName + "\".");
+                if (!connectToRoom(reconnectRoomName)) {
+                    return false;
+                }
+                onConnectingUIChange();
+                return true;
+            }
+        });
+        return reconnectManager;
+    }
+
     private SkylinkConfig getSkylinkConfig() {
         if (skylinkConfig != null) {
             return skylinkConfig;
@@ -516,11 +597,13 @@ public class VideoCallFragment extends Fragment
         return skylinkConfig;
     }
 
+    private String getSessionKey() {
+        return SkylinkSessionManager.getSessionKey(TAG, ROOM_NAME, MY_USER_NAME);
+    }
+
     private void initializeSkylinkConnection() {
-        skylinkConnection = SkylinkConnection.getInstance();
-        //the app_key and app_secret is obtained from the temasys developer console.
-        skylinkConnection.init(Config.getAppKey(), getSkylinkConfig(),
-                context.getApplicationContext());
+        skylinkConnection = SkylinkSessionManager.getInstance().start(getSessionKey(),
+                getSkylinkConfig(), context, null);
         // Set listeners to receive callbacks when events are triggered
         setListeners();
     }
@@ -630,6 +713,165 @@ public class VideoCallFragment extends Fragment
         return true;
     }
 
+    /**
+     * Turn adaptive video quality on if it is off, and vice versa.
+     */
+    private void toggleAdaptiveVideo() {
+        if (adaptiveVideoController != null) {
+            stopAdaptiveVideo();
+            toastLog(TAG, context, "[SA][Adaptive] Adaptive video quality is OFF.");
+            return;
+        }
+        startAdaptiveVideo();
+    }
+
+    /**
+     * Start stepping the local video quality up or down along the current camera's
+     * CaptureFormats and frame rates, based on the stats of the video sent to the remote Peer.
+     */
+    private void startAdaptiveVideo() {
+        String logTag = "[SA][Adaptive] ";
+        String peerId = getPeerId(1);
+        if (peerId == null) {
+            toastLog(TAG, context, logTag + "Unable to adapt video quality as there is " +
+                    "no remote Peer in the room!");
+            return;
+        }
+        if (!buildAdaptiveLadder()) {
+            toastLog(TAG, context, logTag + "Unable to adapt video quality as there are " +
+                    "no valid CaptureFormats for the current camera!");
+            return;
+        }
+
+        adaptiveVideoController = new AdaptiveVideoController(
+                adaptiveFormats.length, getAdaptiveLevel(captureFormatSel, fpsSel));
+        lastPacketsLost = WebrtcStats.UNKNOWN;
+        adaptivePeers.clear();
+        adaptivePeers.put(peerId, true);
+        if (statsCollector == null) {
+            statsCollector = new StatsCollector(adaptivePeers,
+                    new StatsCollector.StatsRequester() {
+                        @Override
+                        public void requestStats(String peerId) {
+                            if (skylinkConnection == null) {
+                                return;
+                            }
+                            skylinkConnection.getWebrtcStats(
+                                    peerId, Info.MEDIA_DIRECTION_SEND, Info.MEDIA_VIDEO);
+                            skylinkConnection.getTransferSpeeds(
+                                    peerId, Info.MEDIA_DIRECTION_SEND, Info.MEDIA_VIDEO);
+                        }
+                    });
+        }
+        statsCollector.start();
+        toastLog(TAG, context, logTag + "Adaptive video quality is ON, with " +
+                adaptiveFormats.length + " levels.");
+    }
+
+    /**
+     * Stop adapting the local video quality, leaving it at the current level.
+     */
+    private void stopAdaptiveVideo() {
+        if (statsCollector != null) {
+            statsCollector.shutdown();
+        }
+        for (String peerId : adaptivePeers.keySet()) {
+            webrtcStatsParser.removePeer(peerId);
+        }
+        adaptivePeers.clear();
+        adaptiveVideoController = null;
+    }
+
+    /**
+     * Build the ladder of adaptive levels from {@link #captureFormats}.
+     * Each CaptureFormat, from the smallest to the largest, gives a level at about half its
+     * max frame rate, followed by a level at its max frame rate.
+     *
+     * @return false if there are no valid CaptureFormats.
+     */
+    private boolean buildAdaptiveLadder() {
+        if (!isCaptureFormatsValid(captureFormats)) {
+            return false;
+        }
+        SkylinkCaptureFormat[] formats = Arrays.copyOf(captureFormats, captureFormats.length);
+        Arrays.sort(formats, new Comparator<SkylinkCaptureFormat>() {
+            @Override
+            public int compare(SkylinkCaptureFormat lhs, SkylinkCaptureFormat rhs) {
+                return Integer.compare(lhs.getWidth() * lhs.getHeight(),
+                        rhs.getWidth() * rhs.getHeight());
+            }
+        });
+
+        List<SkylinkCaptureFormat> levelFormats = new ArrayList<SkylinkCaptureFormat>();
+        List<Integer> levelFps = new ArrayList<Integer>();
+        for (SkylinkCaptureFormat format : formats) {
+            if (!isCaptureFormatValid(format)) {
+                continue;
+            }
+            int fpsHalf = Math.max(format.getFpsMin(), format.getFpsMax() / 2);
+            if (fpsHalf < format.getFpsMax()) {
+                levelFormats.add(format);
+                levelFps.add(fpsHalf);
+            }
+            levelFormats.add(format);
+            levelFps.add(format.getFpsMax());
+        }
+        if (levelFormats.isEmpty()) {
+            return false;
+        }
+
+        adaptiveFormats = levelFormats.toArray(new SkylinkCaptureFormat[levelFormats.size()]);
+        adaptiveFps = new int[levelFps.size()];
+        for (int i = 0; i < adaptiveFps.length; ++i) {
+            adaptiveFps[i] = levelFps.get(i);
+        }
+        return true;
+    }
+
+    /**
+     * Get the highest adaptive level that does not exceed the given CaptureFormat and frame rate.
+     *
+     * @param format
+     * @param fps
+     * @return The level, or the highest level if the given CaptureFormat is not known.
+     */
+    private int getAdaptiveLevel(SkylinkCaptureFormat format, int fps) {
+        if (format == null) {
+            return adaptiveFormats.length - 1;
+        }
+        int pixels = format.getWidth() * format.getHeight();
+        int level = -1;
+        for (int i = 0; i < adaptiveFormats.length; ++i) {
+            int levelPixels = adaptiveFormats[i].getWidth() * adaptiveFormats[i].getHeight();
+            if (levelPixels < pixels || (levelPixels == pixels && adaptiveFps[i] <= fps)) {
+                level = i;
+            }
+        }
+        if (level < 0) {
+            return adaptiveFormats.length - 1;
+        }
+        return level;
+    }
+
+    /**
+     * Set the local video to the CaptureFormat and frame rate of an adaptive level,
+     * and update the video resolution UI to match.
+     *
+     * @param level
+     */
+    private void setAdaptiveLevel(int level) {
+        SkylinkCaptureFormat format = adaptiveFormats[level];
+        int fps = adaptiveFps[level];
+        String log = "[SA][Adaptive] Stepping video quality to level " + level + ": " +
+                getResDimStr(format.getWidth(), format.getHeight()) + ", " +
+                getResFpsStr(fps) + ".";
+        Log.d(TAG, log);
+        if (setInputVideoResolutions(format, fps)) {
+            setUiResDim(format.getWidth(), format.getHeight(), captureFormats);
+            setUiResFps(fps, format);
+        }
+    }
+
     /**
      * Get Video View of a given Peer using SkylinkConnection API.
      *
@@ -1248,6 +1490,20 @@ public class VideoCallFragment extends Fragment
                                         Utils.getVideoResolutions(getPeerId(1));
                                     }
                                 });
+                        // Turn adaptive video quality on or off.
+                        String adaptive = "Adaptive quality: ";
+                        if (adaptiveVideoController == null) {
+                            adaptive += "ON";
+                        } else {
+                            adaptive += "OFF";
+                        }
+                        selfDialogBuilder.setNeutralButton(adaptive,
+                                new DialogInterface.OnClickListener() {
+                                    @Override
+                                    public void onClick(DialogInterface dialog, int which) {
+                                        toggleAdaptiveVideo();
+                                    }
+                                });
                         // Switch camera if possible.
                         selfDialogBuilder.setNegativeButton("Switch Camera",
                                 new DialogInterface.OnClickListener() {
@@ -1382,6 +1638,7 @@ public class VideoCallFragment extends Fragment
 
     @Override
     public void onConnect(boolean isSuccessful, String message) {
+        getReconnectManager().onConnect(isSuccessful);
         if (isSuccessful) {
             connecting = false;
             onConnectUIChange();
@@ -1399,6 +1656,7 @@ public class VideoCallFragment extends Fragment
 
     @Override
     public void onDisconnect(int errorCode, String message) {
+        stopAdaptiveVideo();
         onDisconnectUIChange();
         connecting = false;
         String log = "[onDisconnect] ";
@@ -1409,6 +1667,8 @@ public class VideoCallFragment extends Fragment
         }
         log += " Server message: " + message;
         toastLogLong(TAG, context, log);
+        // Rejoin the room if the disconnect was unexpected.
+        getReconnectManager().onDisconnect(errorCode);
     }
 
     @Override
@@ -1578,6 +1838,9 @@ public class VideoCallFragment extends Fragment
     public void onRemotePeerLeave(String remotePeerId, String message, UserInfo userInfo) {
         View peerView = linearLayout.findViewWithTag("peer");
         linearLayout.removeView(peerView);
+        if (adaptivePeers.containsKey(remotePeerId)) {
+            stopAdaptiveVideo();
+        }
 
         int numRemotePeers = getNumRemotePeers();
         String log = "Your Peer " + Utils.getPeerIdNick(remotePeerId, userInfo) + " left: " +
@@ -1623,4 +1886,48 @@ public class VideoCallFragment extends Fragment
         Log.d(TAG, "onOpenDataConnection");
     }
 
-}
\ No newline at end of file
+
+    /**
+     * Stats Listener Callbacks - triggered during statistics measuring events.
+     * Only used for adaptive video quality.
+     */
+
+    @Override
+    public void onWebrtcStatsReceived(String peerId, int mediaDirection, int mediaType,
+                                      HashMap<String, String> stats) {
+        if (statsCollector != null) {
+            statsCollector.onStatsReceived(peerId);
+        }
+        AdaptiveVideoController controller = adaptiveVideoController;
+        if (controller == null || !adaptivePeers.containsKey(peerId) ||
+                mediaDirection == Info.MEDIA_DIRECTION_RECV) {
+            return;
+        }
+        WebrtcStats webrtcStats =
+                webrtcStatsParser.parse(peerId, mediaDirection, mediaType, stats);
+        // Packets lost is cumulative, so feed the change since the previous report.
+        long packetsLost = webrtcStats.getPacketsLost();
+        if (packetsLost != WebrtcStats.UNKNOWN) {
+            if (lastPacketsLost != WebrtcStats.UNKNOWN && packetsLost >= lastPacketsLost) {
+                controller.onPacketsLost(packetsLost - lastPacketsLost);
+            }
+            lastPacketsLost = packetsLost;
+        }
+        webrtcStatsParser.recycle(webrtcStats);
+    }
+
+    @Override
+    public void onTransferSpeedReceived(String peerId, int mediaDirection, int mediaType,
+                                        double transferSpeed) {
+        AdaptiveVideoController controller = adaptiveVideoController;
+        if (controller == null || !adaptivePeers.containsKey(peerId) ||
+                mediaDirection == Info.MEDIA_DIRECTION_RECV) {
+            return;
+        }
+        int level = controller.getLevel();
+        int levelNew = controller.onSendBitrate(System.currentTimeMillis(), transferSpeed);
+        if (levelNew != level) {
+            setAdaptiveLevel(levelNew);
+        }
+    }
+}
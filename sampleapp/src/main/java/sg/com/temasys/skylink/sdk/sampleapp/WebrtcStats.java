@@ -0,0 +1,119 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+/**
+ * Typed record of the commonly used values of a WebRTC stats report from
+ * {@link sg.com.temasys.skylink.sdk.listener.StatsListener#onWebrtcStatsReceived}.
+ * <p>
+ * Instances are reused via {@link WebrtcStatsParser}, so consumers should not hold on to them
+ * after {@link WebrtcStatsParser#recycle} has been called.
+ * Values that were not present in the report are {@link #UNKNOWN} for integral fields,
+ * and {@link Double#NaN} for floating point fields.
+ */
+public class WebrtcStats {
+
+    public static final long UNKNOWN = -1;
+
+    String peerId;
+    int mediaDirection;
+    int mediaType;
+    long timestampMs;
+
+    long bytesSent;
+    long bytesReceived;
+    long packetsLost;
+    long framesDecoded;
+    // Jitter and round trip time are in ms.
+    double jitterMs;
+    double rttMs;
+    double fps;
+    int width;
+    int height;
+
+    WebrtcStats() {
+        reset();
+    }
+
+    /**
+     * Set all values back to unknown.
+     */
+    void reset() {
+        peerId = null;
+        mediaDirection = 0;
+        mediaType = 0;
+        timestampMs = 0;
+        bytesSent = UNKNOWN;
+        bytesReceived = UNKNOWN;
+        packetsLost = UNKNOWN;
+        framesDecoded = UNKNOWN;
+        jitterMs = Double.NaN;
+        rttMs = Double.NaN;
+        fps = Double.NaN;
+        width = (int) UNKNOWN;
+        height = (int) UNKNOWN;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Getters
+    //----------------------------------------------------------------------------------------------
+
+    public String getPeerId() {
+        return peerId;
+    }
+
+    public int getMediaDirection() {
+        return mediaDirection;
+    }
+
+    public int getMediaType() {
+        return mediaType;
+    }
+
+    public long getTimestampMs() {
+        return timestampMs;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getPacketsLost() {
+        return packetsLost;
+    }
+
+    public long getFramesDecoded() {
+        return framesDecoded;
+    }
+
+    public double getJitterMs() {
+        return jitterMs;
+    }
+
+    public double getRttMs() {
+        return rttMs;
+    }
+
+    public double getFps() {
+        return fps;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public String toString() {
+        return "Peer " + peerId + " (direction:" + mediaDirection + ", type:" + mediaType +
+                "): bytesSent=" + bytesSent + ", bytesReceived=" + bytesReceived +
+                ", packetsLost=" + packetsLost + ", jitterMs=" + jitterMs +
+                ", rttMs=" + rttMs + ", framesDecoded=" + framesDecoded +
+                ", fps=" + fps + ", resolution=" + width + "x" + height + ".";
+    }
+}
@@ -0,0 +1,172 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parses the String key-value WebRTC stats from
+ * {@link sg.com.temasys.skylink.sdk.listener.StatsListener#onWebrtcStatsReceived}
+ * into reusable {@link WebrtcStats} records.
+ * <p>
+ * Records are kept in a small pool per Peer, so that in steady state, each report is parsed
+ * into a recycled record instead of a new one.
+ * Every record obtained via {@link #parse} should be given back via {@link #recycle}
+ * once all consumers are done with it.
+ */
+public class WebrtcStatsParser {
+
+    // Maximum number of free records kept per Peer.
+    private static final int POOL_SIZE_PER_PEER = 4;
+
+    // Map with PeerId as key for the pool of free records of that Peer.
+    private final ConcurrentHashMap<String, ArrayDeque<WebrtcStats>> pools =
+            new ConcurrentHashMap<String, ArrayDeque<WebrtcStats>>();
+
+    /**
+     * Parse the known keys of a stats report into a pooled record.
+     * Unknown keys and values that are not numbers are ignored.
+     *
+     * @param peerId
+     * @param mediaDirection As given in StatsListener method.
+     * @param mediaType      As given in StatsListener method.
+     * @param stats          As given in StatsListener method.
+     * @return The parsed record, to be recycled after use.
+     */
+    public WebrtcStats parse(String peerId, int mediaDirection, int mediaType,
+                             Map<String, String> stats) {
+        WebrtcStats record = obtain(peerId);
+        record.peerId = peerId;
+        record.mediaDirection = mediaDirection;
+        record.mediaType = mediaType;
+        record.timestampMs = System.currentTimeMillis();
+        if (stats == null) {
+            return record;
+        }
+
+        for (Map.Entry<String, String> entry : stats.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            if (key == null || value == null || value.isEmpty()) {
+                continue;
+            }
+            try {
+                parseEntry(record, key, value);
+            } catch (NumberFormatException e) {
+                // Not a value we can use, leave as unknown.
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Return a record obtained from {@link #parse} to the pool of its Peer.
+     *
+     * @param record
+     */
+    public void recycle(WebrtcStats record) {
+        if (record == null || record.peerId == null) {
+            return;
+        }
+        ArrayDeque<WebrtcStats> pool = pools.get(record.peerId);
+        record.reset();
+        if (pool == null) {
+            return;
+        }
+        synchronized (pool) {
+            if (pool.size() < POOL_SIZE_PER_PEER) {
+                pool.push(record);
+            }
+        }
+    }
+
+    /**
+     * Release the pool of a Peer, e.g. when the Peer leaves the room.
+     *
+     * @param peerId
+     */
+    public void removePeer(String peerId) {
+        if (peerId != null) {
+            pools.remove(peerId);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    private WebrtcStats obtain(String peerId) {
+        if (peerId == null) {
+            return new WebrtcStats();
+        }
+        ArrayDeque<WebrtcStats> pool = pools.get(peerId);
+        if (pool == null) {
+            pool = new ArrayDeque<WebrtcStats>(POOL_SIZE_PER_PEER);
+            ArrayDeque<WebrtcStats> existing = pools.putIfAbsent(peerId, pool);
+            if (existing != null) {
+                pool = existing;
+            }
+        }
+        WebrtcStats record;
+        synchronized (pool) {
+            record = pool.poll();
+        }
+        if (record == null) {
+            record = new WebrtcStats();
+        }
+        return record;
+    }
+
+    /**
+     * Set the field of the record that the key maps to, if any.
+     * Both the legacy (goog) and the standard stats names are recognised.
+     */
+    private static void parseEntry(WebrtcStats record, String key, String value) {
+        switch (key) {
+            case "bytesSent":
+                record.bytesSent = Long.parseLong(value);
+                break;
+            case "bytesReceived":
+                record.bytesReceived = Long.parseLong(value);
+                break;
+            case "packetsLost":
+                record.packetsLost = Long.parseLong(value);
+                break;
+            case "framesDecoded":
+                record.framesDecoded = Long.parseLong(value);
+                break;
+            // Legacy jitter is in ms, standard jitter is in seconds.
+            case "googJitterReceived":
+                record.jitterMs = Double.parseDouble(value);
+                break;
+            case "jitter":
+                record.jitterMs = Double.parseDouble(value) * 1000;
+                break;
+            // Legacy RTT is in ms, standard RTT is in seconds.
+            case "googRtt":
+                record.rttMs = Double.parseDouble(value);
+                break;
+            case "roundTripTime":
+            case "currentRoundTripTime":
+                record.rttMs = Double.parseDouble(value) * 1000;
+                break;
+            case "googFrameRateReceived":
+            case "googFrameRateSent":
+            case "framesPerSecond":
+                record.fps = Double.parseDouble(value);
+                break;
+            case "googFrameWidthReceived":
+            case "googFrameWidthSent":
+            case "frameWidth":
+                record.width = Integer.parseInt(value);
+                break;
+            case "googFrameHeightReceived":
+            case "googFrameHeightSent":
+            case "frameHeight":
+                record.height = Integer.parseInt(value);
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package sg.com.temasys.skylink.sdk.sampleapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Replays traces of sent video stats through {@link AdaptiveVideoController},
+ * with one sample per second as from the StatsCollector.
+ */
+public class AdaptiveVideoControllerTest {
+
+    private static final long SAMPLE_MS = 1000;
+    private static final double KBPS_GOOD = 1000;
+    private static final long LOST_HIGH = 20;
+
+    @Test
+    public void stepsUpAfterSustainedGoodSamples() {
+        AdaptiveVideoController controller = new AdaptiveVideoController(3, 0);
+        // The 10th good sample steps up.
+        assertEquals(9000, replayUntilChange(controller, 0, 20, KBPS_GOOD, 0));
+        assertEquals(1, controller.getLevel());
+        // Samples within the hold time are ignored, so the next 10 good samples start at 14 s.
+        assertEquals(23000, replayUntilChange(controller, 10000, 20, KBPS_GOOD, 0));
+        assertEquals(2, controller.getLevel());
+        // No step above the highest level.
+        assertEquals(-1, replayUntilChange(controller, 28000, 30, KBPS_GOOD, 0));
+        assertEquals(2, controller.getLevel());
+    }
+
+    @Test
+    public void stepsDownOnSustainedLoss() {
+        AdaptiveVideoController controller = new AdaptiveVideoController(2, 1);
+        // The 2nd congested sample steps down.
+        assertEquals(1000, replayUntilChange(controller, 0, 10, KBPS_GOOD, LOST_HIGH));
+        assertEquals(0, controller.getLevel());
+        // No step below the lowest level.
+        assertEquals(-1, replayUntilChange(controller, 6000, 10, KBPS_GOOD, LOST_HIGH));
+        assertEquals(0, controller.getLevel());
+    }
+
+    @Test
+    public void doesNotStepDownOnIsolatedCongestedSamples() {
+        AdaptiveVideoController controller = new AdaptiveVideoController(2, 1);
+        for (int i = 0; i < 20; ++i) {
+            controller.onPacketsLost(i % 2 == 0 ? LOST_HIGH : 0);
+            assertEquals(1, controller.onSendBitrate(i * SAMPLE_MS, KBPS_GOOD));
+        }
+    }
+
+    @Test
+    public void stepsDownOnBitrateDrop() {
+        AdaptiveVideoController controller = new AdaptiveVideoController(2, 1);
+        // Establish the baseline bitrate.
+        assertEquals(-1, replayUntilChange(controller, 0, 5, KBPS_GOOD, 0));
+        // Less than half the baseline, without any loss.
+        assertEquals(6000, replayUntilChange(controller, 5000, 10, KBPS_GOOD * 0.4, 0));
+        assertEquals(0, controller.getLevel());
+    }
+
+    @Test
+    public void backsOffAfterFailedStepUp() {
+        AdaptiveVideoController controller = new AdaptiveVideoController(3, 0);
+        assertEquals(9000, replayUntilChange(controller, 0, 20, KBPS_GOOD, 0));
+        // Congested soon after the step up.
+        assertEquals(15000, replayUntilChange(controller, 14000, 10, KBPS_GOOD, LOST_HIGH));
+        assertEquals(0, controller.getLevel());
+        // Twice as many good samples are now needed to step up.
+        assertEquals(39000, replayUntilChange(controller, 20000, 40, KBPS_GOOD, 0));
+        assertEquals(1, controller.getLevel());
+    }
+
+    @Test
+    public void restoresPaceAfterStepUpHolds() {
+        AdaptiveVideoController controller = new AdaptiveVideoController(2, 0);
+        assertEquals(9000, replayUntilChange(controller, 0, 20, KBPS_GOOD, 0));
+        assertEquals(15000, replayUntilChange(controller, 14000, 10, KBPS_GOOD, LOST_HIGH));
+        assertEquals(39000, replayUntilChange(controller, 20000, 40, KBPS_GOOD, 0));
+        // The step up holds for 30 s.
+        assertEquals(-1, replayUntilChange(controller, 40000, 31, KBPS_GOOD, 0));
+        // A later step down is not blamed on the step up.
+        assertEquals(72000, replayUntilChange(controller, 71000, 10, KBPS_GOOD, LOST_HIGH));
+        // So 10 good samples step up again.
+        assertEquals(86000, replayUntilChange(controller, 77000, 20, KBPS_GOOD, 0));
+        assertEquals(1, controller.getLevel());
+    }
+
+    @Test
+    public void ignoresSamplesWithoutVideo() {
+        AdaptiveVideoController controller = new AdaptiveVideoController(2, 1);
+        assertEquals(-1, replayUntilChange(controller, 0, 20, 0, LOST_HIGH));
+        assertEquals(-1, replayUntilChange(controller, 20000, 20, Double.NaN, LOST_HIGH));
+        assertEquals(1, controller.getLevel());
+    }
+
+    @Test
+    public void resetClampsLevel() {
+        AdaptiveVideoController controller = new AdaptiveVideoController(3, 5);
+        assertEquals(2, controller.getLevel());
+        controller.reset(2, -1);
+        assertEquals(0, controller.getLevel());
+        assertEquals(2, controller.getLevelCount());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Internal methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Feed samples of the same bitrate and loss, one per SAMPLE_MS,
+     * until one changes the level.
+     *
+     * @return Time of the sample that changed the level, or -1 if none did.
+     */
+    private static long replayUntilChange(AdaptiveVideoController controller, long startMs,
+                                          int samples, double kbps, long lostPerSample) {
+        int level = controller.getLevel();
+        for (int i = 0; i < samples; ++i) {
+            long nowMs = startMs + i * SAMPLE_MS;
+            controller.onPacketsLost(lostPerSample);
+            if (controller.onSendBitrate(nowMs, kbps) != level) {
+                return nowMs;
+            }
+        }
+        return -1;
+    }
+}